@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * <p>
+ * A small benchmark harness, in the style of JMH. Each benchmark is run
+ * for a number of timed warmup iterations (to give the JIT compiler a
+ * chance to work), followed by a number of timed measurement
+ * iterations. The average time per operation is reported, along with
+ * the average number of bytes allocated per operation, if the JVM
+ * supports measuring that.
+ * </p>
+ * <p>
+ * Benchmarks are kept out of the main source folder, so they don't end
+ * up in TagTime.jar. The Eclipse project builds this folder as a
+ * second source folder; leave it unchecked when exporting the jar. To
+ * run a benchmark from the command line, compile this folder against
+ * the main source folder and the libraries in lib/, then run one of
+ * the classes with a main method.
+ * </p>
+ * <p>
+ * This harness is used instead of JMH because JMH generates its
+ * benchmark classes with an annotation processor, and the project is
+ * built by Eclipse without one configured. Adding JMH would mean adding
+ * that build step, as well as its jars.
+ * </p>
+ */
+public class BenchmarkRunner {
+	/**
+	 * An operation to be timed.
+	 */
+	public interface Operation {
+		/**
+		 * Runs the operation once.
+		 * @param iteration The number of times this operation has been
+		 *            run in the current iteration, for operations that
+		 *            need to vary their input.
+		 * @return Any value derived from the result, so that the JIT
+		 *         compiler can't eliminate the work.
+		 */
+		long run(long iteration) throws Exception;
+	}
+	
+	/**
+	 * Results are written here so that the JIT compiler can't tell
+	 * they're unused.
+	 */
+	public static volatile long sink;
+	
+	private final int warmupIterations;
+	private final int measurementIterations;
+	private final long iterationNanos;
+	
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private final boolean allocationSupported =
+				threadBean instanceof com.sun.management.ThreadMXBean;
+	
+	/**
+	 * @param warmupIterations The number of untimed iterations to run
+	 *            before measuring.
+	 * @param measurementIterations The number of iterations to measure.
+	 * @param iterationMillis The length of each iteration.
+	 */
+	public BenchmarkRunner(int warmupIterations, int measurementIterations,
+				long iterationMillis) {
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationNanos = iterationMillis * 1000000L;
+	}
+	
+	/**
+	 * Creates a runner with default settings: three warmup iterations
+	 * and five measurement iterations, each lasting half a second.
+	 */
+	public BenchmarkRunner() {
+		this(3, 5, 500);
+	}
+	
+	/**
+	 * Prints the header for the results table.
+	 */
+	public void printHeader() {
+		System.out.println(String.format("%-60s %14s %10s %14s",
+					"Benchmark", "ns/op", "error", "B/op"));
+	}
+	
+	/**
+	 * Runs the given operation and prints the results.
+	 */
+	public void run(String name, Operation operation) throws Exception {
+		for(int i = 0; i < warmupIterations; i++) {
+			runIteration(operation);
+		}
+		
+		double[] nanosPerOp = new double[measurementIterations];
+		double bytesPerOp = 0;
+		for(int i = 0; i < measurementIterations; i++) {
+			long allocatedBefore = getAllocatedBytes();
+			long[] result = runIteration(operation);
+			long allocated = getAllocatedBytes() - allocatedBefore;
+			
+			nanosPerOp[i] = (double) result[1] / result[0];
+			bytesPerOp += (double) allocated / result[0] / measurementIterations;
+		}
+		
+		//report the mean, plus or minus the standard deviation
+		double mean = 0;
+		for(double value : nanosPerOp) {
+			mean += value / nanosPerOp.length;
+		}
+		double variance = 0;
+		for(double value : nanosPerOp) {
+			variance += (value - mean) * (value - mean) / nanosPerOp.length;
+		}
+		
+		System.out.println(String.format("%-60s %14.1f %10.1f %14s",
+					name, mean, Math.sqrt(variance),
+					allocationSupported ? String.format("%.1f", bytesPerOp) : "n/a"));
+	}
+	
+	/**
+	 * Runs the operation repeatedly until the iteration time is up.
+	 * @return The number of operations run, and the time they took in
+	 *         nanoseconds.
+	 */
+	private long[] runIteration(Operation operation) throws Exception {
+		long result = 0;
+		long count = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		
+		do {
+			result += operation.run(count);
+			count++;
+			elapsed = System.nanoTime() - start;
+		} while(elapsed < iterationNanos);
+		
+		sink = result;
+		
+		return new long[] {count, elapsed};
+	}
+	
+	/**
+	 * @return The number of bytes allocated by the current thread so far,
+	 *         or 0 if the JVM can't measure this.
+	 */
+	private long getAllocatedBytes() {
+		if(allocationSupported) {
+			return ((com.sun.management.ThreadMXBean) threadBean)
+						.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		
+		return 0;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+
+import org.quartz.TriggerBuilder;
+
+import tagtime.log.LogCache;
+import tagtime.log.LogEntryReader;
+import tagtime.log.LogLineCodec;
+import tagtime.log.TextPingStore;
+import tagtime.quartz.RandomizedScheduleBuilder;
+import tagtime.quartz.RandomizedTrigger;
+
+/**
+ * <p>
+ * Checks that {@link LogCache} expands gap records into the pings the
+ * schedule actually produced. A gap record is written for a run of
+ * consecutive pings, then read back through the cache, and each ping is
+ * compared with {@link RandomizedTrigger#fireTimeMillisAt(long)}.
+ * </p>
+ * <p>
+ * The same record is also read through a cache with no trigger, which
+ * spaces the pings evenly; this is what happened when the log was
+ * created before the trigger, and the check makes sure the two differ.
+ * </p>
+ * <p>
+ * Usage: <code>LogCacheGapCheck</code>. Exits with a non-zero status if
+ * the check fails.
+ * </p>
+ */
+public class LogCacheGapCheck {
+	private static final String KEY = "AAECAwQFBgcICQoLDA0ODw==";
+	
+	private static final int FIRST_INDEX = 100000;
+	private static final int PINGS = 500;
+	
+	public static void main(String[] args) throws Exception {
+		RandomizedTrigger trigger = (RandomizedTrigger) TriggerBuilder.newTrigger()
+					.withSchedule(RandomizedScheduleBuilder.repeatMinutelyForever(45)
+								.withRNGKey(KEY))
+					.startAt(new Date(RandomizedTrigger.CALENDAR_START))
+					.build();
+		
+		File directory = Files.createTempDirectory("tagtime").toFile();
+		try {
+			File logFile = new File(directory, "check.log");
+			long firstTime = trigger.fireTimeMillisAt(FIRST_INDEX);
+			long first = firstTime / 1000;
+			long end = trigger.fireTimeMillisAt(FIRST_INDEX + PINGS - 1) / 1000 + 1;
+			
+			StringBuilder line = new StringBuilder();
+			int length = LogLineCodec.get().encodeGapRaw(line, first, firstTime, end, PINGS,
+						"afk off");
+			
+			TextPingStore store = new TextPingStore(logFile, false, false, false, false);
+			store.append(line.toString(), new long[] {first}, new int[] {length}, 1);
+			store.commit(false);
+			
+			int failures = 0;
+			LogEntryReader in = new LogCache(store, trigger, 1 << 24)
+						.entriesBetween(Long.MIN_VALUE, Long.MAX_VALUE);
+			int count = 0;
+			long expected;
+			while(in.next()) {
+				expected = trigger.fireTimeMillisAt(FIRST_INDEX + count) / 1000;
+				if(in.getTimestamp() != expected) {
+					if(failures < 10) {
+						System.out.println("Ping " + count + ": expected " + expected
+									+ ", found " + in.getTimestamp());
+					}
+					failures++;
+				}
+				count++;
+			}
+			in.close();
+			
+			if(count != PINGS) {
+				System.out.println("Expected " + PINGS + " pings, found " + count);
+				failures++;
+			}
+			
+			int evenlySpaced = countMatches(new LogCache(store, null, 1 << 24), trigger);
+			if(evenlySpaced == PINGS) {
+				System.out.println("Spacing the pings evenly gave the same times");
+				failures++;
+			}
+			
+			store.close();
+			
+			System.out.println("Gap record of " + PINGS + " pings: " + failures + " failures"
+						+ " (" + evenlySpaced + " pings match without a trigger)");
+			if(failures > 0) {
+				System.exit(1);
+			}
+		} finally {
+			delete(directory);
+		}
+	}
+	
+	/**
+	 * @return The number of pings read through the given cache that fall
+	 *         exactly on the schedule.
+	 */
+	private static int countMatches(LogCache cache, RandomizedTrigger trigger)
+				throws IOException {
+		LogEntryReader in = cache.entriesBetween(Long.MIN_VALUE, Long.MAX_VALUE);
+		int matches = 0;
+		int count = 0;
+		while(in.next()) {
+			if(in.getTimestamp() == trigger.fireTimeMillisAt(FIRST_INDEX + count) / 1000) {
+				matches++;
+			}
+			count++;
+		}
+		in.close();
+		return matches;
+	}
+	
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import tagtime.log.BinaryLog;
+import tagtime.log.LogParser;
+import tagtime.util.TagMatcher;
+
+/**
+ * <p>
+ * Compares the text log with its binary copy: the size of each, the
+ * time to parse each with {@link LogParser}, and whether the binary copy
+ * converts back to exactly the same text.
+ * </p>
+ * <p>
+ * Usage: <code>LogFormatBenchmark [log file]</code>. If no log is
+ * given, five years of pings with typical tags are generated.
+ * </p>
+ */
+public class LogFormatBenchmark {
+	private static final String[] TAGS = {"work", "email", "meeting", "code",
+				"read", "eat", "sleep", "commute", "exercise", "tv", "phone"};
+	
+	public static void main(String[] args) throws Exception {
+		File logFile;
+		if(args.length > 0) {
+			logFile = new File(args[0]);
+		} else {
+			logFile = File.createTempFile("tagtime", ".log");
+			logFile.deleteOnExit();
+			generateLog(logFile, 5 * 365 * 32);
+		}
+		
+		final File textFile = logFile;
+		final File binaryFile = BinaryLog.getBinaryFile(logFile);
+		binaryFile.deleteOnExit();
+		
+		long start = System.nanoTime();
+		BinaryLog.update(logFile);
+		long conversionMillis = (System.nanoTime() - start) / 1000000;
+		
+		File exportFile = File.createTempFile("tagtime", ".export");
+		exportFile.deleteOnExit();
+		BinaryLog.export(binaryFile, exportFile);
+		boolean identical = Arrays.equals(Files.readAllBytes(textFile.toPath()),
+					Files.readAllBytes(exportFile.toPath()));
+		
+		System.out.println("Text log:    " + textFile.length() + " bytes");
+		System.out.println("Binary log:  " + binaryFile.length() + " bytes ("
+					+ String.format("%.1f", (double) textFile.length() / binaryFile.length())
+					+ "x smaller)");
+		System.out.println("Conversion:  " + conversionMillis + " ms");
+		System.out.println("Round trip:  " + (identical ? "identical" : "DIFFERENT"));
+		System.out.println();
+		
+		final TagMatcher tagMatcher = new TagMatcher(Collections.singleton("work"),
+					Collections.<String>emptySet());
+		
+		BenchmarkRunner runner = new BenchmarkRunner(2, 5, 1000);
+		runner.printHeader();
+		runner.run("LogParser.parse [text]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) {
+				return LogParser.parse(textFile, tagMatcher, false, null).size();
+			}
+		});
+		runner.run("LogParser.parse [binary]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) {
+				return LogParser.parse(textFile, tagMatcher, true, null).size();
+			}
+		});
+	}
+	
+	/**
+	 * Writes a log with the given number of pings, in the same format
+	 * as the log itself.
+	 */
+	private static void generateLog(File file, int pings) throws IOException {
+		Random random = new Random(1);
+		DateFormat dateFormat = DateFormat.getDateTimeInstance();
+		long timestamp = 1330000000;
+		
+		Writer out = new BufferedWriter(new FileWriter(file));
+		try {
+			for(int i = 0; i < pings; i++) {
+				timestamp += 1 + (long) (-Math.log(random.nextDouble()) * 45 * 60);
+				
+				String data = TAGS[random.nextInt(TAGS.length)];
+				if(random.nextInt(3) == 0) {
+					data += " " + TAGS[random.nextInt(TAGS.length)];
+				}
+				if(random.nextInt(10) == 0) {
+					data = "afk off RETRO";
+				}
+				
+				String line = timestamp + " " + data;
+				while(line.length() < 55) {
+					line += " ";
+				}
+				out.write(line + "[" + dateFormat.format(timestamp * 1000) + "]\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
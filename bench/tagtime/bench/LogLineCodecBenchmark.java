@@ -0,0 +1,281 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tagtime.log.LogLineCodec;
+
+/**
+ * <p>
+ * Fuzz-tests {@link LogLineCodec}, then compares its speed and
+ * allocation with the way lines were formatted and parsed before it
+ * existed (string concatenation and <code>String.format()</code> to
+ * write, and regular expressions to read).
+ * </p>
+ * <p>
+ * The fuzz test encodes random entries containing arbitrary Unicode
+ * text, and checks that decoding each one gives back the same timestamp
+ * and the same tags that the old regular expressions would have found
+ * in the original text. Lines made only of ASCII are also checked
+ * against the old formatting, byte for byte.
+ * </p>
+ * <p>
+ * Usage: <code>LogLineCodecBenchmark [fuzz iterations]</code>.
+ * </p>
+ */
+public class LogLineCodecBenchmark {
+	private static final Pattern LINE_PARSER =
+				Pattern.compile("^(\\d+) (.+)\\[[a-zA-Z0-9 :,\\.]+\\]$");
+	private static final Pattern TAG_PARSER =
+				Pattern.compile("[^\\]\\s,\\-][^\\]\\s,]+");
+	
+	private static final String[] TAGS = {"work", "email", "meeting", "code",
+				"read", "eat", "sleep", "commute", "exercise", "tv", "phone"};
+	
+	/**
+	 * Characters that are likely to matter when splitting tags.
+	 */
+	private static final String SPECIAL_CHARACTERS = " ,-]\t[:.";
+	
+	public static void main(String[] args) throws Exception {
+		int fuzzIterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		
+		int failures = fuzz(fuzzIterations);
+		System.out.println("Fuzz test:   " + fuzzIterations + " lines, " + failures
+					+ " failures");
+		System.out.println();
+		
+		final String[] data = new String[1024];
+		Random random = new Random(1);
+		for(int i = 0; i < data.length; i++) {
+			data[i] = TAGS[random.nextInt(TAGS.length)];
+			if(random.nextInt(3) == 0) {
+				data[i] += " " + TAGS[random.nextInt(TAGS.length)];
+			}
+			if(random.nextInt(10) == 0) {
+				data[i] = "afk off RETRO";
+			}
+		}
+		
+		final LogLineCodec codec = LogLineCodec.get();
+		final DateFormat dateFormat = DateFormat.getDateTimeInstance();
+		final String[] lines = new String[data.length];
+		final ByteBuffer[] encodedLines = new ByteBuffer[data.length];
+		for(int i = 0; i < data.length; i++) {
+			long timestamp = 1330000000L + i * 2700L;
+			lines[i] = formatLegacy(timestamp, timestamp * 1000, data[i]).trim();
+			byte[] bytes = lines[i].getBytes(StandardCharsets.UTF_8);
+			encodedLines[i] = ByteBuffer.wrap(bytes);
+		}
+		
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.printHeader();
+		runner.run("format [concatenation + String.format]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) {
+				long timestamp = 1330000000L + iteration;
+				String line = formatLegacy(timestamp, timestamp * 1000,
+							data[(int) (iteration & 1023)]);
+				
+				//RandomAccessFile.writeBytes() makes a copy like this
+				return line.getBytes(StandardCharsets.ISO_8859_1).length;
+			}
+		});
+		runner.run("format [LogLineCodec.encode]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) {
+				long timestamp = 1330000000L + iteration;
+				return codec.encode(timestamp, timestamp * 1000,
+							data[(int) (iteration & 1023)], dateFormat).remaining();
+			}
+		});
+		
+		final Matcher lineData = LINE_PARSER.matcher("");
+		final Matcher tagData = TAG_PARSER.matcher("");
+		final List<String> tags = new ArrayList<String>();
+		runner.run("parse [regular expressions]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) {
+				lineData.reset(lines[(int) (iteration & 1023)]);
+				if(!lineData.matches()) {
+					return 0;
+				}
+				long timestamp = Long.parseLong(lineData.group(1));
+				
+				tags.clear();
+				tagData.reset(lineData.group(2));
+				while(tagData.find()) {
+					tags.add(tagData.group());
+				}
+				return timestamp + tags.size();
+			}
+		});
+		
+		final LogLineCodec.Entry entry = new LogLineCodec.Entry();
+		runner.run("parse [LogLineCodec.Entry.decode]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) {
+				if(!entry.decode(encodedLines[(int) (iteration & 1023)])) {
+					return 0;
+				}
+				return entry.getTimestamp() + entry.getTags().size();
+			}
+		});
+		
+		if(failures > 0) {
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Encodes and decodes random entries.
+	 * @return The number of entries that didn't survive the round trip.
+	 */
+	private static int fuzz(int iterations) {
+		Random random = new Random(2);
+		LogLineCodec codec = LogLineCodec.get();
+		DateFormat dateFormat = DateFormat.getDateTimeInstance();
+		LogLineCodec.Entry entry = new LogLineCodec.Entry();
+		LogLineCodec.Entry rawEntry = new LogLineCodec.Entry();
+		
+		int failures = 0;
+		for(int i = 0; i < iterations; i++) {
+			String data = randomData(random);
+			long timestamp = random.nextInt(4) == 0
+						? (long) (random.nextDouble() * 100000000000L)
+						: 1330000000L + random.nextInt(400000000);
+			
+			List<String> expectedTags = new ArrayList<String>();
+			Matcher tagData = TAG_PARSER.matcher(data);
+			while(tagData.find()) {
+				expectedTags.add(tagData.group());
+			}
+			
+			ByteBuffer line = codec.encode(timestamp, timestamp * 1000, data, dateFormat);
+			byte[] bytes = new byte[line.remaining()];
+			line.duplicate().get(bytes);
+			
+			boolean failed = !entry.decode(line) || entry.getTimestamp() != timestamp
+						|| !entry.getTags().equals(expectedTags);
+			
+			//the same line, as it would be read back from the file
+			failed |= !rawEntry.decodeRaw(new String(bytes, StandardCharsets.ISO_8859_1))
+						|| !rawEntry.getTags().equals(expectedTags);
+			
+			String decoded = new String(bytes, StandardCharsets.UTF_8);
+			failed |= !decoded.equals(formatLegacy(timestamp, timestamp * 1000, data, dateFormat));
+			
+			if(failed) {
+				if(failures < 10) {
+					System.out.println("Failed: " + decoded.trim() + " -> "
+								+ entry.getTags() + ", expected " + expectedTags);
+				}
+				failures++;
+			}
+		}
+		
+		return failures;
+	}
+	
+	/**
+	 * Creates data made of tags and random text, including any Unicode
+	 * character that can appear within a line.
+	 */
+	private static String randomData(Random random) {
+		StringBuilder data = new StringBuilder();
+		int parts = 1 + random.nextInt(6);
+		for(int i = 0; i < parts; i++) {
+			if(i > 0) {
+				data.append(' ');
+			}
+			
+			switch(random.nextInt(4)) {
+				case 0:
+					data.append(TAGS[random.nextInt(TAGS.length)]);
+					break;
+				case 1:
+					data.append(SPECIAL_CHARACTERS.charAt(
+								random.nextInt(SPECIAL_CHARACTERS.length())));
+					data.append(TAGS[random.nextInt(TAGS.length)]);
+					break;
+				default:
+					int length = random.nextInt(8);
+					for(int j = 0; j < length; j++) {
+						int codePoint;
+						do {
+							codePoint = random.nextInt(4) == 0
+										? random.nextInt(Character.MAX_CODE_POINT + 1)
+										: random.nextInt(0x800);
+						} while(!isAllowed(codePoint));
+						data.appendCodePoint(codePoint);
+					}
+			}
+		}
+		
+		if(random.nextInt(8) == 0) {
+			data.append(" RETRO");
+		}
+		
+		return data.toString();
+	}
+	
+	/**
+	 * @return Whether the given character can appear in a line: it can't
+	 *         end the line, and it can't be half of a surrogate pair.
+	 */
+	private static boolean isAllowed(int codePoint) {
+		return codePoint != '\n' && codePoint != '\r' && codePoint != 0x85
+					&& codePoint != 0x2028 && codePoint != 0x2029
+					&& !(codePoint >= Character.MIN_SURROGATE
+								&& codePoint <= Character.MAX_SURROGATE);
+	}
+	
+	/**
+	 * Formats a line the way the log did before {@link LogLineCodec}.
+	 */
+	private static String formatLegacy(long timestampInSeconds, long timestamp, String data) {
+		return formatLegacy(timestampInSeconds, timestamp, data,
+					DateFormat.getDateTimeInstance());
+	}
+	
+	private static String formatLegacy(long timestampInSeconds, long timestamp, String data,
+				DateFormat dateFormat) {
+		String annotatedData = Long.toString(timestampInSeconds) + " " + data;
+		
+		int paddingNeeded = 55 - annotatedData.length();
+		if(paddingNeeded > 0) {
+			annotatedData += String.format("%1$" + paddingNeeded + "c", ' ');
+		} else {
+			annotatedData += " ";
+		}
+		
+		annotatedData += "[" + dateFormat.format(timestamp) + "]\n";
+		
+		return annotatedData;
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Random;
+
+import tagtime.util.BackwardsAccessFile;
+import tagtime.util.ReverseLineReader;
+
+/**
+ * <p>
+ * Compares {@link BackwardsAccessFile}, which now searches with a
+ * {@link ReverseLineReader}, with the way it used to search: a 64-byte
+ * buffer refilled with a seek and a read for every chunk, followed by
+ * {@link RandomAccessFile#readLine()}, which reads one byte at a time.
+ * Three cases are timed: finding the last entry in the log, finding it
+ * when the log ends in a long run of lines without entries, and reading
+ * the last thousand lines from back to front.
+ * </p>
+ * <p>
+ * Usage: <code>LogTailBenchmark [log file]</code>. If no log is given,
+ * ten years of pings with typical tags are generated.
+ * </p>
+ */
+public class LogTailBenchmark {
+	private static final String[] TAGS = {"work", "email", "meeting", "code",
+				"read", "eat", "sleep", "commute", "exercise", "tv", "phone"};
+	
+	private static final String DIGITS = "0123456789";
+	
+	/**
+	 * The amount of text without entries added to the end of the log for
+	 * the second case.
+	 */
+	private static final int NOTES_LENGTH = 256 * 1024;
+	
+	private static final int TAIL_LINES = 1000;
+	
+	public static void main(String[] args) throws Exception {
+		final File logFile;
+		if(args.length > 0) {
+			logFile = new File(args[0]);
+		} else {
+			logFile = File.createTempFile("tagtime", ".log");
+			logFile.deleteOnExit();
+			generateLog(logFile, 10 * 365 * 32);
+		}
+		
+		final File notesFile = File.createTempFile("tagtime", ".log");
+		notesFile.deleteOnExit();
+		Files.copy(logFile.toPath(), notesFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		char[] note = new char[71];
+		Arrays.fill(note, 'x');
+		StringBuilder notes = new StringBuilder();
+		while(notes.length() < NOTES_LENGTH) {
+			notes.append(note).append('\n');
+		}
+		Files.write(notesFile.toPath(), notes.toString().getBytes(StandardCharsets.ISO_8859_1),
+					StandardOpenOption.APPEND);
+		
+		System.out.println("Log: " + logFile.length() + " bytes");
+		System.out.println("Last entry (new):      " + readLastLine(logFile));
+		System.out.println("Last entry (previous): " + readLastLineLegacy(logFile));
+		System.out.println();
+		
+		BenchmarkRunner runner = new BenchmarkRunner(2, 5, 1000);
+		runner.printHeader();
+		runner.run("last entry [ReverseLineReader]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) throws IOException {
+				return readLastLine(logFile).length();
+			}
+		});
+		runner.run("last entry [64-byte buffer]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) throws IOException {
+				return readLastLineLegacy(logFile).length();
+			}
+		});
+		runner.run("last entry after notes [ReverseLineReader]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) throws IOException {
+				return readLastLine(notesFile).length();
+			}
+		});
+		runner.run("last entry after notes [64-byte buffer]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) throws IOException {
+				return readLastLineLegacy(notesFile).length();
+			}
+		});
+		runner.run("last " + TAIL_LINES + " lines [ReverseLineReader]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) throws IOException {
+				return readTail(logFile);
+			}
+		});
+		runner.run("last " + TAIL_LINES + " lines [64-byte buffer]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) throws IOException {
+				return readTailLegacy(logFile);
+			}
+		});
+	}
+	
+	private static String readLastLine(File file) throws IOException {
+		BackwardsAccessFile in = new BackwardsAccessFile(file, "r");
+		try {
+			return in.readLastLine(DIGITS);
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static long readTail(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			ReverseLineReader lines = new ReverseLineReader(in.getChannel(), in.length(),
+						StandardCharsets.UTF_8);
+			long total = 0;
+			for(int i = 0; i < TAIL_LINES && lines.previous(); i++) {
+				total += lines.getLine().length();
+			}
+			return total;
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static String readLastLineLegacy(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			in.seek(in.length());
+			seekLineStartLegacy(in, DIGITS);
+			return in.readLine();
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static long readTailLegacy(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			in.seek(in.length());
+			seekLineStartLegacy(in, "");
+			
+			long total = 0;
+			long lineStart;
+			for(int i = 0; i < TAIL_LINES && in.getFilePointer() > 0; i++) {
+				lineStart = in.getFilePointer();
+				total += new String(in.readLine().getBytes(StandardCharsets.ISO_8859_1),
+							StandardCharsets.UTF_8).length();
+				
+				in.seek(lineStart);
+				seekLineStartLegacy(in, null);
+				if(in.getFilePointer() > 0) {
+					in.seek(in.getFilePointer() - 1);
+					seekLineStartLegacy(in, null);
+				}
+			}
+			return total;
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * The search <code>BackwardsAccessFile.seekLineStart(String)</code>
+	 * used before it was rewritten.
+	 */
+	private static void seekLineStartLegacy(RandomAccessFile file, String requiredCharacters)
+				throws IOException {
+		int bufferSize = 64;
+		byte[] buffer = new byte[bufferSize];
+		
+		char character;
+		boolean requiredCharacterFound = requiredCharacters == null;
+		
+		long index;
+		for(index = file.getFilePointer() - bufferSize; index > -bufferSize; index -= bufferSize) {
+			if(index >= 0) {
+				file.seek(index);
+				file.readFully(buffer);
+			} else {
+				file.seek(0);
+				bufferSize += index;
+				file.readFully(buffer, 0, bufferSize);
+			}
+			
+			for(int offset = bufferSize - 1; offset >= 0; offset--) {
+				character = (char) buffer[offset];
+				
+				if(character == '\n' || character == '\r') {
+					if(requiredCharacterFound) {
+						file.seek(Math.max(index, 0) + offset + 1);
+						return;
+					}
+				} else if(!requiredCharacterFound && requiredCharacters != null) {
+					if(requiredCharacters.length() == 0
+								|| requiredCharacters.indexOf(character) != -1) {
+						requiredCharacterFound = true;
+					}
+				}
+			}
+		}
+		
+		file.seek(0);
+	}
+	
+	/**
+	 * Writes a log with the given number of pings, in the same format
+	 * as the log itself.
+	 */
+	private static void generateLog(File file, int pings) throws IOException {
+		Random random = new Random(1);
+		DateFormat dateFormat = DateFormat.getDateTimeInstance();
+		long timestamp = 1330000000;
+		
+		Writer out = new BufferedWriter(new FileWriter(file));
+		try {
+			for(int i = 0; i < pings; i++) {
+				timestamp += 1 + (long) (-Math.log(random.nextDouble()) * 45 * 60);
+				
+				String data = TAGS[random.nextInt(TAGS.length)];
+				if(random.nextInt(3) == 0) {
+					data += " " + TAGS[random.nextInt(TAGS.length)];
+				}
+				if(random.nextInt(10) == 0) {
+					data = "afk off RETRO";
+				}
+				
+				String line = timestamp + " " + data;
+				while(line.length() < 55) {
+					line += " ";
+				}
+				out.write(line + "[" + dateFormat.format(timestamp * 1000) + "]\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import tagtime.log.IndexedPingStore;
+import tagtime.log.Log;
+import tagtime.log.LogEntryReader;
+import tagtime.log.LogLineCodec;
+import tagtime.log.PingStore;
+import tagtime.log.TextPingStore;
+
+/**
+ * <p>
+ * Compares the two {@link PingStore} implementations on ten years of
+ * pings: the time to fill each store, then the cost of scanning the
+ * whole store, inserting a ping at a random earlier time, and appending
+ * a ping.
+ * </p>
+ * <p>
+ * Usage: <code>PingStoreBenchmark</code>. The stores are created in a
+ * temporary folder, which is deleted afterwards.
+ * </p>
+ */
+public class PingStoreBenchmark {
+	private static final String[] TAGS = {"work", "email", "meeting", "code",
+				"read", "eat", "sleep", "commute", "exercise", "tv", "phone"};
+	
+	private static final long START = 1330000000;
+	private static final int PINGS = 10 * 365 * 32;
+	
+	public static void main(String[] args) throws Exception {
+		File directory = Files.createTempDirectory("tagtime").toFile();
+		try {
+			File textFile = new File(directory, "text.log");
+			File indexedFile = IndexedPingStore.getStoreFile(new File(directory, "indexed.log"));
+			
+			PingStore text = new TextPingStore(textFile, false, false, false, false);
+			PingStore indexed = new IndexedPingStore(indexedFile);
+			
+			long end = fill(text, "text");
+			fill(indexed, "indexed");
+			System.out.println();
+			
+			BenchmarkRunner runner = new BenchmarkRunner(2, 5, 1000);
+			runner.printHeader();
+			benchmark(runner, text, "text", end);
+			benchmark(runner, indexed, "indexed", end);
+			
+			text.close();
+			indexed.close();
+		} finally {
+			delete(directory);
+		}
+	}
+	
+	/**
+	 * Fills the given store with <code>PINGS</code> pings, a block at a
+	 * time, and prints how long it took.
+	 * @return The time of the last ping.
+	 */
+	private static long fill(PingStore store, String name) throws IOException {
+		Random random = new Random(1);
+		LogLineCodec codec = LogLineCodec.get();
+		StringBuilder block = new StringBuilder();
+		long[] timestamps = new long[Log.BACKFILL_BLOCK_SIZE];
+		int[] lengths = new int[timestamps.length];
+		int count = 0;
+		long timestamp = START;
+		
+		long start = System.nanoTime();
+		for(int i = 0; i < PINGS; i++) {
+			timestamp += 2 + (long) (-Math.log(random.nextDouble()) * 45 * 60);
+			timestamps[count] = timestamp;
+			lengths[count] = codec.encodeRaw(block, timestamp, timestamp * 1000,
+						getTags(random));
+			count++;
+			
+			if(count == timestamps.length || i == PINGS - 1) {
+				store.append(block.toString(), timestamps, lengths, count);
+				store.commit(false);
+				block.setLength(0);
+				count = 0;
+			}
+		}
+		
+		System.out.println(String.format("Filling the %s store: %d ms", name,
+					(System.nanoTime() - start) / 1000000));
+		
+		return timestamp;
+	}
+	
+	private static void benchmark(BenchmarkRunner runner, final PingStore store,
+				String name, final long end) throws Exception {
+		final Random random = new Random(2);
+		final LogLineCodec codec = LogLineCodec.get();
+		
+		//scan first, while both stores hold the same pings
+		runner.run("full scan [" + name + "]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) throws IOException {
+				long total = 0;
+				LogEntryReader in = store.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+				try {
+					while(in.next()) {
+						total += in.getPingCount();
+					}
+				} finally {
+					in.close();
+				}
+				return total;
+			}
+		});
+		
+		runner.run("out-of-order insert [" + name + "]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) throws IOException {
+				//odd timestamps, so they never match a generated ping exactly
+				long timestamp = (START + (long) (random.nextDouble() * (end - START))) | 1;
+				return write(store, codec, timestamp, getTags(random), false);
+			}
+		});
+		
+		runner.run("append [" + name + "]", new BenchmarkRunner.Operation() {
+			private long timestamp = end;
+			
+			@Override
+			public long run(long iteration) throws IOException {
+				timestamp += 2 + random.nextInt(45 * 60 * 2);
+				return write(store, codec, timestamp, getTags(random), true);
+			}
+		});
+	}
+	
+	private static long write(PingStore store, LogLineCodec codec, long timestamp,
+				String data, boolean append) throws IOException {
+		String line = codec.encodeRaw(timestamp, timestamp * 1000, data);
+		long[] timestamps = {timestamp};
+		int[] lengths = {line.length()};
+		if(append) {
+			store.append(line, timestamps, lengths, 1);
+		} else {
+			store.insert(line, timestamps, lengths, 1);
+		}
+		store.commit(false);
+		return line.length();
+	}
+	
+	private static String getTags(Random random) {
+		String data = TAGS[random.nextInt(TAGS.length)];
+		if(random.nextInt(3) == 0) {
+			data += " " + TAGS[random.nextInt(TAGS.length)];
+		}
+		if(random.nextInt(10) == 0) {
+			data = "afk off RETRO";
+		}
+		return data;
+	}
+	
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
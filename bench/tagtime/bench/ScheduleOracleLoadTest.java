@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Base64;
+
+import tagtime.oracle.ScheduleOracle;
+import tagtime.oracle.ScheduleOracleServer;
+import tagtime.quartz.RandomizedTrigger;
+
+/**
+ * <p>
+ * Sends a mix of requests to a {@link ScheduleOracleServer} from several
+ * threads at once, then reports the latency percentiles.
+ * </p>
+ * <p>
+ * Usage:
+ * <code>ScheduleOracleLoadTest [url] [threads] [requests per thread] [schedules]</code>.
+ * If the URL is omitted or "-", a server is started in this process.
+ * Each request picks one of <code>schedules</code> random RNG keys, so
+ * setting this higher than the server's capacity exercises eviction.
+ * </p>
+ */
+public class ScheduleOracleLoadTest {
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+	
+	/**
+	 * Requests are spread over this many days after the calendar start.
+	 */
+	private static final int DAYS = 5 * 365;
+	
+	public static void main(String[] args) throws Exception {
+		String url = args.length > 0 ? args[0] : "-";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		final int requestsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		int scheduleCount = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+		
+		ScheduleOracleServer server = null;
+		if(url.equals("-")) {
+			server = new ScheduleOracleServer(new ScheduleOracle(
+						ScheduleOracle.DEFAULT_CAPACITY, null), 0, threads);
+			server.start();
+			url = "http://localhost:" + server.getPort();
+		}
+		final String baseUrl = url;
+		
+		//the same keys every run, so results are comparable
+		Random random = new Random(0);
+		final String[] keys = new String[scheduleCount];
+		byte[] keyBytes = new byte[16];
+		for(int i = 0; i < keys.length; i++) {
+			random.nextBytes(keyBytes);
+			keys[i] = URLEncoder.encode(Base64.encodeBase64String(keyBytes).trim(), "UTF-8");
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		long start = System.nanoTime();
+		for(int i = 0; i < threads; i++) {
+			final long seed = i;
+			results.add(executor.submit(new Callable<long[]>() {
+				@Override
+				public long[] call() throws IOException {
+					return runClient(baseUrl, keys, requestsPerThread, new Random(seed));
+				}
+			}));
+		}
+		
+		long[] latencies = new long[threads * requestsPerThread];
+		int offset = 0;
+		for(Future<long[]> result : results) {
+			long[] clientLatencies = result.get();
+			System.arraycopy(clientLatencies, 0, latencies, offset, clientLatencies.length);
+			offset += clientLatencies.length;
+		}
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+		
+		Arrays.sort(latencies);
+		System.out.println(String.format("%d requests from %d threads in %.2f s (%.0f requests/s)",
+					latencies.length, threads, elapsed / 1e9,
+					latencies.length / (elapsed / 1e9)));
+		System.out.println(String.format("p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+					percentile(latencies, 0.50) / 1e6,
+					percentile(latencies, 0.99) / 1e6,
+					latencies[latencies.length - 1] / 1e6));
+		
+		if(server != null) {
+			server.stop(0);
+		}
+	}
+	
+	/**
+	 * Sends requests one after another.
+	 * @return The latency of each request, in nanoseconds.
+	 */
+	private static long[] runClient(String baseUrl, String[] keys, int requests,
+				Random random) throws IOException {
+		long[] latencies = new long[requests];
+		byte[] buffer = new byte[8192];
+		
+		String path;
+		long time;
+		long requestStart;
+		for(int i = 0; i < requests; i++) {
+			time = RandomizedTrigger.CALENDAR_START + (long) (random.nextDouble() * DAYS * DAY);
+			
+			switch(random.nextInt(3)) {
+				case 0:
+					path = "/next?t=" + time;
+					break;
+				case 1:
+					path = "/previous?t=" + time;
+					break;
+				default:
+					path = "/range?from=" + time + "&to=" + (time + DAY);
+			}
+			
+			path += "&gap=45&key=" + keys[random.nextInt(keys.length)];
+			
+			requestStart = System.nanoTime();
+			HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path)
+						.openConnection();
+			if(connection.getResponseCode() != 200) {
+				throw new IOException("Request " + path + " failed with status "
+							+ connection.getResponseCode() + ".");
+			}
+			
+			InputStream in = connection.getInputStream();
+			while(in.read(buffer) >= 0) {
+			}
+			in.close();
+			latencies[i] = System.nanoTime() - requestStart;
+		}
+		
+		return latencies;
+	}
+	
+	private static long percentile(long[] sorted, double fraction) {
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+}
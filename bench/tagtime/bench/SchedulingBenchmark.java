@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.bench;
+
+import java.util.Date;
+
+import org.quartz.TriggerBuilder;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+
+import tagtime.quartz.RandomizedScheduleBuilder;
+import tagtime.quartz.RandomizedTrigger;
+import tagtime.random.RandomSequenceGenerator;
+import tagtime.random.SequenceAlgorithm;
+
+/**
+ * <p>
+ * Benchmarks for the scheduling core: the random sequence generators
+ * and {@link RandomizedTrigger}. Every trigger benchmark is repeated for
+ * several values of AVERAGE_GAP, since the gap determines how many
+ * fire times lie between the start of the calendar and any given date.
+ * </p>
+ * <p>
+ * Usage: <code>SchedulingBenchmark [algorithm]</code>, where the
+ * algorithm is one of the {@link SequenceAlgorithm} names (default
+ * AES).
+ * </p>
+ */
+public class SchedulingBenchmark {
+	/**
+	 * The average gaps to test, in minutes.
+	 */
+	private static final int[] AVERAGE_GAPS = {5, 45, 120};
+	
+	/**
+	 * Distances from the start of the calendar to test, in days.
+	 */
+	private static final int[] DISTANCES = {30, 365, 5 * 365};
+	
+	/**
+	 * Range lengths to test when counting fire times, in days.
+	 */
+	private static final int[] RANGES = {1, 30, 365};
+	
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+	
+	/**
+	 * A fixed key, so that every run benchmarks the same schedule.
+	 */
+	private static final String KEY = "AAECAwQFBgcICQoLDA0ODw==";
+	
+	public static void main(String[] args) throws Exception {
+		final SequenceAlgorithm algorithm =
+					SequenceAlgorithm.fromName(args.length > 0 ? args[0] : null);
+		
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.printHeader();
+		
+		//the generator on its own
+		final RandomSequenceGenerator rng = algorithm.create(KEY);
+		runner.run("rng.getValue [" + algorithm + "]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) {
+				return (long) (rng.getValue(iteration) * 1000);
+			}
+		});
+		
+		final double[] values = new double[1024];
+		runner.run("rng.getValues x1024 [" + algorithm + "]", new BenchmarkRunner.Operation() {
+			@Override
+			public long run(long iteration) {
+				rng.getValues(iteration * values.length, values.length, values);
+				return (long) (values[0] * 1000);
+			}
+		});
+		
+		for(final int gap : AVERAGE_GAPS) {
+			final RandomizedTrigger warmTrigger = createTrigger(algorithm, gap);
+			
+			for(int days : DISTANCES) {
+				final long target = RandomizedTrigger.CALENDAR_START + days * DAY;
+				
+				//a new trigger each time, so nothing is cached
+				runner.run("getFireTimeAfter cold, +" + days + "d [gap=" + gap + "]",
+							new BenchmarkRunner.Operation() {
+								@Override
+								public long run(long iteration) {
+									return createTrigger(algorithm, gap)
+												.getFireTimeAfter(new Date(target), true).getTime();
+								}
+							});
+				
+				//vary the target slightly, so that each lookup is new
+				runner.run("getFireTimeAfter warm, +" + days + "d [gap=" + gap + "]",
+							new BenchmarkRunner.Operation() {
+								@Override
+								public long run(long iteration) {
+									return warmTrigger.getFireTimeAfter(
+												new Date(target + (iteration % 1000) * 60000),
+												true).getTime();
+								}
+							});
+				
+				//seek backwards across a wide range of targets
+				runner.run("getFireTimeBefore seek, +" + days + "d [gap=" + gap + "]",
+							new BenchmarkRunner.Operation() {
+								@Override
+								public long run(long iteration) {
+									long offset = (iteration * 7919 % 1000) * DAY / 10;
+									return warmTrigger.getFireTimeBefore(
+												new Date(target - offset), true).getTime();
+								}
+							});
+			}
+			
+			for(int days : RANGES) {
+				final long rangeLength = days * DAY;
+				final long start = RandomizedTrigger.CALENDAR_START + 365 * DAY;
+				runner.run("computeNumTimesFiredBetween " + days + "d [gap=" + gap + "]",
+							new BenchmarkRunner.Operation() {
+								@Override
+								public long run(long iteration) {
+									long rangeStart = start + (iteration % 100) * DAY;
+									return ((SimpleTriggerImpl) warmTrigger)
+												.computeNumTimesFiredBetween(new Date(rangeStart),
+															new Date(rangeStart + rangeLength));
+								}
+							});
+			}
+		}
+	}
+	
+	/**
+	 * Creates a trigger with no checkpoint file, so that nothing is
+	 * carried over between benchmarks.
+	 */
+	private static RandomizedTrigger createTrigger(SequenceAlgorithm algorithm, int gap) {
+		return (RandomizedTrigger) TriggerBuilder.newTrigger()
+					.withSchedule(RandomizedScheduleBuilder.repeatMinutelyForever(gap)
+								.withRNGKey(KEY)
+								.withRNGAlgorithm(algorithm.name()))
+					.startAt(new Date(RandomizedTrigger.CALENDAR_START))
+					.build();
+	}
+}
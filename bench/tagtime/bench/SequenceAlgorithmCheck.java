@@ -0,0 +1,309 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.bench;
+
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.Date;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.quartz.TriggerBuilder;
+
+import tagtime.quartz.RandomizedScheduleBuilder;
+import tagtime.quartz.RandomizedTrigger;
+import tagtime.quartz.ScheduleCursor;
+import tagtime.random.AESSequenceGenerator;
+import tagtime.random.PhiloxSequenceGenerator;
+import tagtime.random.RandomSequenceGenerator;
+import tagtime.random.SequenceAlgorithm;
+import tagtime.random.SplitMix64SequenceGenerator;
+import tagtime.random.ThreefrySequenceGenerator;
+
+/**
+ * <p>
+ * Checks that every {@link SequenceAlgorithm} can be used to schedule
+ * pings, and that AES still produces the schedule it always has.
+ * </p>
+ * <p>
+ * The AES generator is compared bit for bit with the generator TagTime
+ * used before the algorithm became configurable, which is reproduced
+ * below. The counter-based generators are compared with published
+ * known answers: the Random123 test vectors for Philox4x32-10 and
+ * Threefry2x64-20 (the all-zero vectors, since these generators leave
+ * the upper counter words at zero), and the reference SplitMix64
+ * output for a seed of zero. For each algorithm, the check then walks a trigger's schedule
+ * forward and backward, and makes sure that every way of finding a
+ * fire time (by index, by time and by cursor) agrees.
+ * </p>
+ * <p>
+ * Usage: <code>SequenceAlgorithmCheck [fire times per algorithm]</code>.
+ * Exits with a non-zero status if any check fails.
+ * </p>
+ */
+public class SequenceAlgorithmCheck {
+	private static final String KEY = "AAECAwQFBgcICQoLDA0ODw==";
+	private static final String ZERO_KEY = "AAAAAAAAAAAAAAAAAAAAAA==";
+	
+	/**
+	 * The scale that the counter-based generators use to convert 53
+	 * random bits to a value between 0 and 1.
+	 */
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+	
+	/**
+	 * The number of random positions at which to compare the generators.
+	 */
+	private static final int POSITIONS = 100000;
+	
+	/**
+	 * Where to start walking each schedule, well after the calendar
+	 * starts, so that the schedule's earlier parts have to be skipped.
+	 */
+	private static final long WALK_START = 1330000000000L;
+	
+	private static int failures = 0;
+	
+	/**
+	 * The generator used before the algorithm became configurable:
+	 * each position is encrypted on its own, using AES with PKCS #5
+	 * padding, and the first eight bytes of the result become the value.
+	 */
+	private static class BaselineGenerator {
+		private final Cipher cipher;
+		
+		public BaselineGenerator(String keyString) throws Exception {
+			Key key = new SecretKeySpec(Base64.decodeBase64(keyString), "AES");
+			cipher = Cipher.getInstance("AES");
+			cipher.init(Cipher.ENCRYPT_MODE, key);
+		}
+		
+		public double getValue(long position) throws Exception {
+			ByteBuffer inputBytes = ByteBuffer.allocate(8);
+			ByteBuffer outputBytes = ByteBuffer.allocate(16);
+			inputBytes.putLong(0, position);
+			cipher.doFinal(inputBytes, outputBytes);
+			return 0.5 + 0.5 * ((double) outputBytes.getLong(0) / Long.MAX_VALUE);
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int fireTimes = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		
+		checkAESBaseline();
+		checkKnownAnswers();
+		
+		for(SequenceAlgorithm algorithm : SequenceAlgorithm.values()) {
+			checkGenerator(algorithm);
+			checkSchedule(algorithm, fireTimes);
+		}
+		
+		System.out.println(failures + " failures");
+		if(failures > 0) {
+			System.exit(1);
+		}
+	}
+	
+	private static void fail(String message) {
+		failures++;
+		if(failures <= 20) {
+			System.out.println(message);
+		}
+	}
+	
+	/**
+	 * Compares the AES generator with the original one, both one value
+	 * at a time and in batches.
+	 */
+	private static void checkAESBaseline() throws Exception {
+		BaselineGenerator baseline = new BaselineGenerator(KEY);
+		RandomSequenceGenerator generator = new AESSequenceGenerator(KEY);
+		
+		long[] positions = new long[POSITIONS];
+		Random random = new Random(0);
+		for(int i = 0; i < positions.length; i++) {
+			//mostly the positions a schedule actually uses, but also the
+			//extremes
+			positions[i] = i < positions.length / 2 ? i : random.nextLong();
+		}
+		positions[positions.length - 1] = Long.MAX_VALUE;
+		positions[positions.length - 2] = Long.MIN_VALUE;
+		positions[positions.length - 3] = -1;
+		
+		double[] batch = new double[64];
+		for(int i = 0; i < positions.length; i++) {
+			long expected = Double.doubleToRawLongBits(baseline.getValue(positions[i]));
+			if(Double.doubleToRawLongBits(generator.getValue(positions[i])) != expected) {
+				fail("AES: value at " + positions[i] + " differs from the baseline");
+			}
+			
+			if(i < positions.length / 2 && i % batch.length == 0) {
+				generator.getValues(positions[i], batch.length, batch);
+				for(int j = 0; j < batch.length; j++) {
+					if(Double.doubleToRawLongBits(batch[j])
+								!= Double.doubleToRawLongBits(baseline.getValue(positions[i] + j))) {
+						fail("AES: batch value at " + (positions[i] + j)
+									+ " differs from the baseline");
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Compares the counter-based generators with their reference
+	 * implementations' output, using a key of zero.
+	 */
+	private static void checkKnownAnswers() {
+		checkKnownAnswer(new PhiloxSequenceGenerator(ZERO_KEY), 0, 0x6627e8d5e169c58dL);
+		checkKnownAnswer(new ThreefrySequenceGenerator(ZERO_KEY), 0, 0xc2b6e3a8c2c69865L);
+		
+		RandomSequenceGenerator splitMix = new SplitMix64SequenceGenerator(ZERO_KEY);
+		checkKnownAnswer(splitMix, 0, 0xe220a8397b1dcdafL);
+		checkKnownAnswer(splitMix, 1, 0x6e789e6aa1b965f4L);
+		checkKnownAnswer(splitMix, 2, 0x06c45d188009454fL);
+	}
+	
+	private static void checkKnownAnswer(RandomSequenceGenerator generator, long position,
+				long bits) {
+		if(generator.getValue(position) != (bits >>> 11) * DOUBLE_UNIT) {
+			fail(generator.getAlgorithm() + ": value at " + position
+						+ " doesn't match the reference output");
+		}
+	}
+	
+	/**
+	 * Checks that the generator's batches match its single values, and
+	 * that recreating it from its key gives the same sequence.
+	 */
+	private static void checkGenerator(SequenceAlgorithm algorithm) throws Exception {
+		RandomSequenceGenerator generator = algorithm.create(KEY);
+		RandomSequenceGenerator copy = algorithm.create(generator.getKey());
+		
+		if(generator.getAlgorithm() != algorithm) {
+			fail(algorithm + ": the generator reports " + generator.getAlgorithm());
+		}
+		
+		double[] batch = new double[1000];
+		generator.getValues(-500, batch.length, batch);
+		for(int i = 0; i < batch.length; i++) {
+			double value = generator.getValue(i - 500);
+			if(Double.doubleToRawLongBits(batch[i]) != Double.doubleToRawLongBits(value)) {
+				fail(algorithm + ": batch value at " + (i - 500) + " differs");
+			}
+			if(Double.doubleToRawLongBits(copy.getValue(i - 500))
+						!= Double.doubleToRawLongBits(value)) {
+				fail(algorithm + ": value at " + (i - 500) + " changes with the saved key");
+			}
+			if(!(value >= 0 && value <= 1)) {
+				fail(algorithm + ": value at " + (i - 500) + " is " + value);
+			}
+		}
+	}
+	
+	/**
+	 * Walks a trigger's schedule forward, then backward, checking that
+	 * fire times and their indices round-trip.
+	 */
+	private static void checkSchedule(SequenceAlgorithm algorithm, int count) {
+		RandomizedTrigger trigger = (RandomizedTrigger) TriggerBuilder.newTrigger()
+					.withSchedule(RandomizedScheduleBuilder.repeatMinutelyForever(45)
+								.withRNGKey(KEY).withRNGAlgorithm(algorithm.name()))
+					.startAt(new Date(RandomizedTrigger.CALENDAR_START))
+					.build();
+		
+		if(!algorithm.name().equals(trigger.getRNGAlgorithm())) {
+			fail(algorithm + ": the trigger uses " + trigger.getRNGAlgorithm());
+		}
+		
+		long firstIndex = trigger.nextFireTimeIndex(WALK_START);
+		long[] times = new long[count];
+		for(int i = 0; i < count; i++) {
+			times[i] = trigger.fireTimeMillisAt(firstIndex + i);
+		}
+		
+		if(times[0] <= WALK_START || trigger.fireTimeMillisAt(firstIndex - 1) > WALK_START) {
+			fail(algorithm + ": index " + firstIndex + " isn't the first after " + WALK_START);
+		}
+		
+		//forward
+		ScheduleCursor cursor = trigger.getCursorAt(firstIndex);
+		Date date = new Date(WALK_START);
+		for(int i = 0; i < count; i++) {
+			long index = firstIndex + i;
+			
+			if(i > 0 && times[i] <= times[i - 1]) {
+				fail(algorithm + ": fire times at index " + index + " aren't increasing");
+			}
+			if(trigger.nextFireTimeIndex(times[i] - 1) != index) {
+				fail(algorithm + ": nextFireTimeIndex doesn't find index " + index);
+			}
+			if(trigger.previousFireTimeIndex(times[i] + 1) != index) {
+				fail(algorithm + ": previousFireTimeIndex doesn't find index " + index);
+			}
+			if(trigger.nextFireTimeMillis(times[i] - 1) != times[i]) {
+				fail(algorithm + ": nextFireTimeMillis doesn't find index " + index);
+			}
+			
+			if(cursor.getIndex() != index || cursor.getTime() != times[i]) {
+				fail(algorithm + ": forward cursor at " + cursor + " doesn't match index "
+							+ index + " (" + times[i] + ")");
+			}
+			
+			date = trigger.getFireTimeAfter(date, true);
+			if(date == null || date.getTime() != times[i]) {
+				fail(algorithm + ": getFireTimeAfter doesn't reach index " + index);
+				date = new Date(times[i]);
+			}
+			
+			if(i < count - 1) {
+				cursor = cursor.next();
+			}
+		}
+		
+		//backward
+		date = new Date(times[count - 1] + 1);
+		for(int i = count - 1; i >= 0; i--) {
+			long index = firstIndex + i;
+			
+			if(trigger.previousFireTimeMillis(times[i] + 1) != times[i]) {
+				fail(algorithm + ": previousFireTimeMillis doesn't find index " + index);
+			}
+			
+			if(cursor.getIndex() != index || cursor.getTime() != times[i]) {
+				fail(algorithm + ": backward cursor at " + cursor + " doesn't match index "
+							+ index + " (" + times[i] + ")");
+			}
+			
+			date = trigger.getFireTimeBefore(date, true);
+			if(date == null || date.getTime() != times[i]) {
+				fail(algorithm + ": getFireTimeBefore doesn't reach index " + index);
+				date = new Date(times[i]);
+			}
+			
+			if(i > 0) {
+				cursor = cursor.previous();
+			}
+		}
+	}
+}
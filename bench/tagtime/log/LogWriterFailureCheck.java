@@ -0,0 +1,221 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Checks that when entries can't be written, the futures returned by
+ * {@link LogWriter#submit(long, String)} and {@link LogWriter#flush()}
+ * report the error instead of completing normally, that only the
+ * entries that weren't written are reported, and that entries beyond a
+ * full queue are rejected rather than waited on. This is run once for
+ * each {@link LogDurability} level, against a target that refuses
+ * certain entries.
+ * </p>
+ * <p>
+ * This is in the same package as {@link LogWriter}, so that it can use
+ * it directly.
+ * </p>
+ * <p>
+ * Usage: <code>LogWriterFailureCheck</code>. Exits with a non-zero
+ * status if the check fails.
+ * </p>
+ */
+public class LogWriterFailureCheck {
+	/**
+	 * Entries with this data can't be written.
+	 */
+	private static final String REFUSED = "refused";
+	
+	/**
+	 * Writes entries to a list, in order, stopping at the first one it
+	 * refuses. It can also be made to wait before writing, so that
+	 * entries pile up in the writer's queue.
+	 */
+	private static class FakeTarget implements LogWriter.Target {
+		public final List<String> written = new ArrayList<String>();
+		
+		/**
+		 * If set, the next write waits until this is counted down.
+		 */
+		private volatile CountDownLatch release = null;
+		
+		/**
+		 * Counted down once the held write has started.
+		 */
+		private volatile CountDownLatch started = null;
+		
+		@Override
+		public void writeBatch(long[] timestamps, String[] data, int offset, int count)
+					throws IOException {
+			CountDownLatch currentRelease = release;
+			if(currentRelease != null) {
+				release = null;
+				started.countDown();
+				try {
+					currentRelease.await();
+				} catch(InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+		
+			for(int i = offset; i < offset + count; i++) {
+				if(data[i].equals(REFUSED)) {
+					IOException e = new IOException("Simulated write failure");
+					if(i > offset) {
+						throw new LogWriter.PartialWriteException(i - offset, e);
+					}
+					throw e;
+				}
+		
+				synchronized(written) {
+					written.add(data[i]);
+				}
+			}
+		}
+		
+		/**
+		 * Submits an entry whose write waits until the returned latch is
+		 * counted down, and returns once that write has started.
+		 */
+		public CountDownLatch hold(LogWriter writer) throws InterruptedException {
+			CountDownLatch currentRelease = new CountDownLatch(1);
+			started = new CountDownLatch(1);
+			release = currentRelease;
+			writer.submit(0, "held");
+			started.await();
+			return currentRelease;
+		}
+		
+		public boolean wasWritten(String data) {
+			synchronized(written) {
+				return written.contains(data);
+			}
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int failures = 0;
+		for(LogDurability durability : LogDurability.values()) {
+			failures += check(durability);
+		}
+		
+		System.out.println(failures + " failures");
+		if(failures > 0) {
+			System.exit(1);
+		}
+	}
+	
+	private static int check(LogDurability durability) throws Exception {
+		FakeTarget target = new FakeTarget();
+		LogWriter writer = new LogWriter(target, durability, "check");
+		int failures = 0;
+		
+		failures += expect(durability + ": before failing", writer.submit(1, "a"), true);
+		failures += expect(durability + ": flush before failing", writer.flush(), true);
+		
+		failures += expect(durability + ": failed write", writer.submit(2, REFUSED), false);
+		failures += expect(durability + ": flush after failed write", writer.flush(), false);
+		failures += expect(durability + ": flush after reporting", writer.flush(), true);
+		
+		//queue several entries behind a held write, so that they're
+		//written as one batch that fails partway through
+		CountDownLatch release = target.hold(writer);
+		Future<Void> before = writer.submit(3, "b");
+		Future<Void> refused = writer.submit(4, REFUSED);
+		Future<Void> after = writer.submit(5, "c");
+		Future<Void> flush = writer.flush();
+		release.countDown();
+		
+		failures += expect(durability + ": entry before the failure", before, true);
+		failures += expect(durability + ": refused entry", refused, false);
+		failures += expect(durability + ": flush after partial batch", flush, false);
+		
+		//each entry is written separately at this level, so the one after
+		//the failure is still written
+		boolean afterWritten = durability == LogDurability.ENTRY;
+		failures += expect(durability + ": entry after the failure", after, afterWritten);
+		if(target.wasWritten("c") != afterWritten) {
+			System.out.println(durability + ": the entry after the failure was "
+						+ (afterWritten ? "not " : "") + "written");
+			failures++;
+		}
+		
+		//fill the queue behind a held write; the next entry should be
+		//rejected instead of waiting
+		release = target.hold(writer);
+		List<Future<Void>> queued = new ArrayList<Future<Void>>();
+		for(int i = 0; i < LogWriter.QUEUE_CAPACITY; i++) {
+			queued.add(writer.submit(6 + i, "d"));
+		}
+		Future<Void> overflow = writer.submit(6 + LogWriter.QUEUE_CAPACITY, "e");
+		if(!overflow.isDone()) {
+			System.out.println(durability + ": an entry was accepted into a full queue");
+			failures++;
+		}
+		Future<Void> fullFlush = writer.flush();
+		release.countDown();
+		failures += expect(durability + ": entry beyond the queue's capacity", overflow, false);
+		for(Future<Void> future : queued) {
+			failures += expect(durability + ": queued entry", future, true);
+		}
+		failures += expect(durability + ": flush after a rejected entry", fullFlush, false);
+		
+		failures += expect(durability + ": after recovering", writer.submit(7, "f"), true);
+		failures += expect(durability + ": flush after recovering", writer.flush(), true);
+		
+		if(!target.wasWritten("f")) {
+			System.out.println(durability + ": the last entry wasn't written");
+			failures++;
+		}
+		
+		return failures;
+	}
+	
+	/**
+	 * Waits for the given future, and checks whether it succeeded.
+	 * @return 1 if the outcome wasn't as expected, or 0 if it was.
+	 */
+	private static int expect(String name, Future<Void> future, boolean success)
+				throws InterruptedException {
+		boolean succeeded;
+		try {
+			future.get();
+			succeeded = true;
+		} catch(ExecutionException e) {
+			succeeded = false;
+		}
+		
+		if(succeeded != success) {
+			System.out.println(name + ": expected " + (success ? "success" : "an error")
+						+ ", but got " + (succeeded ? "success" : "an error"));
+			return 1;
+		}
+		
+		return 0;
+	}
+}
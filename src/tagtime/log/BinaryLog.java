@@ -0,0 +1,700 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A compact binary copy of a text log, kept alongside it so that the
+ * log can be read without parsing any text. Entries are stored in blocks
+ * of up to <code>BLOCK_SIZE</code>, and each block stores its data by
+ * column: flag bitsets (including RETRO), timestamps as variable-length
+ * deltas, and tags as indices into a dictionary of every tag used. Each
+ * block's header records its earliest and latest timestamps, so readers
+ * can skip blocks without decoding them.
+ * </p>
+ * <p>
+ * The conversion is lossless. Most lines are exactly what
+ * {@link Log} would write for their timestamp and tags, and are stored
+ * as such; any other line (edited by hand, written in a different time
+ * zone, not an entry at all, etc.) is stored verbatim. Because text
+ * lines can be reconstructed, the binary file records the locale and
+ * time zone it was built with, and is rebuilt if either changes.
+ * </p>
+ * <p>
+ * File layout: a header (identifier, version, the length and a checksum
+ * of the text log it was built from, whether that log ends in a line
+ * break, and the locale and time zone), then any number of blocks. Each
+ * block has a header (entry count, minimum and maximum timestamps, the
+ * position of its first line in the text log, the tags it adds to the
+ * dictionary, and the length of its data) followed by its data.
+ * </p>
+ * @see BinaryLogReader
+ */
+public class BinaryLog {
+	/**
+	 * The maximum number of lines in each block.
+	 */
+	public static final int BLOCK_SIZE = 4096;
+	
+	static final int FILE_IDENTIFIER = 0x5454424C;
+	static final int FILE_VERSION = 1;
+	
+	/**
+	 * The number of bytes at the end of the text log that are
+	 * checksummed to detect changes other than appending.
+	 */
+	static final int CHECKSUM_WINDOW = 256;
+	
+	/**
+	 * The position of the text log's length in the file header.
+	 */
+	private static final int SOURCE_LENGTH_POSITION = 8;
+	
+	/**
+	 * The line is an entry, as far as {@link LogParser} is concerned.
+	 */
+	static final int FLAG_ENTRY = 0;
+	
+	/**
+	 * The line is stored verbatim.
+	 */
+	static final int FLAG_RAW = 1;
+	
+	/**
+	 * The entry's tags end with "RETRO" (not stored in the dictionary).
+	 */
+	static final int FLAG_RETRO = 2;
+	
+	/**
+	 * The line starts with a timestamp.
+	 */
+	static final int FLAG_TIMESTAMP = 3;
+	
+	static final int FLAG_COUNT = 4;
+	
+	/**
+	 * A lock for each binary file, by the canonical path of its text log.
+	 * Updates and truncations read, modify and then write the binary
+	 * file, and they can be reached from any thread that reads the log,
+	 * so two at once could write the same blocks twice.
+	 */
+	private static final Map<String, Object> LOCKS = new HashMap<String, Object>();
+	
+	private BinaryLog() {
+	}
+	
+	/**
+	 * @return The lock that must be held while modifying the binary copy
+	 *         of the given log.
+	 */
+	private static Object getLock(File logFile) throws IOException {
+		String path = logFile.getCanonicalPath();
+		synchronized(LOCKS) {
+			Object lock = LOCKS.get(path);
+			if(lock == null) {
+				lock = new Object();
+				LOCKS.put(path, lock);
+			}
+			return lock;
+		}
+	}
+	
+	/**
+	 * @return The location of the binary copy of the given log.
+	 */
+	public static File getBinaryFile(File logFile) {
+		return new File(logFile.getPath() + ".bin");
+	}
+	
+	/**
+	 * Brings the binary copy of the given log up to date. If the text log
+	 * has only been appended to since the last update, only the new lines
+	 * (and the final block, which may not have been full) are converted;
+	 * otherwise the binary copy is rebuilt from scratch.
+	 */
+	public static void update(File logFile) throws IOException {
+		synchronized(getLock(logFile)) {
+			updateLocked(logFile);
+		}
+	}
+	
+	private static void updateLocked(File logFile) throws IOException {
+		File binaryFile = getBinaryFile(logFile);
+		long sourceLength = logFile.length();
+		
+		DateFormat dateFormat = createDateFormat(getLocale(), getTimeZone());
+		
+		//find the last block, to resume from its first line
+		long resumeSourceOffset = 0;
+		long resumeFileOffset = -1;
+		List<String> dictionary = new ArrayList<String>();
+		
+		if(binaryFile.exists()) {
+			BinaryLogReader reader = null;
+			try {
+				reader = new BinaryLogReader(binaryFile);
+				if(reader.getLocale().equals(getLocale())
+							&& reader.getTimeZone().equals(getTimeZone())
+							&& reader.getSourceLength() >= 0
+							&& reader.getSourceLength() <= sourceLength
+							&& reader.getSourceChecksum()
+								== checksum(logFile, reader.getSourceLength())) {
+					if(reader.getSourceLength() == sourceLength) {
+						return;
+					}
+					
+					resumeFileOffset = reader.getFilePosition();
+					int dictionarySize = 0;
+					while(reader.skipBlock()) {
+						resumeFileOffset = reader.getBlockFilePosition();
+						resumeSourceOffset = reader.getBlockSourceOffset();
+						dictionarySize = reader.getDictionarySizeBeforeBlock();
+					}
+					dictionary.addAll(reader.getDictionary().subList(0, dictionarySize));
+				}
+			} catch(IOException e) {
+				//a damaged file will be rebuilt
+				resumeFileOffset = -1;
+			} finally {
+				if(reader != null) {
+					reader.close();
+				}
+			}
+		}
+		
+		if(resumeFileOffset < 0) {
+			resumeSourceOffset = 0;
+			dictionary.clear();
+			writeHeader(binaryFile);
+		} else {
+			RandomAccessFile file = new RandomAccessFile(binaryFile, "rw");
+			try {
+				//mark the file as incomplete until the update is done
+				file.seek(SOURCE_LENGTH_POSITION);
+				file.writeLong(-1);
+				file.setLength(resumeFileOffset);
+			} finally {
+				file.close();
+			}
+		}
+		
+		boolean finalLineBreak = encode(logFile, resumeSourceOffset, binaryFile,
+					dictionary, dateFormat);
+		
+		RandomAccessFile file = new RandomAccessFile(binaryFile, "rw");
+		try {
+			file.seek(SOURCE_LENGTH_POSITION);
+			file.writeLong(sourceLength);
+			file.writeLong(checksum(logFile, sourceLength));
+			file.writeBoolean(finalLineBreak);
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Discards the part of the binary copy of the given log that was
+	 * converted from the text at or after the given position, because
+	 * that part of the text log has changed. The next
+	 * {@link #update(File)} then only converts the text from the start of
+	 * the discarded part, instead of rebuilding the whole copy.
+	 * @param changedFrom The position of the first changed byte in the
+	 *            text log.
+	 */
+	public static void truncate(File logFile, long changedFrom) throws IOException {
+		synchronized(getLock(logFile)) {
+			truncateLocked(logFile, changedFrom);
+		}
+	}
+	
+	private static void truncateLocked(File logFile, long changedFrom) throws IOException {
+		File binaryFile = getBinaryFile(logFile);
+		if(!binaryFile.exists()) {
+			return;
+		}
+		
+		//keep every block that ends before the change
+		long keepFileOffset = -1;
+		long keepSourceOffset = 0;
+		BinaryLogReader reader = null;
+		try {
+			reader = new BinaryLogReader(binaryFile);
+			if(reader.getSourceLength() >= 0) {
+				keepFileOffset = reader.getFilePosition();
+				while(reader.skipBlock() && reader.getBlockSourceOffset() <= changedFrom) {
+					keepFileOffset = reader.getBlockFilePosition();
+					keepSourceOffset = reader.getBlockSourceOffset();
+				}
+			}
+		} catch(IOException e) {
+			keepFileOffset = -1;
+		} finally {
+			if(reader != null) {
+				reader.close();
+			}
+		}
+		
+		//if there's nothing worth keeping, it will be rebuilt
+		if(keepFileOffset < 0) {
+			binaryFile.delete();
+			return;
+		}
+		
+		//the kept blocks were converted from text that hasn't changed, so
+		//they match the current text log up to where they end
+		RandomAccessFile file = new RandomAccessFile(binaryFile, "rw");
+		try {
+			file.seek(SOURCE_LENGTH_POSITION);
+			file.writeLong(keepSourceOffset);
+			file.writeLong(checksum(logFile, keepSourceOffset));
+			file.writeBoolean(true);
+			file.setLength(keepFileOffset);
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Writes the contents of a binary log back out as text, exactly as
+	 * the text log was when the binary log was last updated.
+	 */
+	public static void export(File binaryFile, File textFile) throws IOException {
+		BinaryLogReader reader = new BinaryLogReader(binaryFile);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(textFile), 65536);
+		try {
+			boolean first = true;
+			while(reader.nextLine()) {
+				if(!first) {
+					out.write('\n');
+				}
+				first = false;
+				
+				writeBytes(out, reader.getLine());
+			}
+			
+			if(!first && reader.hasFinalLineBreak()) {
+				out.write('\n');
+			}
+		} finally {
+			reader.close();
+			out.close();
+		}
+	}
+	
+	private static void writeHeader(File binaryFile) throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(binaryFile));
+		try {
+			out.writeInt(FILE_IDENTIFIER);
+			out.writeInt(FILE_VERSION);
+			out.writeLong(-1);
+			out.writeLong(0);
+			out.writeBoolean(true);
+			out.writeUTF(getLocale());
+			out.writeUTF(getTimeZone());
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Converts the text log from the given position onwards, appending
+	 * the blocks to the binary file.
+	 * @param dictionary The tags already in the dictionary. New tags are
+	 *            added to this.
+	 * @return Whether the text log ends in a line break.
+	 */
+	private static boolean encode(File logFile, long sourceOffset, File binaryFile,
+				List<String> dictionary, DateFormat dateFormat) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(logFile), 65536);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(binaryFile, true), 65536));
+		
+		BlockEncoder block = new BlockEncoder(dictionary, dateFormat);
+		boolean finalLineBreak = true;
+		try {
+			long skipped = 0;
+			while(skipped < sourceOffset) {
+				long n = in.skip(sourceOffset - skipped);
+				if(n <= 0) {
+					throw new EOFException();
+				}
+				skipped += n;
+			}
+			
+			ByteArrayOutputStream lineBytes = new ByteArrayOutputStream(128);
+			long position = sourceOffset;
+			long lineStart = position;
+			int b;
+			while(true) {
+				b = in.read();
+				if(b == '\n' || (b < 0 && lineBytes.size() > 0)) {
+					if(block.size() == 0) {
+						block.setSourceOffset(lineStart);
+					}
+					
+					//text logs are written one byte per character
+					block.add(lineBytes.toString("ISO-8859-1"));
+					lineBytes.reset();
+					
+					if(block.size() == BLOCK_SIZE) {
+						block.writeTo(out);
+					}
+					
+					finalLineBreak = b >= 0;
+					lineStart = position + 1;
+				} else if(b >= 0) {
+					lineBytes.write(b);
+				}
+				
+				if(b < 0) {
+					break;
+				}
+				position++;
+			}
+			
+			if(block.size() > 0) {
+				block.writeTo(out);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+		
+		return finalLineBreak;
+	}
+	
+	/**
+	 * Collects the lines of one block and writes them out.
+	 */
+	private static class BlockEncoder {
+		private final List<String> dictionary;
+		private final Map<String, Integer> dictionaryIndex = new HashMap<String, Integer>();
+		private final DateFormat dateFormat;
+		private final LogLineCodec.Entry entry = new LogLineCodec.Entry();
+		
+		private int size = 0;
+		private long sourceOffset;
+		private int dictionarySizeBeforeBlock;
+		
+		private final boolean[][] flags = new boolean[FLAG_COUNT][BLOCK_SIZE];
+		private final long[] timestamps = new long[BLOCK_SIZE];
+		private final int[] tagCounts = new int[BLOCK_SIZE];
+		private final List<String> rawLines = new ArrayList<String>();
+		private int[] tagIds = new int[BLOCK_SIZE * 4];
+		private int tagIdCount = 0;
+		
+		public BlockEncoder(List<String> dictionary, DateFormat dateFormat) {
+			this.dictionary = dictionary;
+			this.dateFormat = dateFormat;
+			for(int i = 0; i < dictionary.size(); i++) {
+				dictionaryIndex.put(dictionary.get(i), i);
+			}
+			dictionarySizeBeforeBlock = dictionary.size();
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		public void setSourceOffset(long sourceOffset) {
+			this.sourceOffset = sourceOffset;
+		}
+		
+		public void add(String line) {
+			long timestamp = parseTimestamp(line);
+			flags[FLAG_TIMESTAMP][size] = timestamp >= 0;
+			flags[FLAG_ENTRY][size] = entry.decodeRaw(line);
+			timestamps[size] = timestamp;
+			
+			if(timestamp >= 0 && addTags(line, timestamp)) {
+				flags[FLAG_RAW][size] = false;
+			} else {
+				flags[FLAG_RAW][size] = true;
+				flags[FLAG_RETRO][size] = false;
+				tagCounts[size] = 0;
+				rawLines.add(line);
+			}
+			
+			size++;
+		}
+		
+		/**
+		 * Splits the line into tags, if it's exactly what would be logged
+		 * for those tags.
+		 * @return Whether the tags were recorded.
+		 */
+		private boolean addTags(String line, long timestamp) {
+			int tagsStart = line.indexOf(' ') + 1;
+			int tagsEnd = line.lastIndexOf('[');
+			if(tagsEnd <= tagsStart) {
+				return false;
+			}
+			
+			while(tagsEnd > tagsStart && line.charAt(tagsEnd - 1) == ' ') {
+				tagsEnd--;
+			}
+			String data = line.substring(tagsStart, tagsEnd);
+			
+			String expected = LogLineCodec.get().encodeRaw(timestamp, timestamp * 1000,
+						data, dateFormat);
+			if(expected.length() != line.length() + 1 || !expected.startsWith(line)) {
+				return false;
+			}
+			
+			boolean retro = data.endsWith(" RETRO");
+			if(retro) {
+				data = data.substring(0, data.length() - 6);
+			}
+			
+			String[] tags = data.split(" ", -1);
+			for(String tag : tags) {
+				if(tag.length() == 0) {
+					return false;
+				}
+			}
+			
+			if(tagIdCount + tags.length > tagIds.length) {
+				int[] newTagIds = new int[Math.max(tagIds.length * 2, tagIdCount + tags.length)];
+				System.arraycopy(tagIds, 0, newTagIds, 0, tagIdCount);
+				tagIds = newTagIds;
+			}
+			
+			Integer id;
+			for(String tag : tags) {
+				id = dictionaryIndex.get(tag);
+				if(id == null) {
+					id = dictionary.size();
+					dictionary.add(tag);
+					dictionaryIndex.put(tag, id);
+				}
+				tagIds[tagIdCount++] = id;
+			}
+			
+			flags[FLAG_RETRO][size] = retro;
+			tagCounts[size] = tags.length;
+			return true;
+		}
+		
+		public void writeTo(DataOutputStream out) throws IOException {
+			long minTimestamp = Long.MAX_VALUE;
+			long maxTimestamp = Long.MIN_VALUE;
+			for(int i = 0; i < size; i++) {
+				if(flags[FLAG_TIMESTAMP][i]) {
+					minTimestamp = Math.min(minTimestamp, timestamps[i]);
+					maxTimestamp = Math.max(maxTimestamp, timestamps[i]);
+				}
+			}
+			
+			ByteArrayOutputStream data = new ByteArrayOutputStream(size * 4);
+			
+			//flags, one bitset per flag
+			for(boolean[] flag : flags) {
+				int bits = 0;
+				for(int i = 0; i < size; i++) {
+					if(flag[i]) {
+						bits |= 1 << (i & 7);
+					}
+					if((i & 7) == 7 || i == size - 1) {
+						data.write(bits);
+						bits = 0;
+					}
+				}
+			}
+			
+			//timestamps, as differences from the previous timestamp
+			long previous = minTimestamp;
+			for(int i = 0; i < size; i++) {
+				if(flags[FLAG_TIMESTAMP][i]) {
+					writeVarLong(data, zigZag(timestamps[i] - previous));
+					previous = timestamps[i];
+				}
+			}
+			
+			//the number of tags in each entry, then the tags themselves
+			for(int i = 0; i < size; i++) {
+				if(!flags[FLAG_RAW][i]) {
+					writeVarLong(data, tagCounts[i]);
+				}
+			}
+			for(int i = 0; i < tagIdCount; i++) {
+				writeVarLong(data, tagIds[i]);
+			}
+			
+			//lines that couldn't be encoded
+			for(String line : rawLines) {
+				writeVarLong(data, line.length());
+				writeBytes(data, line);
+			}
+			
+			out.writeInt(size);
+			out.writeLong(minTimestamp);
+			out.writeLong(maxTimestamp);
+			out.writeLong(sourceOffset);
+			out.writeInt(dictionary.size() - dictionarySizeBeforeBlock);
+			for(int i = dictionarySizeBeforeBlock; i < dictionary.size(); i++) {
+				writeVarLong(out, dictionary.get(i).length());
+				writeBytes(out, dictionary.get(i));
+			}
+			out.writeInt(data.size());
+			data.writeTo(out);
+			
+			//reset for the next block
+			for(boolean[] flag : flags) {
+				for(int i = 0; i < size; i++) {
+					flag[i] = false;
+				}
+			}
+			rawLines.clear();
+			tagIdCount = 0;
+			size = 0;
+			dictionarySizeBeforeBlock = dictionary.size();
+		}
+	}
+	
+	/**
+	 * @return The timestamp at the start of the line, or -1 if it
+	 *         doesn't start with a timestamp followed by a space.
+	 */
+	static long parseTimestamp(String line) {
+		int length = line.indexOf(' ');
+		
+		//longer numbers might not fit in a long
+		if(length <= 0 || length > 18) {
+			return -1;
+		}
+		
+		long timestamp = 0;
+		char c;
+		for(int i = 0; i < length; i++) {
+			c = line.charAt(i);
+			if(c < '0' || c > '9') {
+				return -1;
+			}
+			timestamp = timestamp * 10 + (c - '0');
+		}
+		
+		return timestamp;
+	}
+	
+	static String getLocale() {
+		return Locale.getDefault(Locale.Category.FORMAT).toLanguageTag();
+	}
+	
+	static String getTimeZone() {
+		return TimeZone.getDefault().getID();
+	}
+	
+	/**
+	 * @return The date format that {@link Log} would use with the given
+	 *         locale and time zone.
+	 */
+	static DateFormat createDateFormat(String locale, String timeZone) {
+		DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.DEFAULT,
+					DateFormat.DEFAULT, Locale.forLanguageTag(locale));
+		dateFormat.setTimeZone(TimeZone.getTimeZone(timeZone));
+		return dateFormat;
+	}
+	
+	/**
+	 * Calculates the checksum of the <code>CHECKSUM_WINDOW</code> bytes
+	 * before the given position in a file.
+	 */
+	static long checksum(File file, long position) throws IOException {
+		int length = (int) Math.min(position, CHECKSUM_WINDOW);
+		byte[] window = new byte[length];
+		
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			in.seek(position - length);
+			in.readFully(window);
+		} finally {
+			in.close();
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(window);
+		return crc.getValue();
+	}
+	
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	private static void writeVarLong(OutputStream out, long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+	
+	/**
+	 * Reads a variable-length value written by
+	 * {@link #writeVarLong(OutputStream, long)}.
+	 */
+	static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		
+		return value;
+	}
+	
+	/**
+	 * Writes the low eight bits of each character, like
+	 * <code>RandomAccessFile.writeBytes()</code>.
+	 */
+	private static void writeBytes(OutputStream out, String s) throws IOException {
+		for(int i = 0; i < s.length(); i++) {
+			out.write(s.charAt(i));
+		}
+	}
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a binary log written by {@link BinaryLog}, one block at a time.
+ * This can read either just the entries (as a {@link LogEntryReader}) or
+ * every line, reconstructed exactly as it appears in the text log.
+ */
+public class BinaryLogReader implements LogEntryReader {
+	/**
+	 * Counts the bytes read, so that block positions can be recorded.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		public long position = 0;
+		
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0) {
+				position++;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n > 0) {
+				position += n;
+			}
+			return n;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			position += skipped;
+			return skipped;
+		}
+	}
+	
+	private final CountingInputStream counter;
+	private final DataInputStream in;
+	
+	private final long sourceLength;
+	private final long sourceChecksum;
+	private final boolean finalLineBreak;
+	private final String locale;
+	private final String timeZone;
+	
+	/**
+	 * Used to reconstruct lines. This is only created if needed.
+	 */
+	private DateFormat dateFormat = null;
+	
+	private final List<String> dictionary = new ArrayList<String>();
+	
+	/**
+	 * For each tag in the dictionary, the tags that {@link LogParser}
+	 * would find in it (usually just the tag itself).
+	 */
+	private final List<List<String>> parsedTags = new ArrayList<List<String>>();
+	
+	private long blockFilePosition;
+	private long blockSourceOffset;
+	private int dictionarySizeBeforeBlock;
+	private long blockMinTimestamp;
+	private long blockMaxTimestamp = Long.MIN_VALUE;
+	
+	private int blockSize = 0;
+	private int position = 0;
+	private byte[] data = new byte[0];
+	private int dataPosition;
+	private final boolean[][] flags = new boolean[BinaryLog.FLAG_COUNT][BinaryLog.BLOCK_SIZE];
+	private final long[] timestamps = new long[BinaryLog.BLOCK_SIZE];
+	private final int[] tagStarts = new int[BinaryLog.BLOCK_SIZE + 1];
+	private int[] tagIds = new int[BinaryLog.BLOCK_SIZE * 4];
+	private final String[] rawLines = new String[BinaryLog.BLOCK_SIZE];
+	
+	private long timestamp;
+	private int pingCount;
+	private long gapEnd;
+	private final List<String> tags = new ArrayList<String>();
+	private final LogLineCodec.Entry entry = new LogLineCodec.Entry();
+	
+	public BinaryLogReader(File binaryFile) throws IOException {
+		counter = new CountingInputStream(new BufferedInputStream(
+					new FileInputStream(binaryFile), 65536));
+		in = new DataInputStream(counter);
+		
+		try {
+			if(in.readInt() != BinaryLog.FILE_IDENTIFIER
+						|| in.readInt() != BinaryLog.FILE_VERSION) {
+				throw new IOException(binaryFile + " is not a binary log.");
+			}
+			
+			sourceLength = in.readLong();
+			sourceChecksum = in.readLong();
+			finalLineBreak = in.readBoolean();
+			locale = in.readUTF();
+			timeZone = in.readUTF();
+		} catch(IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return The length of the text log when this was last updated, or
+	 *         -1 if an update was interrupted.
+	 */
+	public long getSourceLength() {
+		return sourceLength;
+	}
+	
+	long getSourceChecksum() {
+		return sourceChecksum;
+	}
+	
+	boolean hasFinalLineBreak() {
+		return finalLineBreak;
+	}
+	
+	String getLocale() {
+		return locale;
+	}
+	
+	String getTimeZone() {
+		return timeZone;
+	}
+	
+	List<String> getDictionary() {
+		return dictionary;
+	}
+	
+	/**
+	 * @return The current position in the binary file.
+	 */
+	long getFilePosition() {
+		return counter.position;
+	}
+	
+	/**
+	 * @return The position of the current block in the binary file.
+	 */
+	long getBlockFilePosition() {
+		return blockFilePosition;
+	}
+	
+	/**
+	 * @return The position of the current block's first line in the text
+	 *         log.
+	 */
+	long getBlockSourceOffset() {
+		return blockSourceOffset;
+	}
+	
+	int getDictionarySizeBeforeBlock() {
+		return dictionarySizeBeforeBlock;
+	}
+	
+	/**
+	 * Reads the next block's header, adding its tags to the dictionary.
+	 * @return The length of the block's data, or -1 if there are no more
+	 *         blocks.
+	 */
+	private int readBlockHeader() throws IOException {
+		blockFilePosition = counter.position;
+		try {
+			blockSize = in.readInt();
+		} catch(EOFException e) {
+			blockSize = 0;
+			return -1;
+		}
+		position = 0;
+		
+		blockMinTimestamp = in.readLong();
+		blockMaxTimestamp = in.readLong();
+		blockSourceOffset = in.readLong();
+		
+		dictionarySizeBeforeBlock = dictionary.size();
+		int newTags = in.readInt();
+		for(int i = 0; i < newTags; i++) {
+			byte[] tag = new byte[(int) BinaryLog.readVarLong(in)];
+			in.readFully(tag);
+			addToDictionary(new String(tag, "ISO-8859-1"));
+		}
+		
+		return in.readInt();
+	}
+	
+	private void addToDictionary(String tag) {
+		dictionary.add(tag);
+		
+		entry.decodeTagsRaw(tag);
+		parsedTags.add(new ArrayList<String>(entry.getTags()));
+	}
+	
+	/**
+	 * Skips the next block without decoding it.
+	 * @return False if there are no more blocks.
+	 */
+	boolean skipBlock() throws IOException {
+		int length = readBlockHeader();
+		if(length < 0) {
+			return false;
+		}
+		
+		skipFully(length);
+		blockSize = 0;
+		return true;
+	}
+	
+	private void skipFully(long length) throws IOException {
+		while(length > 0) {
+			long skipped = in.skip(length);
+			if(skipped <= 0) {
+				throw new EOFException();
+			}
+			length -= skipped;
+		}
+	}
+	
+	/**
+	 * Reads and decodes the next block.
+	 * @return False if there are no more blocks.
+	 */
+	private boolean readBlock() throws IOException {
+		int length = readBlockHeader();
+		if(length < 0) {
+			return false;
+		}
+		
+		decodeBlock(length);
+		return true;
+	}
+	
+	/**
+	 * Decodes the data of the block whose header was just read.
+	 */
+	private void decodeBlock(int length) throws IOException {
+		if(data.length < length) {
+			data = new byte[length];
+		}
+		in.readFully(data, 0, length);
+		dataPosition = 0;
+		
+		for(boolean[] flag : flags) {
+			for(int i = 0; i < blockSize; i += 8) {
+				int bits = data[dataPosition++];
+				for(int j = 0; j < 8 && i + j < blockSize; j++) {
+					flag[i + j] = (bits & (1 << j)) != 0;
+				}
+			}
+		}
+		
+		//the first timestamp is relative to the minimum
+		long previous = blockMinTimestamp;
+		for(int i = 0; i < blockSize; i++) {
+			if(flags[BinaryLog.FLAG_TIMESTAMP][i]) {
+				previous += BinaryLog.unZigZag(readVarLong());
+				timestamps[i] = previous;
+			}
+		}
+		
+		int tagCount = 0;
+		for(int i = 0; i < blockSize; i++) {
+			tagStarts[i] = tagCount;
+			if(!flags[BinaryLog.FLAG_RAW][i]) {
+				tagCount += (int) readVarLong();
+			}
+		}
+		tagStarts[blockSize] = tagCount;
+		
+		if(tagIds.length < tagCount) {
+			tagIds = new int[tagCount];
+		}
+		for(int i = 0; i < tagCount; i++) {
+			tagIds[i] = (int) readVarLong();
+		}
+		
+		for(int i = 0; i < blockSize; i++) {
+			if(flags[BinaryLog.FLAG_RAW][i]) {
+				int lineLength = (int) readVarLong();
+				rawLines[i] = new String(data, dataPosition, lineLength, "ISO-8859-1");
+				dataPosition += lineLength;
+			} else {
+				rawLines[i] = null;
+			}
+		}
+	}
+	
+	private long readVarLong() {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = data[dataPosition++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		
+		return value;
+	}
+	
+	/**
+	 * Moves to the next line, whether or not it's an entry.
+	 * @return False if there are no more lines.
+	 */
+	public boolean nextLine() throws IOException {
+		position++;
+		while(position >= blockSize) {
+			if(!readBlock()) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	@Override
+	public boolean next() throws IOException {
+		while(nextLine()) {
+			if(flags[BinaryLog.FLAG_ENTRY][position] && readEntry()) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Moves to the first entry at or after the given time, skipping any
+	 * blocks that end before then without decoding them.
+	 * @return False if there is no such entry.
+	 */
+	public boolean seek(long timestampInSeconds) throws IOException {
+		if(blockMaxTimestamp < timestampInSeconds) {
+			//nothing in the rest of this block is late enough, so find
+			//the next block that could contain the given time
+			int length;
+			while((length = readBlockHeader()) >= 0
+						&& blockMaxTimestamp < timestampInSeconds) {
+				skipFully(length);
+			}
+			
+			if(length < 0) {
+				return false;
+			}
+			
+			decodeBlock(length);
+			position = -1;
+		}
+		
+		while(next()) {
+			if(timestamp >= timestampInSeconds) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Fills in the timestamp and tags of the current line.
+	 * @return False if the line can't be read as an entry.
+	 */
+	private boolean readEntry() {
+		tags.clear();
+		
+		if(flags[BinaryLog.FLAG_RAW][position]) {
+			if(!entry.decodeRaw(rawLines[position])) {
+				return false;
+			}
+			
+			timestamp = entry.getTimestamp();
+			pingCount = entry.getPingCount();
+			gapEnd = entry.getGapEnd();
+			tags.addAll(entry.getTags());
+		} else {
+			timestamp = timestamps[position];
+			pingCount = 1;
+			gapEnd = timestamp + 1;
+			for(int i = tagStarts[position]; i < tagStarts[position + 1]; i++) {
+				tags.addAll(parsedTags.get(tagIds[i]));
+			}
+			if(flags[BinaryLog.FLAG_RETRO][position]) {
+				tags.add("RETRO");
+			}
+		}
+		
+		return true;
+	}
+	
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	@Override
+	public int getPingCount() {
+		return pingCount;
+	}
+	
+	@Override
+	public long getGapEnd() {
+		return gapEnd;
+	}
+	
+	@Override
+	public List<String> getTags() {
+		return tags;
+	}
+	
+	/**
+	 * @return The current line, exactly as it appears in the text log
+	 *         (without the line break).
+	 */
+	public String getLine() {
+		if(flags[BinaryLog.FLAG_RAW][position]) {
+			return rawLines[position];
+		}
+		
+		if(dateFormat == null) {
+			dateFormat = BinaryLog.createDateFormat(locale, timeZone);
+		}
+		
+		StringBuilder data = new StringBuilder();
+		for(int i = tagStarts[position]; i < tagStarts[position + 1]; i++) {
+			if(i > tagStarts[position]) {
+				data.append(' ');
+			}
+			data.append(dictionary.get(tagIds[i]));
+		}
+		if(flags[BinaryLog.FLAG_RETRO][position]) {
+			data.append(" RETRO");
+		}
+		
+		String line = LogLineCodec.get().encodeRaw(timestamps[position],
+					timestamps[position] * 1000, data, dateFormat);
+		return line.substring(0, line.length() - 1);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
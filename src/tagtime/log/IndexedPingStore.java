@@ -0,0 +1,793 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * Stores a log in a small embedded database: a file of records, each
+ * holding one line of the log, and an index of the records by time.
+ * Records are only ever added to the end of the file, so a ping that
+ * belongs in the middle of the log costs no more to add than one at the
+ * end; the index keeps track of the order.
+ * </p>
+ * <p>
+ * The index is kept in memory and saved to a second file every
+ * <code>SAVE_INTERVAL</code> records, and when the store is closed. When
+ * the store is opened, any records added since the index was saved are
+ * read from the end of the file. Each record has a checksum, so a record
+ * that was only partly written before a crash is discarded.
+ * </p>
+ * <p>
+ * Each record holds the same line a text log would, so a text log can
+ * be copied in with {@link #importTextLog(File, long)}, and copied back
+ * out with {@link #exportTo(PingStore, long)}.
+ * </p>
+ */
+public class IndexedPingStore implements PingStore {
+	/**
+	 * The number of records to add between saves of the index.
+	 */
+	public static final int SAVE_INTERVAL = 4096;
+	
+	private static final String EXTENSION = ".pings";
+	private static final String INDEX_EXTENSION = ".idx";
+	
+	private static final int FILE_IDENTIFIER = 0x54545053;
+	private static final int INDEX_IDENTIFIER = 0x54545058;
+	private static final int FILE_VERSION = 1;
+	private static final int HEADER_LENGTH = 8;
+	
+	/**
+	 * The length of the start of each record: the length of the line,
+	 * the checksum, and the timestamp. The checksum covers the timestamp
+	 * and the line.
+	 */
+	private static final int RECORD_HEADER_LENGTH = 16;
+	
+	/**
+	 * The longest line a record can hold. Anything longer is assumed to
+	 * be damage.
+	 */
+	private static final int MAX_LINE_LENGTH = 1 << 20;
+	
+	private final File indexFile;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	
+	/**
+	 * The end of the last intact record.
+	 */
+	private long length;
+	
+	/**
+	 * The timestamp of each record, in order.
+	 */
+	private long[] timestamps = new long[1024];
+	
+	/**
+	 * The end of the range of pings covered by each record, in seconds
+	 * (exclusive). This is one more than its timestamp unless the record
+	 * is a gap record.
+	 */
+	private long[] ends = new long[1024];
+	
+	/**
+	 * The latest end of any record up to and including each one. Unlike
+	 * <code>ends</code>, this is in order, so it can be searched to find
+	 * the first record covering a given time.
+	 */
+	private long[] maxEnds = new long[1024];
+	
+	/**
+	 * The position of each record in the file.
+	 */
+	private long[] offsets = new long[1024];
+	private int size = 0;
+	
+	/**
+	 * The number of records added since the index was saved.
+	 */
+	private int unsavedRecords = 0;
+	
+	private final CRC32 checksum = new CRC32();
+	private final LogLineCodec.Entry entry = new LogLineCodec.Entry();
+	private final RecordReader lastEntryReader;
+	
+	/**
+	 * Opens the given store, creating it if it doesn't exist.
+	 * @see #getStoreFile(File)
+	 */
+	public IndexedPingStore(File storeFile) throws IOException {
+		indexFile = new File(storeFile.getPath() + INDEX_EXTENSION);
+		file = new RandomAccessFile(storeFile, "rw");
+		channel = file.getChannel();
+		lastEntryReader = new RecordReader(channel, 1024);
+		
+		if(channel.size() == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			header.putInt(FILE_IDENTIFIER).putInt(FILE_VERSION).flip();
+			channel.write(header, 0);
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			channel.read(header, 0);
+			if(header.getInt(0) != FILE_IDENTIFIER || header.getInt(4) != FILE_VERSION) {
+				file.close();
+				throw new IOException(storeFile + " is not a ping store.");
+			}
+		}
+		
+		//read anything the index doesn't cover
+		long indexedLength = loadIndex();
+		if(indexedLength < 0) {
+			size = 0;
+			indexedLength = HEADER_LENGTH;
+		}
+		readRecords(indexedLength);
+	}
+	
+	/**
+	 * @return The location of the store that replaces the given text log.
+	 */
+	public static File getStoreFile(File logFile) {
+		return new File(logFile.getPath() + EXTENSION);
+	}
+	
+	/**
+	 * @return The number of records in the store.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+	
+	@Override
+	public synchronized void append(String lines, long[] timestamps, int[] lengths,
+				int count) throws IOException {
+		write(lines, timestamps, lengths, count);
+	}
+	
+	@Override
+	public synchronized void insert(String lines, long[] timestamps, int[] lengths,
+				int count) throws IOException {
+		write(lines, timestamps, lengths, count);
+	}
+	
+	/**
+	 * Adds a record for each line to the end of the file, then adds the
+	 * records to the index. Either way, the index puts them in order.
+	 */
+	private void write(String lines, long[] lineTimestamps, int[] lengths, int count)
+				throws IOException {
+		int total = 0;
+		for(int i = 0; i < count; i++) {
+			total += RECORD_HEADER_LENGTH + lengths[i] - 1;
+		}
+		
+		ByteBuffer out = ByteBuffer.allocate(total);
+		int lineStart = 0;
+		int lineLength;
+		int recordStart;
+		for(int i = 0; i < count; i++) {
+			lineLength = lengths[i] - 1;
+			recordStart = out.position();
+			out.putInt(lineLength).putInt(0).putLong(lineTimestamps[i]);
+			for(int j = 0; j < lineLength; j++) {
+				out.put((byte) lines.charAt(lineStart + j));
+			}
+			
+			checksum.reset();
+			checksum.update(out.array(), recordStart + 8, 8 + lineLength);
+			out.putInt(recordStart + 4, (int) checksum.getValue());
+			
+			lineStart += lengths[i];
+		}
+		
+		out.flip();
+		long position = length;
+		while(out.hasRemaining()) {
+			position += channel.write(out, position);
+		}
+		
+		//only index the records once they've all been written
+		recordStart = 0;
+		for(int i = 0; i < count; i++) {
+			lineLength = lengths[i] - 1;
+			addToIndex(lineTimestamps[i], getEnd(lineTimestamps[i], out.array(),
+						recordStart + RECORD_HEADER_LENGTH, lineLength), length + recordStart);
+			recordStart += RECORD_HEADER_LENGTH + lineLength;
+		}
+		
+		length = position;
+		unsavedRecords += count;
+	}
+	
+	/**
+	 * @return The end of the range of pings covered by the given line.
+	 */
+	private long getEnd(long timestamp, byte[] line, int offset, int length) {
+		return entry.decode(line, offset, length) ? entry.getGapEnd() : timestamp + 1;
+	}
+	
+	/**
+	 * Adds a record to the index, after any others with the same
+	 * timestamp.
+	 */
+	private void addToIndex(long timestamp, long end, long offset) {
+		if(size == timestamps.length) {
+			timestamps = Arrays.copyOf(timestamps, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+			maxEnds = Arrays.copyOf(maxEnds, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		
+		int index = size == 0 || timestamp >= timestamps[size - 1] ? size
+					: findIndex(timestamp + 1);
+		if(index < size) {
+			System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+			System.arraycopy(ends, index, ends, index + 1, size - index);
+			System.arraycopy(maxEnds, index, maxEnds, index + 1, size - index);
+			System.arraycopy(offsets, index, offsets, index + 1, size - index);
+		}
+		
+		timestamps[index] = timestamp;
+		ends[index] = end;
+		maxEnds[index] = index > 0 ? Math.max(maxEnds[index - 1], end) : end;
+		offsets[index] = offset;
+		size++;
+		
+		for(int i = index + 1; i < size && maxEnds[i] < end; i++) {
+			maxEnds[i] = end;
+		}
+	}
+	
+	/**
+	 * @return The index of the first record at or after the given time.
+	 */
+	private int findIndex(long timestamp) {
+		int low = 0;
+		int high = size;
+		int mid;
+		while(low < high) {
+			mid = (low + high) >>> 1;
+			if(timestamps[mid] < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		
+		return low;
+	}
+	
+	/**
+	 * @return The index of the first record that covers anything after
+	 *         the given time.
+	 */
+	private int findIndexEndingAfter(long timestamp) {
+		int low = 0;
+		int high = size;
+		int mid;
+		while(low < high) {
+			mid = (low + high) >>> 1;
+			if(maxEnds[mid] <= timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		
+		return low;
+	}
+	
+	/**
+	 * Syncs the file if necessary, and saves the index if enough records
+	 * have been added since it was last saved.
+	 */
+	@Override
+	public synchronized void commit(boolean sync) throws IOException {
+		if(sync) {
+			channel.force(false);
+		}
+		
+		if(unsavedRecords >= SAVE_INTERVAL) {
+			saveIndex();
+		}
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if(!channel.isOpen()) {
+			return;
+		}
+		
+		if(unsavedRecords > 0) {
+			saveIndex();
+		}
+		file.close();
+	}
+	
+	/**
+	 * Reads the records covering the given range. The records to read
+	 * are found when this is called, so anything added afterwards isn't
+	 * included.
+	 */
+	@Override
+	public synchronized LogEntryReader scan(final long from, long to) throws IOException {
+		int first = findIndexEndingAfter(from);
+		int last = Math.max(first, findIndex(to));
+		final long[] rangeOffsets = Arrays.copyOfRange(offsets, first, last);
+		final long[] rangeEnds = Arrays.copyOfRange(ends, first, last);
+		
+		return new LogEntryReader() {
+			private final RecordReader in = new RecordReader(channel, 65536);
+			private final LogLineCodec.Entry entry = new LogLineCodec.Entry();
+			private int position = -1;
+			
+			@Override
+			public boolean next() throws IOException {
+				while(++position < rangeOffsets.length) {
+					//skip records that end before the range, which are only
+					//included because an earlier record doesn't
+					if(rangeEnds[position] <= from) {
+						continue;
+					}
+					
+					if(!in.read(rangeOffsets[position])) {
+						throw new IOException("The record at " + rangeOffsets[position]
+									+ " is damaged.");
+					}
+					
+					if(entry.decode(in.getBuffer(), in.getLineOffset(), in.getLineLength())) {
+						return true;
+					}
+				}
+				
+				return false;
+			}
+			
+			@Override
+			public long getTimestamp() {
+				return entry.getTimestamp();
+			}
+			
+			@Override
+			public int getPingCount() {
+				return entry.getPingCount();
+			}
+			
+			@Override
+			public long getGapEnd() {
+				return entry.getGapEnd();
+			}
+			
+			@Override
+			public List<String> getTags() {
+				return entry.getTags();
+			}
+			
+			@Override
+			public void close() {
+			}
+		};
+	}
+	
+	@Override
+	public synchronized long getLastTimestamp() {
+		return size == 0 ? -1 : maxEnds[size - 1] - 1;
+	}
+	
+	@Override
+	public synchronized String getLastEntry() {
+		if(size == 0) {
+			return null;
+		}
+		
+		try {
+			if(lastEntryReader.read(offsets[size - 1])) {
+				return new String(lastEntryReader.getBuffer(), lastEntryReader.getLineOffset(),
+							lastEntryReader.getLineLength(), StandardCharsets.ISO_8859_1);
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Records are only ever written by this class, so this has nothing to
+	 * check.
+	 */
+	@Override
+	public Change reload() {
+		return null;
+	}
+	
+	/**
+	 * Copies the entries from the given text log into the store,
+	 * including any overflow and segments. Lines that aren't entries are
+	 * left out.
+	 * @param after Only entries later than this time (in seconds) are
+	 *            copied. Use -1 to copy everything.
+	 */
+	public synchronized void importTextLog(File logFile, long after) throws IOException {
+		List<File> files = new ArrayList<File>();
+		if(LogSegments.exists(logFile)) {
+			File[] segmentFiles = LogSegments.getDirectory(logFile).listFiles();
+			Arrays.sort(segmentFiles);
+			for(File segmentFile : segmentFiles) {
+				if(segmentFile.getName().matches("\\d{4}-\\d{2}\\.log")) {
+					files.add(segmentFile);
+				}
+			}
+		}
+		
+		LogLineCodec.Entry lineEntry = new LogLineCodec.Entry();
+		StringBuilder block = new StringBuilder();
+		long[] blockTimestamps = new long[Log.BACKFILL_BLOCK_SIZE];
+		int[] blockLengths = new int[Log.BACKFILL_BLOCK_SIZE];
+		int blockCount = 0;
+		
+		//the log file itself, including its overflow, comes last
+		if(logFile.exists()) {
+			files.add(logFile);
+		}
+		
+		String line;
+		for(File textFile : files) {
+			MergedLogReader in = new MergedLogReader(textFile);
+			try {
+				while((line = in.readLine()) != null) {
+					if(!lineEntry.decodeRaw(line) || lineEntry.getTimestamp() <= after) {
+						continue;
+					}
+					
+					block.append(line).append('\n');
+					blockTimestamps[blockCount] = lineEntry.getTimestamp();
+					blockLengths[blockCount] = line.length() + 1;
+					blockCount++;
+					
+					if(blockCount == blockTimestamps.length) {
+						write(block.toString(), blockTimestamps, blockLengths, blockCount);
+						block.setLength(0);
+						blockCount = 0;
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+		
+		if(blockCount > 0) {
+			write(block.toString(), blockTimestamps, blockLengths, blockCount);
+		}
+		
+		saveIndex();
+	}
+	
+	/**
+	 * Appends the lines stored here to another store, in order, then
+	 * commits it.
+	 * @param after Only lines later than this time (in seconds) are
+	 *            copied. Use -1 to copy everything.
+	 */
+	public synchronized void exportTo(PingStore target, long after) throws IOException {
+		RecordReader in = new RecordReader(channel, 65536);
+		StringBuilder block = new StringBuilder();
+		long[] blockTimestamps = new long[Log.BACKFILL_BLOCK_SIZE];
+		int[] blockLengths = new int[Log.BACKFILL_BLOCK_SIZE];
+		int blockCount = 0;
+		
+		for(int i = findIndex(after + 1); i < size; i++) {
+			if(!in.read(offsets[i])) {
+				throw new IOException("The record at " + offsets[i] + " is damaged.");
+			}
+			
+			block.append(new String(in.getBuffer(), in.getLineOffset(), in.getLineLength(),
+						StandardCharsets.ISO_8859_1)).append('\n');
+			blockTimestamps[blockCount] = timestamps[i];
+			blockLengths[blockCount] = in.getLineLength() + 1;
+			blockCount++;
+			
+			if(blockCount == blockTimestamps.length) {
+				target.append(block.toString(), blockTimestamps, blockLengths, blockCount);
+				block.setLength(0);
+				blockCount = 0;
+			}
+		}
+		
+		if(blockCount > 0) {
+			target.append(block.toString(), blockTimestamps, blockLengths, blockCount);
+		}
+		
+		target.commit(true);
+	}
+	
+	/**
+	 * Reads and indexes every intact record from the given position on.
+	 * Anything after the last intact record is cut off.
+	 */
+	private void readRecords(long position) throws IOException {
+		RecordReader in = new RecordReader(channel, 65536);
+		int added = 0;
+		while(in.read(position)) {
+			addToIndex(in.getTimestamp(), getEnd(in.getTimestamp(), in.getBuffer(),
+						in.getLineOffset(), in.getLineLength()), position);
+			position += RECORD_HEADER_LENGTH + in.getLineLength();
+			added++;
+		}
+		
+		if(position < channel.size()) {
+			System.err.println("Discarding " + (channel.size() - position)
+						+ " damaged bytes from the end of the ping store.");
+			channel.truncate(position);
+		}
+		
+		length = position;
+		unsavedRecords += added;
+	}
+	
+	/**
+	 * Writes the index to its file, after syncing the records it covers.
+	 * If this fails, the records will simply be read again next time.
+	 */
+	private void saveIndex() {
+		DataOutputStream out = null;
+		try {
+			channel.force(false);
+			
+			out = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(indexFile), 65536));
+			out.writeInt(INDEX_IDENTIFIER);
+			out.writeInt(FILE_VERSION);
+			out.writeLong(length);
+			out.writeInt(size);
+			for(int i = 0; i < size; i++) {
+				out.writeLong(timestamps[i]);
+				out.writeLong(ends[i]);
+				out.writeLong(offsets[i]);
+			}
+			
+			unsavedRecords = 0;
+		} catch(IOException e) {
+			e.printStackTrace();
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+	
+	/**
+	 * Reads the index from its file.
+	 * @return The length of the file covered by the index, or -1 if the
+	 *         index couldn't be read.
+	 */
+	private long loadIndex() {
+		if(!indexFile.exists()) {
+			return -1;
+		}
+		
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(indexFile), 65536));
+			if(in.readInt() != INDEX_IDENTIFIER
+						|| in.readInt() != FILE_VERSION) {
+				return -1;
+			}
+			
+			long indexedLength = in.readLong();
+			if(indexedLength < HEADER_LENGTH || indexedLength > channel.size()) {
+				return -1;
+			}
+			
+			int count = in.readInt();
+			timestamps = new long[Math.max(1024, count)];
+			ends = new long[timestamps.length];
+			maxEnds = new long[timestamps.length];
+			offsets = new long[timestamps.length];
+			for(size = 0; size < count; size++) {
+				timestamps[size] = in.readLong();
+				ends[size] = in.readLong();
+				offsets[size] = in.readLong();
+				maxEnds[size] = size > 0 ? Math.max(maxEnds[size - 1], ends[size]) : ends[size];
+			}
+			
+			return indexedLength;
+		} catch(IOException e) {
+			return -1;
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+	
+	/**
+	 * Reads records from the store's file, keeping a buffer of the data
+	 * after the last record read, so that reading records in order
+	 * doesn't read the file more than once. A record that was inserted
+	 * out of order is read into a separate, smaller buffer, so jumping to
+	 * it and back doesn't throw away the data that comes next.
+	 */
+	private static class RecordReader {
+		/**
+		 * The amount to read for a record that isn't next to the previous
+		 * one. This is enough for a typical record.
+		 */
+		private static final int SINGLE_READ_LENGTH = 256;
+		
+		private final FileChannel channel;
+		private final CRC32 checksum = new CRC32();
+		
+		private ByteBuffer readAhead;
+		private long readAheadStart = -1;
+		private int readAheadLength = 0;
+		
+		private ByteBuffer single = ByteBuffer.allocate(SINGLE_READ_LENGTH);
+		private long singleStart = -1;
+		private int singleLength = 0;
+		
+		/**
+		 * The position of the record after the last one read.
+		 */
+		private long nextPosition = -1;
+		
+		private ByteBuffer buffer;
+		private long timestamp;
+		private int lineOffset;
+		private int lineLength;
+		
+		public RecordReader(FileChannel channel, int bufferSize) {
+			this.channel = channel;
+			readAhead = ByteBuffer.allocate(bufferSize);
+		}
+		
+		/**
+		 * Reads the record at the given position.
+		 * @return False if there isn't an intact record there.
+		 */
+		public boolean read(long position) throws IOException {
+			boolean sequential = position == nextPosition
+						|| position >= readAheadStart
+						&& position <= readAheadStart + readAheadLength;
+			singleStart = -1;
+			
+			if(!fill(position, RECORD_HEADER_LENGTH, sequential)) {
+				return false;
+			}
+			
+			int start = (int) (position - (buffer == readAhead ? readAheadStart : position));
+			int length = buffer.getInt(start);
+			if(length < 0 || length > MAX_LINE_LENGTH
+						|| !fill(position, RECORD_HEADER_LENGTH + length, sequential)) {
+				return false;
+			}
+			
+			start = (int) (position - (buffer == readAhead ? readAheadStart : position));
+			checksum.reset();
+			checksum.update(buffer.array(), start + 8, 8 + length);
+			if((int) checksum.getValue() != buffer.getInt(start + 4)) {
+				return false;
+			}
+			
+			timestamp = buffer.getLong(start + 8);
+			lineOffset = start + RECORD_HEADER_LENGTH;
+			lineLength = length;
+			nextPosition = position + RECORD_HEADER_LENGTH + length;
+			return true;
+		}
+		
+		/**
+		 * Points <code>buffer</code> at a buffer holding the given range of
+		 * the file, reading from the file if necessary. A range next to
+		 * the last one read goes in the read-ahead buffer, and anything
+		 * else is read on its own.
+		 * @return False if the file ends before the end of the range.
+		 */
+		private boolean fill(long position, int length, boolean sequential)
+					throws IOException {
+			if(position >= readAheadStart
+						&& position + length <= readAheadStart + readAheadLength) {
+				buffer = readAhead;
+				return true;
+			}
+			
+			if(sequential) {
+				if(length > readAhead.capacity()) {
+					readAhead = ByteBuffer.allocate(Integer.highestOneBit(length) * 2);
+				}
+				
+				readAheadStart = position;
+				readAheadLength = read(readAhead, position);
+				buffer = readAhead;
+				return readAheadLength >= length;
+			}
+			
+			buffer = single;
+			if(position == singleStart && length <= singleLength) {
+				return true;
+			}
+			
+			if(length > single.capacity()) {
+				single = ByteBuffer.allocate(Integer.highestOneBit(length) * 2);
+				buffer = single;
+			}
+			
+			singleStart = position;
+			singleLength = read(single, position);
+			return singleLength >= length;
+		}
+		
+		/**
+		 * Fills the given buffer from the given position in the file.
+		 * @return The number of bytes read.
+		 */
+		private int read(ByteBuffer target, long position) throws IOException {
+			target.clear();
+			int read;
+			while(target.hasRemaining()
+						&& (read = channel.read(target, position + target.position())) >= 0) {
+				if(read == 0) {
+					break;
+				}
+			}
+			
+			return target.position();
+		}
+		
+		public long getTimestamp() {
+			return timestamp;
+		}
+		
+		public byte[] getBuffer() {
+			return buffer.array();
+		}
+		
+		public int getLineOffset() {
+			return lineOffset;
+		}
+		
+		public int getLineLength() {
+			return lineLength;
+		}
+	}
+}
@@ -1,302 +1,665 @@
-/*
- * Copyright 2011-2012 Joseph Cloutier
- * 
- * This file is part of TagTime.
- * 
- * TagTime is free software: you can redistribute it and/or modify it
- * under the terms of the GNU General Public License as published by the
- * Free Software Foundation, either version 3 of the License, or (at your
- * option) any later version.
- * 
- * TagTime is distributed in the hope that it will be useful, but WITHOUT
- * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
- * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
- * for more details.
- * 
- * You should have received a copy of the GNU General Public License
- * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
- */
-
-package tagtime.log;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.text.DateFormat;
-import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import tagtime.Main;
-import tagtime.TagTime;
-import tagtime.quartz.RandomizedTrigger;
-import tagtime.util.BackwardsAccessFile;
-
-/**
- * Keeps a persistent log of all tag data, and (optionally) submits the
- * data to Beeminder. It additionally tracks what data has and has not
- * been submitted yet, so if the user is offline and Beeminder can't be
- * reached, the data can be submitted later.
- */
-public class Log {
-	private static final Pattern LINE_PARSER = Pattern.compile(
-				"^(\\d+) (\\w+(?: [\\w]+)*) +\\[");
-	
-	public final TagTime tagTimeInstance;
-	
-	private final File logFileLocation;
-	private BackwardsAccessFile logFile;
-	
-	private long lastTimestamp = -1;
-	private String lastTags = null;
-	
-	public Log(TagTime tagTimeInstance) throws IOException {
-		this.tagTimeInstance = tagTimeInstance;
-		
-		logFileLocation = new File(Main.getDataDirectory().getPath() + "/" +
-					tagTimeInstance.settings.username + ".log");
-		
-		findLastEntry();
-	}
-	
-	/**
-	 * Records the given ping in the log.
-	 * @param timestamp The time, in milliseconds, corresponding to the
-	 *            data. Assuming this data was generated by a standard
-	 *            tag popup window, this should be the time the window
-	 *            was created.
-	 * @param data The data to log. This should include both
-	 *            user-generated tags and any automatically-generated
-	 *            data, but it does not need to include a timestamp.
-	 */
-	public synchronized void log(long timestamp, String data) {
-		boolean leaveFileOpen = logFile != null;
-		if(logFile == null) {
-			try {
-				logFile = new BackwardsAccessFile(logFileLocation, "rw");
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-				return;
-			}
-		}
-		
-		//convert to Unix time (that is, use seconds, not milliseconds)
-		long timestampInSeconds = timestamp / 1000;
-		
-		//if the given value equals the final timestamp, increment it
-		if(timestampInSeconds == lastTimestamp) {
-			timestampInSeconds++;
-			timestamp += 1000;
-		}
-		
-		StringBuffer extraData = null;
-		
-		try {
-			logFile.seek(logFile.length());
-		} catch(IOException e) {
-			e.printStackTrace();
-		}
-		
-		if(timestampInSeconds > lastTimestamp) {
-			lastTimestamp = timestampInSeconds;
-			
-			if(data.indexOf(" RETRO") == -1) {
-				lastTags = data;
-			}
-		} else {
-			//special case: check if this ping goes immediately before
-			//the final line of the file
-			long prevTimestamp = timestampInSeconds + 1;
-			try {
-				logFile.seekLastLine("");
-				String prevLine = logFile.readPreviousLine("0123456789");
-				prevTimestamp = Long.parseLong(prevLine.substring(0,
-								prevLine.indexOf(' ')));
-			} catch(Exception e) {
-				e.printStackTrace();
-			}
-			
-			//if it does, simply place it there
-			if(prevTimestamp < timestampInSeconds) {
-				//the pointer is already in the correct spot
-			}
-
-			//if not, search from the beginning
-			else {
-				try {
-					long nextTimestamp = 0;
-					logFile.seek(0);
-					String line;
-					
-					while(nextTimestamp < timestampInSeconds) {
-						line = logFile.readLine();
-						try {
-							nextTimestamp = Long.parseLong(line.substring(0,
-											line.indexOf(' ')));
-						} catch(NumberFormatException e) {}
-					}
-					
-					logFile.seekLineStart("0123456789");
-				} catch(IOException e) {
-					e.printStackTrace();
-				}
-			}
-			
-			//copy all data following the file pointer, so that the
-			//current data can be inserted without overwriting anything
-			try {
-				long insertionPosition = logFile.getFilePointer();
-				extraData = new StringBuffer();
-				String line;
-				
-				while((line = logFile.readLine()) != null) {
-					extraData.append(line);
-					extraData.append('\n');
-				}
-				
-				logFile.seek(insertionPosition);
-			} catch(IOException e) {
-				e.printStackTrace();
-				try {
-					logFile.seek(logFile.length());
-				} catch(IOException e1) {
-					e1.printStackTrace();
-				}
-			}
-		}
-		
-		//combine the timestamp and tags
-		String annotatedData = Long.toString(timestampInSeconds) + " " + data;
-		
-		//pad the string with spaces until it is 55 characters long
-		int paddingNeeded = 55 - annotatedData.length();
-		if(paddingNeeded > 0) {
-			annotatedData += String.format("%1$" + paddingNeeded + "c", ' ');
-		} else {
-			annotatedData += " ";
-		}
-		
-		//add a human-readable timestamp and end the line
-		annotatedData += "[" + DateFormat.getDateTimeInstance().format(timestamp) + "]\n";
-		
-		//write the data to the file
-		try {
-			logFile.writeBytes(annotatedData);
-			
-			//if the line needed to be inserted, re-write all following lines
-			if(extraData != null) {
-				logFile.writeBytes(extraData.toString());
-			}
-		} catch(IOException e) {
-			System.err.println("Unable to write this line to the log file:");
-			System.err.println(annotatedData);
-			e.printStackTrace();
-		}
-		
-		if(!leaveFileOpen) {
-			try {
-				logFile.close();
-				logFile = null;
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-	}
-	
-	private void findLastEntry() {
-		try {
-			logFile = new BackwardsAccessFile(logFileLocation, "rw");
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return;
-		}
-		
-		try {
-			//get the final line with a digit on it
-			String lastLine = logFile.readLastLine("0123456789");
-			
-			if(lastLine != null) {
-				Matcher lineMatcher = LINE_PARSER.matcher(lastLine);
-				
-				if(lineMatcher.find()) {
-					lastTimestamp = Long.parseLong(lineMatcher.group(1));
-					lastTags = lineMatcher.group(2);
-					if(lastTags.indexOf(" RETRO") == lastTags.length() - 6) {
-						lastTags = null;
-					}
-				}
-			}
-		} catch(Exception e) {}
-		
-		try {
-			logFile.close();
-			logFile = null;
-		} catch(IOException e) {}
-	}
-	
-	/**
-	 * @return The last recorded timestamp in the log file. Returns -1 if
-	 *         there are no recorded timestamps.
-	 */
-	public long getLastTimestamp() {
-		return lastTimestamp;
-	}
-	
-	public String getLastTags() {
-		return lastTags;
-	}
-	
-	/**
-	 * Logs all pings that were skipped since the latest entry in the log
-	 * file, marking them as "afk RETRO", optionally with more tags.
-	 * @param extraTags Additional tags to add between "afk" and "RETRO".
-	 *            This string does not need to start or end with a space.
-	 * @param until The time at which to stop logging missed pings.
-	 */
-	public void logMissedPings(String extraTags, long until) {
-		try {
-			logFile = new BackwardsAccessFile(logFileLocation, "rw");
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return;
-		}
-		
-		//the string used to mark missed pings
-		String tags = "afk";
-		
-		if(extraTags != null && !extraTags.equals("")) {
-			tags += " " + extraTags;
-		}
-		
-		RandomizedTrigger trigger = tagTimeInstance.trigger;
-		long lastPing = getLastTimestamp();
-		
-		if(lastPing != -1) {
-			//lastPing was rounded down when converted to seconds, so if
-			//we don't add 1, it will most likely (999/1000) repeat a ping
-			Date ping = new Date((lastPing + 1) * 1000);
-			
-			for(ping = trigger.getFireTimeAfter(ping, true); ping.getTime() < until; ping =
-						trigger.getFireTimeAfter(ping, true)) {
-				logRetro(ping.getTime(), tags);
-			}
-		}
-		
-		try {
-			logFile.close();
-			logFile = null;
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-	
-	/**
-	 * Logs an automatically-generated message.
-	 * @param timestamp The time to record in the log file.
-	 * @param data The automatically-generated tags to log, not including
-	 *            the "RETRO" tag at the end.
-	 */
-	public void logRetro(long timestamp, String data) {
-		log(timestamp, data + " RETRO");
-	}
-}
+/*
+ * Copyright 2011-2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tagtime.Main;
+import tagtime.TagTime;
+import tagtime.quartz.QuietHoursCalendar;
+import tagtime.quartz.RandomizedTrigger;
+import tagtime.settings.SettingType;
+
+/**
+ * Keeps a persistent log of all tag data, and (optionally) submits the
+ * data to Beeminder. It additionally tracks what data has and has not
+ * been submitted yet, so if the user is offline and Beeminder can't be
+ * reached, the data can be submitted later.
+ */
+public class Log {
+	private static final Pattern LINE_PARSER = Pattern.compile(
+				"^(\\d+) (\\w+(?: [\\w]+)*) +\\[");
+	
+	/**
+	 * The maximum number of missed pings to write at once when filling
+	 * in the log after a shutdown. At roughly 85 bytes a line, this
+	 * keeps each write under a megabyte.
+	 */
+	public static final int BACKFILL_BLOCK_SIZE = 8192;
+	
+	/**
+	 * Receives updates as missed pings are written to the log.
+	 * @see Log#backfillMissedPings(String, long, BackfillListener)
+	 */
+	public interface BackfillListener {
+		/**
+		 * Called after each block of missed pings is written, and once
+		 * more when the backfill is finished (at which point
+		 * <code>logged == total</code>).
+		 */
+		public void backfillProgress(long logged, long total);
+	}
+	
+	public final TagTime tagTimeInstance;
+	
+	/**
+	 * Whether and when to sync the log to the disk after writing.
+	 * @see SettingType#LOG_DURABILITY
+	 */
+	private final LogDurability durability;
+	
+	/**
+	 * Where the log is kept.
+	 * @see SettingType#LOG_STORAGE
+	 */
+	private final PingStore store;
+	
+	/**
+	 * A copy of the log's pings, kept up to date as they're written.
+	 * @see SettingType#LOG_CACHE_SIZE
+	 */
+	private final LogCache cache;
+	
+	/**
+	 * Writes entries passed to {@link #log(long, String)}.
+	 */
+	private final LogWriter writer;
+	
+	private String lastTags = null;
+	
+	public Log(TagTime tagTimeInstance) throws IOException {
+		this.tagTimeInstance = tagTimeInstance;
+		
+		File logFile = new File(Main.getDataDirectory().getPath() + "/" +
+					tagTimeInstance.settings.username + ".log");
+		
+		String durabilityName = tagTimeInstance.settings.getStringValue(SettingType.LOG_DURABILITY);
+		LogDurability durability;
+		try {
+			durability = LogDurability.fromName(durabilityName);
+		} catch(IllegalArgumentException e) {
+			System.err.println("Unknown log durability \"" + durabilityName
+						+ "\"; using " + LogDurability.BATCH + " instead.");
+			durability = LogDurability.BATCH;
+		}
+		this.durability = durability;
+		
+		store = openStore(logFile);
+		findLastTags();
+		
+		cache = new LogCache(store, tagTimeInstance.trigger,
+					tagTimeInstance.settings.getIntValue(SettingType.LOG_CACHE_SIZE) * 1048576L);
+		
+		writer = new LogWriter(new LogWriter.Target() {
+			@Override
+			public void writeBatch(long[] timestamps, String[] data, int offset, int count)
+						throws IOException {
+				Log.this.writeBatch(timestamps, data, offset, count);
+			}
+		}, durability, tagTimeInstance.settings.username);
+		
+		//only a text log can be edited by hand
+		if(store instanceof TextPingStore
+					&& tagTimeInstance.settings.getBooleanValue(SettingType.WATCH_LOG)) {
+			try {
+				store.reload();
+				new LogWatcher(this, logFile, tagTimeInstance.settings.username);
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Opens the store chosen in the settings. Whichever store was used
+	 * last holds the pings logged since the other was last used, so
+	 * switching copies them across: pings added to the text log are
+	 * copied into an {@link IndexedPingStore}, and pings logged while an
+	 * IndexedPingStore was in use are copied back into the text log.
+	 * Either way, only pings after the last one in the store being
+	 * opened are copied.
+	 */
+	private PingStore openStore(File logFile) throws IOException {
+		String storageName = tagTimeInstance.settings.getStringValue(SettingType.LOG_STORAGE);
+		LogStorage storage;
+		try {
+			storage = LogStorage.fromName(storageName);
+		} catch(IllegalArgumentException e) {
+			System.err.println("Unknown log storage \"" + storageName
+						+ "\"; using " + LogStorage.TEXT + " instead.");
+			storage = LogStorage.TEXT;
+		}
+		
+		File storeFile = IndexedPingStore.getStoreFile(logFile);
+		if(storage == LogStorage.INDEXED) {
+			boolean textChanged = !storeFile.exists()
+						|| getLastModified(logFile) > storeFile.lastModified();
+			IndexedPingStore indexedStore = new IndexedPingStore(storeFile);
+			if(textChanged) {
+				indexedStore.importTextLog(logFile, indexedStore.getLastTimestamp());
+			}
+			return indexedStore;
+		}
+		
+		TextPingStore textStore = new TextPingStore(logFile, durability != LogDurability.NONE,
+					tagTimeInstance.settings.getBooleanValue(SettingType.APPEND_ONLY_LOG),
+					tagTimeInstance.settings.getBooleanValue(SettingType.SEGMENTED_LOG),
+					tagTimeInstance.settings.getBooleanValue(SettingType.BINARY_LOG));
+		
+		if(storeFile.exists() && storeFile.lastModified() > getLastModified(logFile)) {
+			IndexedPingStore indexedStore = new IndexedPingStore(storeFile);
+			try {
+				indexedStore.exportTo(textStore, textStore.getLastTimestamp());
+			} finally {
+				indexedStore.close();
+			}
+		}
+		
+		return textStore;
+	}
+	
+	/**
+	 * @return The last time the given text log was changed, including
+	 *         its segments, or 0 if it doesn't exist.
+	 */
+	private static long getLastModified(File logFile) {
+		long lastModified = logFile.lastModified();
+		if(LogSegments.exists(logFile)) {
+			lastModified = Math.max(lastModified,
+						LogSegments.getDirectory(logFile).lastModified());
+		}
+		return lastModified;
+	}
+	
+	/**
+	 * Records the given ping in the log.
+	 * @param timestamp The time, in milliseconds, corresponding to the
+	 *            data. Assuming this data was generated by a standard
+	 *            tag popup window, this should be the time the window
+	 *            was created.
+	 * @param data The data to log. This should include both
+	 *            user-generated tags and any automatically-generated
+	 *            data, but it does not need to include a timestamp.
+	 * @return A future that completes once the ping has been written
+	 *         (and synced, depending on the durability setting), or
+	 *         completes exceptionally if it couldn't be. The ping is
+	 *         written on a separate thread, so this returns immediately.
+	 */
+	public Future<Void> log(long timestamp, String data) {
+		return writer.submit(timestamp, data);
+	}
+	
+	/**
+	 * @return A future that completes once every ping logged so far has
+	 *         been written, or completes exceptionally if any ping
+	 *         logged since the previous flush couldn't be written.
+	 */
+	public Future<Void> flush() {
+		return writer.flush();
+	}
+	
+	/**
+	 * Writes a batch of pings, as queued by {@link #log(long, String)}.
+	 * Pings that belong at the end of the log are written together in a
+	 * single append; any that are out of order are inserted one at a
+	 * time. Afterwards, the log is synced unless the durability setting
+	 * is <code>NONE</code>.
+	 * @param timestamps The time of each ping, in milliseconds.
+	 * @param data The data for each ping.
+	 * @param offset The position of the first ping in the arrays.
+	 * @param count The number of pings to write.
+	 * @throws LogWriter.PartialWriteException If some of the pings were
+	 *         written before an error occurred.
+	 * @throws IOException If none of the pings were written, or the log
+	 *         couldn't be synced.
+	 */
+	synchronized void writeBatch(long[] timestamps, String[] data, int offset, int count)
+				throws IOException {
+		//the number of pings written so far, counting from offset; they
+		//are always written in order
+		int written = 0;
+		try {
+			LogLineCodec codec = LogLineCodec.get();
+			StringBuilder block = new StringBuilder();
+			long[] blockTimestamps = new long[count];
+			int[] blockLengths = new int[count];
+			int blockCount = 0;
+			long pendingTimestamp = store.getLastTimestamp();
+			
+			long timestamp;
+			long timestampInSeconds;
+			for(int i = offset; i < offset + count; i++) {
+				timestamp = timestamps[i];
+				timestampInSeconds = timestamp / 1000;
+				if(timestampInSeconds == pendingTimestamp) {
+					timestampInSeconds++;
+					timestamp += 1000;
+				}
+				
+				if(timestampInSeconds > pendingTimestamp) {
+					blockTimestamps[blockCount] = timestampInSeconds;
+					blockLengths[blockCount] = codec.encodeRaw(block,
+								timestampInSeconds, timestamp, data[i]);
+					blockCount++;
+					pendingTimestamp = timestampInSeconds;
+					
+					if(data[i].indexOf(" RETRO") == -1) {
+						lastTags = data[i];
+					}
+				} else {
+					//everything before this ping has to be written first
+					if(blockCount > 0) {
+						writeBlock(block.toString(), blockTimestamps, blockLengths,
+									blockCount);
+						block.setLength(0);
+						blockCount = 0;
+						written = i - offset;
+					}
+					
+					write(timestamps[i], data[i]);
+					written = i - offset + 1;
+					pendingTimestamp = store.getLastTimestamp();
+				}
+			}
+			
+			if(blockCount > 0) {
+				writeBlock(block.toString(), blockTimestamps, blockLengths, blockCount);
+			}
+		} catch(IOException e) {
+			if(written > 0) {
+				throw new LogWriter.PartialWriteException(written, e);
+			}
+			throw e;
+		} finally {
+			store.commit(durability != LogDurability.NONE);
+		}
+	}
+	
+	/**
+	 * Writes a single ping to the log, inserting it in the correct place
+	 * if it's older than the final line.
+	 */
+	private synchronized void write(long timestamp, String data) throws IOException {
+		//convert to Unix time (that is, use seconds, not milliseconds)
+		long timestampInSeconds = timestamp / 1000;
+		
+		//if the given value equals the final timestamp, increment it
+		long lastTimestamp = store.getLastTimestamp();
+		if(timestampInSeconds == lastTimestamp) {
+			timestampInSeconds++;
+			timestamp += 1000;
+		}
+		
+		if(timestampInSeconds > lastTimestamp && data.indexOf(" RETRO") == -1) {
+			lastTags = data;
+		}
+		
+		String annotatedData = LogLineCodec.get().encodeRaw(timestampInSeconds,
+					timestamp, data);
+		writeBlock(annotatedData, new long[] {timestampInSeconds},
+					new int[] {annotatedData.length()}, 1);
+	}
+	
+	/**
+	 * Writes a block of consecutive lines to the log. Usually the block
+	 * can simply be appended, but if later pings were logged while it
+	 * was being prepared, it is inserted instead.
+	 * @param lines The formatted lines, in order.
+	 * @param timestamps The timestamp of each line, in seconds.
+	 * @param lengths The length of each line, including the line break.
+	 * @param count The number of lines in the block.
+	 */
+	private void writeBlock(String lines, long[] timestamps, int[] lengths, int count)
+				throws IOException {
+		try {
+			if(timestamps[0] > store.getLastTimestamp()) {
+				store.append(lines, timestamps, lengths, count);
+			} else {
+				store.insert(lines, timestamps, lengths, count);
+			}
+			
+			cache.linesWritten(lines);
+		} catch(IOException e) {
+			System.err.println("Unable to write these lines to the log file:");
+			System.err.print(lines);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Writes a block of lines, as {@link #writeBatch(long[], String[], int, int)}
+	 * would, and then finishes writing it.
+	 * @param sync Whether to sync the log to the disk afterwards.
+	 */
+	private synchronized void logBlock(String lines, long[] timestamps, int[] lengths,
+				int count, boolean sync) {
+		try {
+			try {
+				writeBlock(lines, timestamps, lengths, count);
+			} finally {
+				store.commit(sync);
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * @return The last recorded timestamp in the log file. Returns -1 if
+	 *         there are no recorded timestamps.
+	 */
+	public long getLastTimestamp() {
+		return store.getLastTimestamp();
+	}
+	
+	public String getLastTags() {
+		return lastTags;
+	}
+	
+	/**
+	 * Sets <code>lastTags</code> to the tags of the final entry in the
+	 * log, unless they were generated automatically.
+	 */
+	private void findLastTags() {
+		lastTags = null;
+		
+		String lastEntry = store.getLastEntry();
+		if(lastEntry != null) {
+			Matcher lineMatcher = LINE_PARSER.matcher(lastEntry);
+			if(lineMatcher.find()) {
+				lastTags = lineMatcher.group(2);
+				if(lastTags.indexOf(" RETRO") == lastTags.length() - 6) {
+					lastTags = null;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether the log was edited by something other than TagTime
+	 * (usually the user, by hand), and if so, brings everything derived
+	 * from it up to date. Only the part that was edited is read again.
+	 * @return Whether anything changed.
+	 * @see LogWatcher
+	 */
+	public synchronized boolean reload() {
+		String lastEntry = store.getLastEntry();
+		
+		PingStore.Change change;
+		try {
+			change = store.reload();
+		} catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		
+		if(change == null) {
+			return false;
+		}
+		
+		cache.rangeChanged(change.from, change.to, change.lines);
+		
+		if(lastEntry == null ? store.getLastEntry() != null
+					: !lastEntry.equals(store.getLastEntry())) {
+			findLastTags();
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Lists the pings logged in the given range of time, in order, with
+	 * the pings in gap records listed individually. These are read from
+	 * memory where possible; see {@link LogCache}. Pings that are still
+	 * waiting to be written aren't included.
+	 * @param from The start of the range, in seconds (inclusive).
+	 * @param to The end of the range, in seconds (exclusive).
+	 * @return A reader that can be used without synchronizing. Pings
+	 *         held in memory aren't affected by later writes, but older
+	 *         pings are read from the log as needed, and may reflect an
+	 *         out-of-order write or hand edit made in the meantime (see
+	 *         {@link LogCache#entriesBetween(long, long)}). It must be
+	 *         closed once finished with.
+	 */
+	public synchronized LogEntryReader entriesBetween(long from, long to) {
+		return cache.entriesBetween(from, to);
+	}
+	
+	/**
+	 * Fills in the pings that were missed while TagTime wasn't running,
+	 * on a background thread. This returns immediately; any pings that
+	 * are logged in the meantime will still end up in the right order.
+	 * @see #logMissedPings(String, long)
+	 * @param listener Receives progress updates. This may be null.
+	 * @return The thread doing the work.
+	 */
+	public Thread backfillMissedPings(final String extraTags, final long until,
+				final BackfillListener listener) {
+		//find the starting point now, before any new pings are logged
+		final long lastPing = getLastTimestamp();
+		
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				logMissedPings(extraTags, lastPing, until, listener);
+			}
+		}, "Missed ping backfill");
+		thread.start();
+		
+		return thread;
+	}
+	
+	/**
+	 * Logs all pings that were skipped since the latest entry in the log
+	 * file, marking them as "afk RETRO", optionally with more tags. Pings
+	 * during the user's quiet hours are instead marked with the quiet
+	 * hours tag.
+	 * @param extraTags Additional tags to add between "afk" and "RETRO".
+	 *            This string does not need to start or end with a space.
+	 * @param until The time at which to stop logging missed pings.
+	 */
+	public void logMissedPings(String extraTags, long until) {
+		logMissedPings(extraTags, getLastTimestamp(), until, null);
+	}
+	
+	/**
+	 * Logs all pings after <code>lastPing</code> and before
+	 * <code>until</code>. Rather than logging them one at a time, the
+	 * lines are formatted in advance and written in blocks of up to
+	 * <code>BACKFILL_BLOCK_SIZE</code>, so that even a long absence only
+	 * takes a few writes.
+	 * @param lastPing The final timestamp in the log, in seconds, or -1
+	 *            if the log is empty (in which case nothing is logged).
+	 */
+	private void logMissedPings(String extraTags, long lastPing, long until,
+				BackfillListener listener) {
+		if(lastPing == -1) {
+			if(listener != null) {
+				listener.backfillProgress(0, 0);
+			}
+			return;
+		}
+		
+		//the string used to mark missed pings
+		String tags = "afk";
+		
+		if(extraTags != null && !extraTags.equals("")) {
+			tags += " " + extraTags;
+		}
+		tags += " RETRO";
+		
+		String quietTags = getQuietHoursTag() + " RETRO";
+		QuietHoursCalendar quietHours = tagTimeInstance.quietHours;
+		
+		RandomizedTrigger trigger = tagTimeInstance.trigger;
+		
+		//lastPing was rounded down when converted to seconds, so if we
+		//don't add 1, it will most likely (999/1000) repeat a ping
+		long firstIndex = trigger.nextFireTimeIndex((lastPing + 1) * 1000);
+		long lastIndex = trigger.previousFireTimeIndex(until);
+		long total = Math.max(lastIndex - firstIndex + 1, 0);
+			
+		LogLineCodec codec = LogLineCodec.get();
+		StringBuilder block = new StringBuilder();
+		long[] timestamps = new long[(int) Math.min(Math.max(total, 1), BACKFILL_BLOCK_SIZE)];
+		int[] lengths = new int[timestamps.length];
+		int count = 0;
+		long logged = 0;
+		long blockPings = 0;
+		
+		//the current run of pings with the same tags, which is written as
+		//a single gap record if it's long enough (only the first few
+		//pings need to be remembered to decide that)
+		String runData = null;
+		int runLength = 0;
+		long[] runTimestamps = new long[LogGaps.MIN_PINGS];
+		long[] runTimes = new long[LogGaps.MIN_PINGS];
+		long runLastTimestamp = 0;
+		
+		//the end of the current quiet period; every ping before this is
+		//quiet without needing to check
+		long quietUntil = Long.MIN_VALUE;
+		
+		long previousTimestamp = lastPing;
+		long time = 0;
+		long timestampInSeconds = 0;
+		boolean adjusted = false;
+		String data = null;
+		for(long i = firstIndex; i <= lastIndex + 1; i++) {
+			if(i <= lastIndex) {
+				time = trigger.fireTimeMillisAt(i);
+			
+				if(time < quietUntil) {
+					data = quietTags;
+				} else if(quietHours.isExcluded(time)) {
+					quietUntil = quietHours.getNextIncludedTime(time);
+					if(quietUntil <= 0) {
+						quietUntil = Long.MAX_VALUE;
+					}
+					data = quietTags;
+				} else {
+					data = tags;
+				}
+				
+				//as in log(), don't let two pings share a timestamp
+				timestampInSeconds = time / 1000;
+				adjusted = timestampInSeconds <= previousTimestamp;
+				if(adjusted) {
+					time += (previousTimestamp + 1 - timestampInSeconds) * 1000;
+					timestampInSeconds = previousTimestamp + 1;
+				}
+				previousTimestamp = timestampInSeconds;
+			}
+			
+			//write the current run once it ends
+			if(runLength > 0 && (i > lastIndex || !data.equals(runData))) {
+				if(runLength >= LogGaps.MIN_PINGS) {
+					timestamps[count] = runTimestamps[0];
+					lengths[count] = codec.encodeGapRaw(block, runTimestamps[0], runTimes[0],
+								runLastTimestamp + 1, runLength, runData);
+					count++;
+				} else {
+					for(int j = 0; j < runLength; j++) {
+						timestamps[count] = runTimestamps[j];
+						lengths[count] = codec.encodeRaw(block, runTimestamps[j], runTimes[j],
+									runData);
+						count++;
+					}
+				}
+				blockPings += runLength;
+				runLength = 0;
+			}
+			
+			if(i <= lastIndex) {
+				if(runLength == 0 && adjusted) {
+					//an adjusted timestamp can't be recreated from the
+					//schedule, so it can't start a gap record
+					timestamps[count] = timestampInSeconds;
+					lengths[count] = codec.encodeRaw(block, timestampInSeconds, time, data);
+					count++;
+					blockPings++;
+				} else {
+					if(runLength < LogGaps.MIN_PINGS) {
+						runTimestamps[runLength] = timestampInSeconds;
+						runTimes[runLength] = time;
+					}
+					runData = data;
+					runLastTimestamp = timestampInSeconds;
+					runLength++;
+				}
+			}
+			
+			//write the block once another run might not fit
+			if(count > 0 && (count + LogGaps.MIN_PINGS > timestamps.length || i > lastIndex)) {
+				logBlock(block.toString(), timestamps, lengths, count,
+							durability != LogDurability.NONE);
+				logged += blockPings;
+				block.setLength(0);
+				count = 0;
+				blockPings = 0;
+				
+				if(listener != null && logged < total) {
+					listener.backfillProgress(logged, total);
+				}
+			}
+		}
+		
+		if(listener != null) {
+			listener.backfillProgress(total, total);
+		}
+	}
+	
+	/**
+	 * Logs every ping between the two given times (exclusive) that was
+	 * skipped because it fell during the user's quiet hours.
+	 */
+	public void logQuietPings(long after, long before) {
+		String quietTags = getQuietHoursTag();
+		QuietHoursCalendar quietHours = tagTimeInstance.quietHours;
+		RandomizedTrigger trigger = tagTimeInstance.trigger;
+		
+		for(long time = trigger.nextFireTimeMillis(after); time < before; time =
+					trigger.nextFireTimeMillis(time)) {
+			if(quietHours.isExcluded(time)) {
+				logRetro(time, quietTags);
+			}
+		}
+	}
+	
+	private String getQuietHoursTag() {
+		String tag = tagTimeInstance.settings.getStringValue(SettingType.QUIET_HOURS_TAG);
+		return tag == null || tag.equals("") ? "quiet" : tag;
+	}
+	
+	/**
+	 * Logs an automatically-generated message.
+	 * @param timestamp The time to record in the log file.
+	 * @param data The automatically-generated tags to log, not including
+	 *            the "RETRO" tag at the end.
+	 * @see #log(long, String)
+	 */
+	public Future<Void> logRetro(long timestamp, String data) {
+		return log(timestamp, data + " RETRO");
+	}
+}
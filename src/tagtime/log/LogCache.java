@@ -0,0 +1,596 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tagtime.quartz.RandomizedTrigger;
+
+/**
+ * <p>
+ * An in-memory copy of the log's pings, so that ranges of the log can be
+ * read without touching the disk. Each ping takes a timestamp in a
+ * sorted array and an offset into a shared array of tag bytes; pings
+ * with the same tags (such as the pings in a gap record) share the same
+ * bytes.
+ * </p>
+ * <p>
+ * The pings are read from the {@link PingStore} the first time they're
+ * needed, and {@link Log} adds new pings as it writes them. If the copy
+ * grows past its limit, the oldest half is discarded, and reads from
+ * that part of the log go back to the store. This class isn't
+ * thread-safe; Log only uses it while synchronized.
+ * </p>
+ * @see Log#entriesBetween(long, long)
+ */
+public class LogCache {
+	/**
+	 * The approximate cost, in bytes, of each distinct set of tags,
+	 * beyond the tags themselves.
+	 */
+	private static final int TAG_SET_OVERHEAD = 80;
+	
+	private final PingStore store;
+	private final RandomizedTrigger trigger;
+	
+	/**
+	 * The most memory the cache should use, in bytes.
+	 */
+	private final long capacity;
+	
+	private boolean loaded = false;
+	
+	/**
+	 * The earliest time held in memory. Any earlier pings have been
+	 * discarded, and must be read from the store.
+	 */
+	private long start;
+	
+	/**
+	 * The time of each ping, in seconds, in order.
+	 */
+	private long[] timestamps = new long[1024];
+	
+	/**
+	 * The position in <code>tagBytes</code> of each ping's tags.
+	 */
+	private int[] tagOffsets = new int[1024];
+	private int size = 0;
+	
+	/**
+	 * Each set of tags, as its length in bytes (one or two bytes, with
+	 * the high bit of the first set if there are two) followed by the
+	 * tags in UTF-8, separated by spaces. Bytes are only ever added at
+	 * the end, and when older tags are discarded, a new array is made,
+	 * so a reader can keep using an old copy of this array.
+	 */
+	private byte[] tagBytes = new byte[16384];
+	private int tagBytesSize = 0;
+	
+	/**
+	 * The offset of each set of tags already in <code>tagBytes</code>.
+	 */
+	private final Map<String, Integer> tagOffsetsByTags = new HashMap<String, Integer>();
+	private long tagSetMemory = 0;
+	
+	/**
+	 * @param store Where the pings are read from.
+	 * @param trigger The schedule, used to find the individual pings in
+	 *            gap records. May be null.
+	 * @param capacity The most memory to use, in bytes. If this is 0,
+	 *            nothing is kept in memory, and every read goes to the
+	 *            store.
+	 */
+	public LogCache(PingStore store, RandomizedTrigger trigger, long capacity) {
+		this.store = store;
+		this.trigger = trigger;
+		this.capacity = capacity;
+		
+		start = capacity > 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+	}
+	
+	/**
+	 * @return The number of pings held in memory.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return The earliest time held in memory. Reads from before this
+	 *         time go to the store.
+	 */
+	public long getStart() {
+		return start;
+	}
+	
+	/**
+	 * @return The approximate memory used, in bytes.
+	 */
+	public long getMemoryUsed() {
+		return timestamps.length * 8L + tagOffsets.length * 4L + tagBytes.length
+					+ tagSetMemory;
+	}
+	
+	/**
+	 * <p>
+	 * Lists the pings from the given range of time, in order. The pings
+	 * in gap records are listed individually.
+	 * </p>
+	 * <p>
+	 * Pings held in memory are copied before this returns, so that part
+	 * of the reader isn't affected by later writes. Any earlier part of
+	 * the range is read from the store through a reader that's opened
+	 * before this returns, but read as the pings are needed. If the log
+	 * is rewritten (by an out-of-order write or a hand edit) while that
+	 * part is being read, the reader may see the log partway through
+	 * the change.
+	 * </p>
+	 * @param from The start of the range, in seconds (inclusive).
+	 * @param to The end of the range, in seconds (exclusive).
+	 */
+	public LogEntryReader entriesBetween(long from, long to) {
+		if(!loaded) {
+			load();
+		}
+		
+		int first = findIndex(from);
+		int last = Math.max(first, findIndex(to));
+		
+		return new RangeReader(from, to, Arrays.copyOfRange(timestamps, first, last),
+					Arrays.copyOfRange(tagOffsets, first, last), tagBytes);
+	}
+	
+	/**
+	 * Records the pings on the given lines, which have just been written
+	 * to the log. The lines don't have to be later than what's already
+	 * been written.
+	 * @param lines One or more lines, as a raw string.
+	 * @see LogLineCodec
+	 */
+	public void linesWritten(String lines) {
+		//anything written before loading will be read from the store
+		if(!loaded || start == Long.MAX_VALUE) {
+			return;
+		}
+		
+		LogLineCodec.Entry entry = new LogLineCodec.Entry();
+		LogGaps.Expander pings = new LogGaps.Expander(trigger);
+		int lineStart = 0;
+		int lineEnd;
+		while(lineStart < lines.length()) {
+			lineEnd = lines.indexOf('\n', lineStart);
+			if(lineEnd < 0) {
+				lineEnd = lines.length();
+			}
+			
+			if(entry.decodeRaw(lines.substring(lineStart, lineEnd))) {
+				pings.start(entry.getTimestamp(), entry.getGapEnd(), entry.getPingCount());
+				while(pings.next()) {
+					add(pings.getTimestamp(), entry.getTags());
+				}
+			}
+			
+			lineStart = lineEnd + 1;
+		}
+	}
+	
+	/**
+	 * Replaces the pings held for the given range of time, because that
+	 * part of the store was changed in some way other than through
+	 * {@link Log} (for instance, by the user editing the log by hand).
+	 * @param from The start of the range, in seconds (inclusive).
+	 * @param to The end of the range, in seconds (exclusive).
+	 * @param lines Every line now in the range, as a raw string, or null
+	 *            to read the range from the store.
+	 * @see PingStore#reload()
+	 */
+	public void rangeChanged(long from, long to, String lines) {
+		if(!loaded || start == Long.MAX_VALUE) {
+			return;
+		}
+		
+		int first = findIndex(Math.max(from, start));
+		int last = Math.max(first, findIndex(to));
+		System.arraycopy(timestamps, last, timestamps, first, size - last);
+		System.arraycopy(tagOffsets, last, tagOffsets, first, size - last);
+		size -= last - first;
+		
+		if(lines != null) {
+			linesWritten(lines);
+			return;
+		}
+		
+		LogEntryReader in = null;
+		try {
+			in = new LogGaps.PingReader(store.scan(from, to), trigger, null);
+			while(in.next()) {
+				if(in.getTimestamp() >= from && in.getTimestamp() < to) {
+					add(in.getTimestamp(), in.getTags());
+				}
+			}
+		} catch(IOException e) {
+			//read everything again later
+			e.printStackTrace();
+			clear();
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+	
+	/**
+	 * Discards everything in memory, so that the log will be read again
+	 * the next time it's needed. Use this if the store changes in some
+	 * way other than through {@link Log}.
+	 */
+	public void clear() {
+		timestamps = new long[1024];
+		tagOffsets = new int[1024];
+		size = 0;
+		clearTags();
+		
+		loaded = false;
+		start = capacity > 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Reads every ping from the store.
+	 */
+	private void load() {
+		loaded = true;
+		if(capacity <= 0) {
+			return;
+		}
+		
+		LogEntryReader in = null;
+		try {
+			in = new LogGaps.PingReader(store.scan(Long.MIN_VALUE, Long.MAX_VALUE),
+						trigger, null);
+			while(in.next()) {
+				add(in.getTimestamp(), in.getTags());
+			}
+		} catch(FileNotFoundException e) {
+			//nothing has been logged yet
+		} catch(IOException e) {
+			//anything that couldn't be read will be read from the store
+			//again later, rather than being left out
+			e.printStackTrace();
+			clear();
+			loaded = true;
+			start = Long.MAX_VALUE;
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+	
+	/**
+	 * Adds a single ping, after any others with the same timestamp.
+	 */
+	private void add(long timestamp, List<String> tags) {
+		if(timestamp < start) {
+			return;
+		}
+		
+		if(size == timestamps.length) {
+			timestamps = Arrays.copyOf(timestamps, size * 2);
+			tagOffsets = Arrays.copyOf(tagOffsets, size * 2);
+		}
+		
+		int index = size == 0 || timestamp >= timestamps[size - 1] ? size
+					: findIndex(timestamp + 1);
+		if(index < size) {
+			System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+			System.arraycopy(tagOffsets, index, tagOffsets, index + 1, size - index);
+		}
+		
+		timestamps[index] = timestamp;
+		tagOffsets[index] = addTags(tags);
+		size++;
+		
+		if(getMemoryUsed() > capacity) {
+			evict();
+		}
+	}
+	
+	/**
+	 * @return The position in <code>tagBytes</code> of the given tags,
+	 *         adding them if they aren't there already.
+	 */
+	private int addTags(List<String> tags) {
+		String joined = join(tags);
+		Integer existing = tagOffsetsByTags.get(joined);
+		if(existing != null) {
+			return existing;
+		}
+		
+		byte[] bytes = joined.getBytes(StandardCharsets.UTF_8);
+		int length = Math.min(bytes.length, 0x7FFF);
+		if(tagBytesSize + length + 2 > tagBytes.length) {
+			tagBytes = Arrays.copyOf(tagBytes,
+						Math.max(tagBytes.length * 2, tagBytesSize + length + 2));
+		}
+		
+		int offset = tagBytesSize;
+		if(length < 0x80) {
+			tagBytes[tagBytesSize++] = (byte) length;
+		} else {
+			tagBytes[tagBytesSize++] = (byte) (0x80 | length >> 8);
+			tagBytes[tagBytesSize++] = (byte) length;
+		}
+		System.arraycopy(bytes, 0, tagBytes, tagBytesSize, length);
+		tagBytesSize += length;
+		
+		tagOffsetsByTags.put(joined, offset);
+		tagSetMemory += TAG_SET_OVERHEAD + joined.length() * 2;
+		return offset;
+	}
+	
+	private void clearTags() {
+		tagBytes = new byte[16384];
+		tagBytesSize = 0;
+		tagOffsetsByTags.clear();
+		tagSetMemory = 0;
+	}
+	
+	/**
+	 * Discards the oldest half of the pings in memory, along with any
+	 * tags only they used.
+	 */
+	private void evict() {
+		int cut = size / 2;
+		while(cut < size && cut > 0 && timestamps[cut] == timestamps[cut - 1]) {
+			cut++;
+		}
+		
+		if(cut >= size) {
+			//everything would have to go
+			clear();
+			loaded = true;
+			start = Long.MAX_VALUE;
+			return;
+		}
+		
+		start = timestamps[cut];
+		
+		int remaining = size - cut;
+		int newLength = Math.max(1024, Integer.highestOneBit(remaining) * 2);
+		long[] oldTimestamps = timestamps;
+		int[] oldTagOffsets = tagOffsets;
+		byte[] oldTagBytes = tagBytes;
+		timestamps = Arrays.copyOfRange(oldTimestamps, cut, cut + newLength);
+		tagOffsets = new int[newLength];
+		size = remaining;
+		
+		//copy over only the tags still in use, into a new array so that
+		//readers of the old one aren't affected
+		clearTags();
+		Map<Integer, Integer> movedOffsets = new HashMap<Integer, Integer>();
+		Integer offset;
+		for(int i = 0; i < remaining; i++) {
+			offset = movedOffsets.get(oldTagOffsets[cut + i]);
+			if(offset == null) {
+				offset = addTags(readTags(oldTagBytes, oldTagOffsets[cut + i]));
+				movedOffsets.put(oldTagOffsets[cut + i], offset);
+			}
+			tagOffsets[i] = offset;
+		}
+	}
+	
+	/**
+	 * @return The index of the first ping at or after the given time.
+	 */
+	private int findIndex(long timestamp) {
+		int low = 0;
+		int high = size;
+		int mid;
+		while(low < high) {
+			mid = (low + high) >>> 1;
+			if(timestamps[mid] < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		
+		return low;
+	}
+	
+	private static String join(List<String> tags) {
+		StringBuilder joined = new StringBuilder();
+		for(String tag : tags) {
+			if(joined.length() > 0) {
+				joined.append(' ');
+			}
+			joined.append(tag);
+		}
+		
+		return joined.toString();
+	}
+	
+	/**
+	 * @return The tags stored at the given offset.
+	 */
+	private static List<String> readTags(byte[] tagBytes, int offset) {
+		int length = tagBytes[offset++];
+		if((length & 0x80) != 0) {
+			length = (length & 0x7F) << 8 | tagBytes[offset++] & 0xFF;
+		}
+		
+		if(length == 0) {
+			return Collections.emptyList();
+		}
+		
+		String joined = new String(tagBytes, offset, length, StandardCharsets.UTF_8);
+		List<String> tags = new ArrayList<String>();
+		int tagStart = 0;
+		int tagEnd;
+		while((tagEnd = joined.indexOf(' ', tagStart)) >= 0) {
+			tags.add(joined.substring(tagStart, tagEnd));
+			tagStart = tagEnd + 1;
+		}
+		tags.add(joined.substring(tagStart));
+		
+		return tags;
+	}
+	
+	/**
+	 * Lists a range of pings, reading the part that's no longer in
+	 * memory from the store first.
+	 */
+	private class RangeReader implements LogEntryReader {
+		/**
+		 * The earliest time to read from the store, and the end of the
+		 * range to read from it (exclusive). These are equal if nothing
+		 * needs to be read from the store.
+		 */
+		private final long storeFrom;
+		private final long storeTo;
+		private LogEntryReader storeIn;
+		private boolean storeDone;
+		
+		/**
+		 * The error from opening the store, which is reported by the
+		 * first call to {@link #next()}.
+		 */
+		private IOException storeFailure;
+		
+		private final long[] rangeTimestamps;
+		private final int[] rangeTagOffsets;
+		private final byte[] rangeTagBytes;
+		private int position = -1;
+		
+		private long timestamp;
+		private List<String> tags;
+		private int tagOffset = -1;
+		
+		public RangeReader(long from, long to, long[] timestamps, int[] tagOffsets,
+					byte[] tagBytes) {
+			storeFrom = from;
+			storeTo = Math.max(from, Math.min(to, start));
+			storeDone = storeFrom >= storeTo;
+			
+			//open the store now, while the caller holds the lock, so
+			//that the store's part of the range starts out consistent
+			//with the part in memory
+			if(!storeDone) {
+				try {
+					storeIn = new LogGaps.PingReader(store.scan(storeFrom, storeTo), trigger,
+								null);
+				} catch(IOException e) {
+					storeFailure = e;
+				}
+			}
+			
+			rangeTimestamps = timestamps;
+			rangeTagOffsets = tagOffsets;
+			rangeTagBytes = tagBytes;
+		}
+		
+		@Override
+		public boolean next() throws IOException {
+			if(!storeDone) {
+				if(nextFromStore()) {
+					return true;
+				}
+				
+				storeDone = true;
+				close();
+			}
+			
+			position++;
+			if(position >= rangeTimestamps.length) {
+				return false;
+			}
+			
+			timestamp = rangeTimestamps[position];
+			if(rangeTagOffsets[position] != tagOffset) {
+				tagOffset = rangeTagOffsets[position];
+				tags = readTags(rangeTagBytes, tagOffset);
+			}
+			
+			return true;
+		}
+		
+		private boolean nextFromStore() throws IOException {
+			if(storeFailure != null) {
+				throw storeFailure;
+			}
+			
+			while(storeIn.next()) {
+				if(storeIn.getTimestamp() >= storeTo) {
+					return false;
+				}
+				
+				if(storeIn.getTimestamp() >= storeFrom) {
+					timestamp = storeIn.getTimestamp();
+					tags = storeIn.getTags();
+					tagOffset = -1;
+					return true;
+				}
+			}
+			
+			return false;
+		}
+		
+		@Override
+		public long getTimestamp() {
+			return timestamp;
+		}
+		
+		@Override
+		public int getPingCount() {
+			return 1;
+		}
+		
+		@Override
+		public long getGapEnd() {
+			return timestamp + 1;
+		}
+		
+		@Override
+		public List<String> getTags() {
+			return tags;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if(storeIn != null) {
+				storeIn.close();
+				storeIn = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * Records how much of a log file is known to be intact, so that after a
+ * crash only the end of the log needs to be checked. The checkpoint is
+ * saved to a small file next to the log, and holds the offset up to
+ * which the log has been verified and a checksum of the bytes just
+ * before it.
+ * </p>
+ * <p>
+ * The checkpoint is moved to the end of the log after every successful
+ * write. Before lines are appended, the end of the data about to be
+ * written is recorded. Before a line is inserted into the middle of the
+ * log (which requires rewriting everything after it), the checkpoint is
+ * moved back to the insertion point, and everything that is about to be
+ * written there is saved along with it. If the rewrite is interrupted,
+ * it can then be completed the next time the log is opened.
+ * </p>
+ * <p>
+ * On startup, {@link #recover()} finishes any interrupted rewrite, and
+ * removes the torn end of any interrupted append, saving it to a
+ * separate file instead. Anything else after the checkpoint, such as
+ * lines added by hand, is left alone. This only depends on the amount
+ * of data after the checkpoint, not on the size of the log.
+ * </p>
+ */
+public class LogCheckpoint {
+	/**
+	 * The number of bytes before the checkpoint that are checksummed.
+	 */
+	public static final int CHECKSUM_WINDOW = 256;
+	
+	private static final int FILE_IDENTIFIER = 0x5454434B;
+	private static final int FILE_VERSION = 3;
+	
+	private final File logFile;
+	private final File checkpointFile;
+	
+	/**
+	 * Whether to sync the checkpoint file after saving it.
+	 */
+	private final boolean sync;
+	
+	private boolean loaded = false;
+	private long offset;
+	private long checksum;
+	
+	/**
+	 * The end of the lines being appended after the checkpoint, or -1 if
+	 * no append is in progress. Everything from the checkpoint up to
+	 * here was written by this program.
+	 */
+	private long writeEnd = -1;
+	
+	/**
+	 * Everything that should follow the checkpoint once the current
+	 * rewrite is finished, or null if no rewrite is in progress.
+	 */
+	private byte[] rewrite;
+	
+	/**
+	 * Loads the checkpoint for the given log, if it has one.
+	 * @param sync Whether to sync the checkpoint to the disk every time
+	 *            it's saved.
+	 */
+	public LogCheckpoint(File logFile, boolean sync) {
+		this.logFile = logFile;
+		this.sync = sync;
+		checkpointFile = new File(logFile.getPath() + ".ckpt");
+		
+		load();
+	}
+	
+	/**
+	 * @return The offset up to which the log has been verified.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * Completes any interrupted rewrite, or removes the incomplete final
+	 * line of any interrupted append. If the log has no checkpoint (or
+	 * was edited such that the checkpoint no longer applies), the log is
+	 * assumed to be intact. Either way, call
+	 * {@link #update(RandomAccessFile)} afterwards.
+	 * @return Whether the log had to be repaired.
+	 */
+	public boolean recover() throws IOException {
+		if(!logFile.exists()) {
+			return false;
+		}
+		
+		RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+		try {
+			long length = file.length();
+			if(!loaded || offset > length || checksum(file, offset) != checksum) {
+				return false;
+			}
+			
+			boolean repaired = false;
+			if(rewrite != null) {
+				file.seek(offset);
+				file.write(rewrite);
+				file.setLength(offset + rewrite.length);
+				file.getFD().sync();
+				length = file.length();
+				
+				System.err.println("Finished an interrupted write to "
+							+ logFile.getName() + ".");
+				repaired = true;
+			}
+			
+			if(writeEnd < 0 || writeEnd <= offset || length - offset > Integer.MAX_VALUE) {
+				return repaired;
+			}
+			
+			byte[] tail = new byte[(int) (length - offset)];
+			file.seek(offset);
+			file.readFully(tail);
+			
+			//an append is complete once its last line break is written
+			int written = (int) Math.min(writeEnd - offset, tail.length);
+			if(written == writeEnd - offset && tail[written - 1] == '\n') {
+				return repaired;
+			}
+			
+			//only the part of the interrupted append after its last line
+			//break is torn; anything after the append is left alone
+			int tornStart = written;
+			while(tornStart > 0 && tail[tornStart - 1] != '\n') {
+				tornStart--;
+			}
+			
+			if(tornStart == written) {
+				return repaired;
+			}
+			
+			//keep a copy of whatever is removed, in case it's needed
+			File recoveredFile = new File(logFile.getPath() + ".recovered");
+			FileOutputStream recoveredOut = new FileOutputStream(recoveredFile, true);
+			try {
+				recoveredOut.write(tail, tornStart, written - tornStart);
+				recoveredOut.write('\n');
+			} finally {
+				recoveredOut.close();
+			}
+			
+			file.seek(offset + tornStart);
+			file.write(tail, written, tail.length - written);
+			file.setLength(length - (written - tornStart));
+			file.getFD().sync();
+			
+			System.err.println("Repaired the end of " + logFile.getName() + " after an"
+						+ " interrupted write. Removed lines were saved to "
+						+ recoveredFile.getName() + ".");
+			
+			return true;
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Moves the checkpoint to the end of the log.
+	 */
+	public void update(RandomAccessFile file) throws IOException {
+		moveTo(file, file.length(), null, -1);
+	}
+	
+	/**
+	 * Records that lines are about to be appended to the log, so that if
+	 * the write is interrupted, only the torn end of those lines will be
+	 * removed. Appends made one after another without an update in
+	 * between are recorded together.
+	 * @param start The current length of the log.
+	 * @param length The number of bytes about to be written.
+	 */
+	public void append(RandomAccessFile file, long start, long length) throws IOException {
+		if(loaded && rewrite == null && writeEnd == start) {
+			writeEnd = start + length;
+			save();
+		} else {
+			moveTo(file, start, null, start + length);
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Moves the checkpoint back to the given offset, in preparation for
+	 * rewriting everything after it.
+	 * </p>
+	 * <p>
+	 * This copies the whole rewrite into the checkpoint file (and syncs
+	 * it, if syncing is on), so an insert costs about twice what the
+	 * rewrite alone would. The copy is as long as the part of the log
+	 * after the insertion point. For a segmented log, that is at most
+	 * the current month, since earlier pings go into the segments.
+	 * Otherwise it's usually short, because backfilled pings go near
+	 * the end of the log. Inserting far back into a long unsegmented log
+	 * copies most of the log.
+	 * </p>
+	 * @param rewrite Everything that will be written starting at the
+	 *            offset, up to the end of the file. This is saved so that
+	 *            the rewrite can be completed if it's interrupted. Like
+	 *            <code>RandomAccessFile.writeBytes()</code>, only the low
+	 *            eight bits of each character are kept.
+	 */
+	public void rewind(RandomAccessFile file, long offset, String rewrite)
+				throws IOException {
+		byte[] bytes = new byte[rewrite.length()];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) rewrite.charAt(i);
+		}
+		
+		moveTo(file, offset, bytes, -1);
+	}
+	
+	private void moveTo(RandomAccessFile file, long offset, byte[] rewrite, long writeEnd)
+				throws IOException {
+		long filePointer = file.getFilePointer();
+		long newChecksum = checksum(file, offset);
+		file.seek(filePointer);
+		
+		//skip saving if the checkpoint is already there
+		if(loaded && this.offset == offset && this.rewrite == null && rewrite == null
+					&& this.writeEnd == writeEnd && checksum == newChecksum) {
+			return;
+		}
+		
+		this.offset = offset;
+		this.rewrite = rewrite;
+		this.writeEnd = writeEnd;
+		checksum = newChecksum;
+		loaded = true;
+		
+		save();
+	}
+	
+	/**
+	 * Calculates the checksum of the <code>CHECKSUM_WINDOW</code> bytes
+	 * before the given offset. This moves the file pointer.
+	 */
+	private static long checksum(RandomAccessFile file, long offset) throws IOException {
+		int length = (int) Math.min(offset, CHECKSUM_WINDOW);
+		byte[] window = new byte[length];
+		file.seek(offset - length);
+		file.readFully(window);
+		
+		CRC32 crc = new CRC32();
+		crc.update(window);
+		return crc.getValue();
+	}
+	
+	/**
+	 * Writes the checkpoint to a temporary file, then moves it into
+	 * place, so that a crash can't leave a torn checkpoint.
+	 */
+	private void save() throws IOException {
+		File tempFile = new File(checkpointFile.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(tempFile);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+		try {
+			out.writeInt(FILE_IDENTIFIER);
+			out.writeInt(FILE_VERSION);
+			out.writeLong(offset);
+			out.writeLong(checksum);
+			out.writeLong(writeEnd);
+			if(rewrite != null) {
+				out.writeInt(rewrite.length);
+				out.write(rewrite);
+			} else {
+				out.writeInt(-1);
+			}
+			out.flush();
+			
+			if(sync) {
+				fileOut.getFD().sync();
+			}
+		} finally {
+			out.close();
+		}
+		
+		LogCompactor.replaceFile(tempFile, checkpointFile);
+	}
+	
+	private void load() {
+		if(!checkpointFile.exists()) {
+			return;
+		}
+		
+		RandomAccessFile in = null;
+		try {
+			in = new RandomAccessFile(checkpointFile, "r");
+			if(in.readInt() != FILE_IDENTIFIER || in.readInt() != FILE_VERSION) {
+				return;
+			}
+			
+			offset = in.readLong();
+			checksum = in.readLong();
+			writeEnd = in.readLong();
+			
+			int rewriteLength = in.readInt();
+			if(rewriteLength >= 0) {
+				rewrite = new byte[rewriteLength];
+				in.readFully(rewrite);
+			}
+			
+			loaded = offset >= 0;
+		} catch(IOException e) {
+			//a torn or unreadable checkpoint is treated as missing
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+}
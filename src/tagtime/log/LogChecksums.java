@@ -0,0 +1,267 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A checksum of each block of a log file, used to find which part of the
+ * log changed when something other than TagTime (usually the user)
+ * edits it. Whoever writes to the log has to call
+ * {@link #update(RandomAccessFile, long)} afterwards, so that TagTime's
+ * own writes aren't mistaken for edits.
+ * </p>
+ * <p>
+ * Comparing each block of the edited file with the recorded checksum
+ * finds the first block that changed. The blocks after the edit have
+ * moved by however much the length changed, so they are compared at
+ * their new positions, working back from the end of the file, to find
+ * the last block that changed. Only the part in between has to be read
+ * again by anything derived from the log.
+ * </p>
+ */
+public class LogChecksums {
+	/**
+	 * The length of each block, in bytes.
+	 */
+	public static final int BLOCK_SIZE = 4096;
+	
+	/**
+	 * The part of a log that changed, widened to whole lines.
+	 */
+	public static class Change {
+		/**
+		 * The position of the first line that changed.
+		 */
+		public final long start;
+		
+		/**
+		 * The end of the changed lines before the change.
+		 */
+		public final long oldEnd;
+		
+		/**
+		 * The end of the changed lines now.
+		 */
+		public final long newEnd;
+		
+		public Change(long start, long oldEnd, long newEnd) {
+			this.start = start;
+			this.oldEnd = oldEnd;
+			this.newEnd = newEnd;
+		}
+	}
+	
+	private final File logFile;
+	
+	/**
+	 * The checksum of each block. The final block may be shorter than
+	 * <code>BLOCK_SIZE</code>.
+	 */
+	private int[] checksums = new int[16];
+	private int size = 0;
+	
+	private long length = 0;
+	private long lastModified = 0;
+	
+	private final CRC32 checksum = new CRC32();
+	private final byte[] buffer = new byte[BLOCK_SIZE * 16];
+	
+	/**
+	 * Records the checksums of the given log as it is now.
+	 */
+	public LogChecksums(File logFile) throws IOException {
+		this.logFile = logFile;
+		
+		if(logFile.exists()) {
+			RandomAccessFile file = new RandomAccessFile(logFile, "r");
+			try {
+				update(file, 0);
+			} finally {
+				file.close();
+			}
+		}
+	}
+	
+	/**
+	 * @return Whether the log has the same length and modification time
+	 *         as when it was last checked. If so, it's assumed not to have
+	 *         changed.
+	 */
+	public boolean isCurrent() {
+		return logFile.length() == length && logFile.lastModified() == lastModified;
+	}
+	
+	/**
+	 * Records the checksums of every block from the one containing the
+	 * given position to the end of the log, after the log was written to
+	 * from that position on.
+	 * @param file The log, open for reading.
+	 */
+	public void update(RandomAccessFile file, long from) throws IOException {
+		int firstBlock = (int) (Math.min(from, length) / BLOCK_SIZE);
+		length = file.length();
+		size = (int) ((length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		if(size > checksums.length) {
+			checksums = Arrays.copyOf(checksums, Math.max(size, checksums.length * 2));
+		}
+		
+		//read several blocks at a time
+		long position = (long) firstBlock * BLOCK_SIZE;
+		int read;
+		for(int block = firstBlock; block < size; position += read) {
+			read = (int) Math.min(buffer.length, length - position);
+			file.seek(position);
+			file.readFully(buffer, 0, read);
+			
+			for(int offset = 0; offset < read; offset += BLOCK_SIZE) {
+				checksums[block++] = checksum(buffer, offset,
+							Math.min(BLOCK_SIZE, read - offset));
+			}
+		}
+		
+		lastModified = logFile.lastModified();
+	}
+	
+	/**
+	 * Compares the log with the recorded checksums, then records the new
+	 * checksums. The log must exist.
+	 * @return The part of the log that changed, or null if nothing did.
+	 */
+	public Change findChange() throws IOException {
+		long oldLength = length;
+		int[] oldChecksums = Arrays.copyOf(checksums, size);
+		
+		RandomAccessFile file = new RandomAccessFile(logFile, "r");
+		try {
+			update(file, 0);
+			
+			//find the first block that's different
+			int first = 0;
+			int commonBlocks = Math.min(oldChecksums.length, size);
+			while(first < commonBlocks && oldChecksums[first] == checksums[first]
+						&& getBlockLength(first, oldLength) == getBlockLength(first, length)) {
+				first++;
+			}
+			
+			if(first == commonBlocks && oldLength == length) {
+				return null;
+			}
+			
+			long start = (long) first * BLOCK_SIZE;
+			
+			//find the last block that's different, allowing for the blocks
+			//after the edit having moved
+			long shift = length - oldLength;
+			int last = oldChecksums.length - 1;
+			int blockLength;
+			while(last > first && (long) last * BLOCK_SIZE + shift >= start) {
+				blockLength = getBlockLength(last, oldLength);
+				if(shift % BLOCK_SIZE == 0) {
+					//the block is still aligned, so its checksum is known
+					int movedBlock = last + (int) (shift / BLOCK_SIZE);
+					if(checksums[movedBlock] != oldChecksums[last]
+								|| getBlockLength(movedBlock, length) != blockLength) {
+						break;
+					}
+				} else {
+					file.seek((long) last * BLOCK_SIZE + shift);
+					file.readFully(buffer, 0, blockLength);
+					if(checksum(buffer, 0, blockLength) != oldChecksums[last]) {
+						break;
+					}
+				}
+				last--;
+			}
+			
+			long oldEnd = Math.min(oldLength, (long) (last + 1) * BLOCK_SIZE);
+			
+			//widen the change to whole lines
+			start = findLineStart(file, start);
+			long newEnd = findLineEnd(file, Math.max(oldEnd + shift, start));
+			return new Change(start, newEnd - shift, newEnd);
+		} finally {
+			file.close();
+		}
+	}
+	
+	private static int getBlockLength(int block, long length) {
+		return (int) Math.min(BLOCK_SIZE, length - (long) block * BLOCK_SIZE);
+	}
+	
+	private int checksum(byte[] bytes, int offset, int length) {
+		checksum.reset();
+		checksum.update(bytes, offset, length);
+		return (int) checksum.getValue();
+	}
+	
+	/**
+	 * @return The start of the line containing the given position.
+	 */
+	private long findLineStart(RandomAccessFile file, long position) throws IOException {
+		while(position > 0) {
+			int length = (int) Math.min(buffer.length, position);
+			file.seek(position - length);
+			file.readFully(buffer, 0, length);
+			for(int i = length - 1; i >= 0; i--) {
+				if(buffer[i] == '\n') {
+					return position - length + i + 1;
+				}
+			}
+			position -= length;
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * @return The end of the line containing the given position
+	 *         (including the line break), or the given position if it's
+	 *         the start of a line.
+	 */
+	private long findLineEnd(RandomAccessFile file, long position) throws IOException {
+		if(position == 0) {
+			return 0;
+		}
+		
+		//start from the last byte before the position, in case it's the
+		//end of a line
+		position--;
+		long fileLength = file.length();
+		while(position < fileLength) {
+			int length = (int) Math.min(buffer.length, fileLength - position);
+			file.seek(position);
+			file.readFully(buffer, 0, length);
+			for(int i = 0; i < length; i++) {
+				if(buffer[i] == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += length;
+		}
+		
+		return fileLength;
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically folds each log's overflow segment back into the log
+ * itself. The log and overflow are merged in a single sequential pass
+ * into a temporary file, which then replaces the log with an atomic
+ * rename, so a crash at any point leaves either the old files or the
+ * new one, never a partial mix. Segmented logs also have any finished
+ * months moved into their segments at the same time.
+ * <p>
+ * The overflow is renamed out of the way while it's merged, and only
+ * deleted once the log has been replaced. Whether the temporary file
+ * still exists then tells {@link #recover(File)} which side of the
+ * replacement a crash happened on, so the overflow's pings are never
+ * lost or written to the log twice.
+ * </p>
+ * @see MergedLogReader
+ * @see LogSegments
+ */
+public class LogCompactor {
+	/**
+	 * The time between compactions, in minutes.
+	 */
+	public static final int INTERVAL = 15;
+	
+	/**
+	 * Compacts every log. This uses a single daemon thread, so it won't
+	 * keep the program running.
+	 */
+	private static final ScheduledExecutorService EXECUTOR =
+				Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Log compactor");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	
+	private LogCompactor() {
+	}
+	
+	/**
+	 * Starts compacting the given log every <code>INTERVAL</code>
+	 * minutes, beginning right away.
+	 */
+	public static void schedule(final TextPingStore store) {
+		EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					store.compactOverflow();
+					store.sealSegments();
+				} catch(RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}, 0, INTERVAL, TimeUnit.MINUTES);
+	}
+	
+	/**
+	 * @return The location of the given log's overflow segment while
+	 *         it's being merged into the log.
+	 */
+	private static File getMergingFile(File logFile) {
+		return new File(MergedLogReader.getOverflowFile(logFile).getPath() + ".merging");
+	}
+	
+	/**
+	 * @return The location of the merged log before it replaces the log.
+	 */
+	private static File getTempFile(File logFile) {
+		return new File(logFile.getPath() + ".compact");
+	}
+	
+	/**
+	 * Merges the given log and its overflow segment, then replaces the
+	 * log with the result and deletes the overflow. The caller must
+	 * ensure that nothing writes to either file in the meantime.
+	 * @return Whether anything was compacted.
+	 */
+	static boolean compact(File logFile) throws IOException {
+		recover(logFile);
+		
+		File overflowFile = MergedLogReader.getOverflowFile(logFile);
+		if(!overflowFile.exists()) {
+			return false;
+		}
+		
+		File tempFile = getTempFile(logFile);
+		File mergingFile = getMergingFile(logFile);
+		
+		//the temporary file has to exist before the overflow is renamed,
+		//so that recover() can tell the log hasn't been replaced yet
+		FileOutputStream fileOut = new FileOutputStream(tempFile);
+		Writer out = new BufferedWriter(new OutputStreamWriter(fileOut,
+					StandardCharsets.ISO_8859_1), 65536);
+		try {
+			replaceFile(overflowFile, mergingFile);
+			
+			MergedLogReader in = new MergedLogReader(logFile, mergingFile);
+			try {
+				String line;
+				while((line = in.readLine()) != null) {
+					out.write(line);
+					out.write('\n');
+				}
+			} finally {
+				in.close();
+			}
+			
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			out.close();
+		}
+		
+		replaceFile(tempFile, logFile);
+		
+		//the overflow's contents are now safely in the log
+		delete(mergingFile);
+		return true;
+	}
+	
+	/**
+	 * Finishes or undoes a compaction that was interrupted by a crash.
+	 * If the log was already replaced, the leftover overflow is deleted,
+	 * since its pings are in the log. Otherwise it's put back, to be
+	 * merged again later.
+	 */
+	static void recover(File logFile) throws IOException {
+		File tempFile = getTempFile(logFile);
+		File mergingFile = getMergingFile(logFile);
+		
+		if(mergingFile.exists()) {
+			if(tempFile.exists()) {
+				//nothing can be written to the overflow between a crash
+				//and this, so there is nothing there to overwrite
+				replaceFile(mergingFile, MergedLogReader.getOverflowFile(logFile));
+			} else {
+				delete(mergingFile);
+			}
+		}
+		
+		if(tempFile.exists()) {
+			delete(tempFile);
+		}
+	}
+	
+	private static void delete(File file) throws IOException {
+		if(!file.delete()) {
+			throw new IOException("Unable to delete " + file);
+		}
+	}
+	
+	/**
+	 * Replaces one file with another, atomically if the file system
+	 * allows it.
+	 */
+	static void replaceFile(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+/**
+ * How hard the log writer works to make sure entries survive a crash or
+ * power failure.
+ * @see tagtime.settings.SettingType#LOG_DURABILITY
+ */
+public enum LogDurability {
+	/**
+	 * Entries are written, but the operating system decides when they
+	 * actually reach the disk. This is the fastest option, but a power
+	 * failure can lose the last few seconds of entries.
+	 */
+	NONE,
+	
+	/**
+	 * Each batch of entries is synced to the disk after being written.
+	 * Entries that arrive together share a single sync.
+	 */
+	BATCH,
+	
+	/**
+	 * Every entry is synced to the disk individually. This is the
+	 * slowest option.
+	 */
+	ENTRY;
+	
+	/**
+	 * Looks up a durability level by name, ignoring case.
+	 * @param name The name of the level. If this is null or empty, the
+	 *            default (BATCH) will be returned.
+	 * @throws IllegalArgumentException If the name doesn't match any
+	 *             level.
+	 */
+	public static LogDurability fromName(String name) {
+		if(name == null || name.trim().equals("")) {
+			return BATCH;
+		}
+		
+		return valueOf(name.trim().toUpperCase());
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the entries of a log in order, regardless of how the log is
+ * stored. Lines that aren't entries are skipped.
+ * @see TextLogReader
+ * @see BinaryLogReader
+ */
+public interface LogEntryReader extends Closeable {
+	/**
+	 * Moves to the next entry.
+	 * @return False if there are no more entries.
+	 */
+	public boolean next() throws IOException;
+	
+	/**
+	 * @return The timestamp of the current entry, in seconds.
+	 */
+	public long getTimestamp();
+	
+	/**
+	 * @return The number of pings the current entry stands for. This is
+	 *         1 unless the entry is a gap record.
+	 * @see LogGaps
+	 */
+	public int getPingCount();
+	
+	/**
+	 * @return The end of the range of pings covered by the current entry,
+	 *         in seconds (exclusive). Unless the entry is a gap record,
+	 *         this is one more than its timestamp.
+	 */
+	public long getGapEnd();
+	
+	/**
+	 * @return The tags of the current entry, including "RETRO" if
+	 *         present. This list is only valid until the next call to
+	 *         {@link #next()}.
+	 */
+	public List<String> getTags();
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import tagtime.quartz.RandomizedTrigger;
+import tagtime.util.ITagMatcher;
+
+/**
+ * <p>
+ * Gap records stand for a run of consecutive pings that all have the
+ * same tags, such as the pings missed while TagTime wasn't running.
+ * Instead of one line per ping, a gap record is a single line giving the
+ * first ping's timestamp, the tags, and (after the human-readable time)
+ * the number of pings and the end of their range:
+ * </p>
+ * 
+ * <pre>
+ * 1330000000 afk off RETRO                               [Feb 23, 2012, 12:26:40 PM, 512 pings until 1331382000]
+ * </pre>
+ * <p>
+ * The individual pings are the ones the schedule gives for that range,
+ * so readers can recreate them with {@link Expander} (or list every
+ * ping in a log with {@link PingReader}), or skip them entirely when the
+ * tags don't matter. Versions of TagTime from before gap records read
+ * each one as a single ping. To convert a log back to one line per ping,
+ * use {@link #export(File, File, RandomizedTrigger)}.
+ * </p>
+ */
+public class LogGaps {
+	/**
+	 * The shortest run of pings worth recording as a gap.
+	 */
+	public static final int MIN_PINGS = 4;
+	
+	/**
+	 * Lists the pings in a gap record, using the schedule to find when
+	 * each one happened. If the schedule no longer matches the record
+	 * (for instance, because the user changed their average gap), the
+	 * pings are spaced evenly through the record's range instead. Times
+	 * are adjusted so that no two pings share a second, just as they
+	 * would have been when logged.
+	 */
+	public static class Expander {
+		private final RandomizedTrigger trigger;
+		
+		private long first;
+		private long end;
+		private int pingCount;
+		
+		/**
+		 * The schedule index of the first ping, or -1 if the pings are
+		 * being spaced evenly.
+		 */
+		private long firstIndex;
+		private int position;
+		
+		private long timestamp;
+		private long timestampMillis;
+		
+		/**
+		 * @param trigger The schedule the pings came from. If this is
+		 *            null, pings are always spaced evenly.
+		 */
+		public Expander(RandomizedTrigger trigger) {
+			this.trigger = trigger;
+		}
+		
+		/**
+		 * Starts listing the pings in a range.
+		 * @param first The timestamp of the first ping, in seconds.
+		 * @param end The end of the range, in seconds (exclusive).
+		 * @param pingCount The number of pings in the range. If this is
+		 *            1, only <code>first</code> is listed.
+		 */
+		public void start(long first, long end, int pingCount) {
+			this.first = first;
+			this.end = end;
+			this.pingCount = pingCount;
+			position = 0;
+			timestamp = first - 1;
+			
+			firstIndex = -1;
+			if(pingCount > 1 && trigger != null) {
+				long index = trigger.nextFireTimeIndex(first * 1000 - 1);
+				if(trigger.fireTimeMillisAt(index) / 1000 == first
+							&& trigger.fireTimeMillisAt(index + pingCount - 1) < end * 1000) {
+					firstIndex = index;
+				}
+			}
+		}
+		
+		/**
+		 * Moves to the next ping.
+		 * @return False if there are no more pings in the range.
+		 */
+		public boolean next() {
+			if(position >= pingCount) {
+				return false;
+			}
+			
+			long time;
+			if(position == 0) {
+				time = firstIndex >= 0 ? trigger.fireTimeMillisAt(firstIndex) : first * 1000;
+			} else if(firstIndex >= 0) {
+				time = trigger.fireTimeMillisAt(firstIndex + position);
+			} else {
+				time = (first + (end - 1 - first) * position / (pingCount - 1)) * 1000;
+			}
+			position++;
+			
+			//as in Log.log(), don't let two pings share a timestamp
+			long seconds = time / 1000;
+			if(seconds <= timestamp) {
+				time += (timestamp + 1 - seconds) * 1000;
+				seconds = timestamp + 1;
+			}
+			
+			timestamp = seconds;
+			timestampMillis = time;
+			return true;
+		}
+		
+		/**
+		 * @return The timestamp of the current ping, in seconds.
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+		
+		/**
+		 * @return The time of the current ping, in milliseconds. This is
+		 *         the time shown in the human-readable part of a line.
+		 */
+		public long getTimestampMillis() {
+			return timestampMillis;
+		}
+	}
+	
+	/**
+	 * Lists the individual pings in a log, expanding gap records with an
+	 * {@link Expander}. A ping logged later (such as one answered late)
+	 * can fall within the range of a gap record written before it, so
+	 * the pings from each record are merged, keeping them in order.
+	 */
+	public static class PingReader implements LogEntryReader {
+		private final LogEntryReader in;
+		private final RandomizedTrigger trigger;
+		private final ITagMatcher tagMatcher;
+		
+		/**
+		 * The records whose pings haven't all been listed yet, ordered by
+		 * their next ping.
+		 */
+		private final PriorityQueue<Run> runs = new PriorityQueue<Run>();
+		private final List<Run> spareRuns = new ArrayList<Run>();
+		private long runsStarted = 0;
+		
+		private boolean started = false;
+		private boolean hasNextEntry;
+		
+		private Run current;
+		
+		/**
+		 * @param trigger The schedule the pings came from. See
+		 *            {@link Expander}.
+		 * @param tagMatcher If this isn't null, gap records whose tags
+		 *            it doesn't accept are listed as a single ping, since
+		 *            their individual pings wouldn't matter.
+		 */
+		public PingReader(LogEntryReader in, RandomizedTrigger trigger,
+					ITagMatcher tagMatcher) {
+			this.in = in;
+			this.trigger = trigger;
+			this.tagMatcher = tagMatcher;
+		}
+		
+		@Override
+		public boolean next() throws IOException {
+			if(current != null) {
+				if(current.pings.next()) {
+					runs.add(current);
+				} else {
+					spareRuns.add(current);
+				}
+				current = null;
+			}
+			
+			if(!started) {
+				started = true;
+				hasNextEntry = in.next();
+			}
+			
+			//start on any records that begin before the next ping
+			while(hasNextEntry && (runs.isEmpty()
+						|| runs.peek().pings.getTimestamp() > in.getTimestamp())) {
+				startRun();
+				hasNextEntry = in.next();
+			}
+			
+			current = runs.poll();
+			return current != null;
+		}
+		
+		private void startRun() {
+			Run run = spareRuns.isEmpty() ? new Run(trigger)
+						: spareRuns.remove(spareRuns.size() - 1);
+			
+			run.tags.clear();
+			run.tags.addAll(in.getTags());
+			run.accepted = tagMatcher == null || tagMatcher.matchesTags(run.tags);
+			run.order = runsStarted++;
+			
+			if(run.accepted) {
+				run.pings.start(in.getTimestamp(), in.getGapEnd(), in.getPingCount());
+			} else {
+				run.pings.start(in.getTimestamp(), in.getTimestamp() + 1, 1);
+			}
+			run.pings.next();
+			
+			runs.add(run);
+		}
+		
+		@Override
+		public long getTimestamp() {
+			return current.pings.getTimestamp();
+		}
+		
+		@Override
+		public int getPingCount() {
+			return 1;
+		}
+		
+		@Override
+		public long getGapEnd() {
+			return current.pings.getTimestamp() + 1;
+		}
+		
+		@Override
+		public List<String> getTags() {
+			return current.tags;
+		}
+		
+		/**
+		 * @return Whether the tag matcher accepted the current ping's
+		 *         tags. This is always true if there is no tag matcher.
+		 */
+		public boolean isAccepted() {
+			return current.accepted;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+	
+	/**
+	 * The pings from a single line of the log.
+	 */
+	private static class Run implements Comparable<Run> {
+		public final Expander pings;
+		public final List<String> tags = new ArrayList<String>();
+		public boolean accepted;
+		
+		/**
+		 * When this run was started, so that pings with the same
+		 * timestamp stay in the order they were logged.
+		 */
+		public long order;
+		
+		public Run(RandomizedTrigger trigger) {
+			pings = new Expander(trigger);
+		}
+		
+		@Override
+		public int compareTo(Run other) {
+			if(pings.getTimestamp() != other.pings.getTimestamp()) {
+				return pings.getTimestamp() < other.pings.getTimestamp() ? -1 : 1;
+			}
+			
+			return order < other.order ? -1 : order == other.order ? 0 : 1;
+		}
+	}
+	
+	private LogGaps() {
+	}
+	
+	/**
+	 * Copies a log, replacing each gap record with one line per ping,
+	 * exactly as versions of TagTime from before gap records would have
+	 * written them. Everything else is copied unchanged, including any
+	 * entries in the overflow segment.
+	 * @param trigger The schedule the pings came from. See
+	 *            {@link Expander}.
+	 */
+	public static void export(File logFile, File target, RandomizedTrigger trigger)
+				throws IOException {
+		LogLineCodec codec = LogLineCodec.get();
+		LogLineCodec.Entry entry = new LogLineCodec.Entry();
+		Expander expander = new Expander(trigger);
+		
+		MergedLogReader in = new MergedLogReader(logFile);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(target), 65536);
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				if(!entry.decodeRaw(line) || entry.getPingCount() <= 1) {
+					for(int i = 0; i < line.length(); i++) {
+						out.write(line.charAt(i));
+					}
+					out.write('\n');
+					continue;
+				}
+				
+				String data = getData(line);
+				expander.start(entry.getTimestamp(), entry.getGapEnd(), entry.getPingCount());
+				while(expander.next()) {
+					ByteBuffer expanded = codec.encode(expander.getTimestamp(),
+								expander.getTimestampMillis(), data);
+					out.write(expanded.array(), expanded.position(), expanded.remaining());
+				}
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+	
+	/**
+	 * @return The data logged on the given line (a raw string), without
+	 *         the timestamp, padding or human-readable time.
+	 */
+	private static String getData(String line) {
+		int start = line.indexOf(' ') + 1;
+		int end = line.lastIndexOf('[');
+		while(end > start && line.charAt(end - 1) == ' ') {
+			end--;
+		}
+		
+		byte[] bytes = line.substring(start, end).getBytes(StandardCharsets.ISO_8859_1);
+		try {
+			return StandardCharsets.UTF_8.newDecoder()
+						.onMalformedInput(CodingErrorAction.REPORT)
+						.onUnmappableCharacter(CodingErrorAction.REPORT)
+						.decode(ByteBuffer.wrap(bytes)).toString();
+		} catch(CharacterCodingException e) {
+			//written by an older version
+			return new String(bytes, StandardCharsets.ISO_8859_1);
+		}
+	}
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A sparse index of a log file, mapping timestamps to the byte offsets
+ * of the lines containing them. Roughly one line in every
+ * <code>INTERVAL</code> bytes is indexed, so the index stays tiny even
+ * for a log covering many years.
+ * </p>
+ * <p>
+ * The index is stored next to the log file. It records the length of
+ * the log it describes; if the log's length doesn't match (for
+ * instance, because the user edited it, or TagTime was closed before
+ * the index was saved), the index is rebuilt by reading the log once.
+ * </p>
+ * <p>
+ * This class is not thread-safe; {@link TextPingStore} only uses it
+ * while holding its own lock.
+ * </p>
+ */
+public class LogIndex {
+	/**
+	 * The approximate number of bytes between indexed lines.
+	 */
+	public static final int INTERVAL = 4096;
+	
+	private static final int FILE_IDENTIFIER = 0x5454494C;
+	private static final int FILE_VERSION = 1;
+	
+	private final File logFile;
+	private final File indexFile;
+	
+	/**
+	 * The timestamp (in seconds) of each indexed line, in order.
+	 */
+	private long[] timestamps = new long[16];
+	
+	/**
+	 * The byte offset of the start of each indexed line.
+	 */
+	private long[] offsets = new long[16];
+	
+	private int size = 0;
+	
+	/**
+	 * The length of the log file when this index was last updated.
+	 */
+	private long logLength = 0;
+	
+	/**
+	 * Whether lines have been written since the index was last saved.
+	 */
+	private boolean unsaved = false;
+	
+	/**
+	 * Loads the index for the given log, rebuilding it if it's missing or
+	 * out of date.
+	 */
+	public LogIndex(File logFile) {
+		this.logFile = logFile;
+		indexFile = new File(logFile.getPath() + ".idx");
+		
+		if(!load() || logLength != logFile.length()) {
+			rebuild();
+		}
+	}
+	
+	/**
+	 * @return The number of indexed lines.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Finds a position from which to search for the place to insert the
+	 * given timestamp. Every line before the returned offset has an
+	 * earlier timestamp (assuming the log is in order), so the caller
+	 * only needs to scan forward from there.
+	 * @param timestamp The timestamp, in seconds.
+	 * @return The offset of the last indexed line with an earlier
+	 *         timestamp, or 0 if there is none.
+	 */
+	public long findOffsetBefore(long timestamp) {
+		//find the first indexed line at or after the timestamp
+		int low = 0;
+		int high = size;
+		int mid;
+		while(low < high) {
+			mid = (low + high) >>> 1;
+			if(timestamps[mid] < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		
+		return low > 0 ? offsets[low - 1] : 0;
+	}
+	
+	/**
+	 * Records that a line was written to the log.
+	 * @param offset The offset at which the line was written. If this
+	 *            is before the end of the file, the line is assumed to
+	 *            have been inserted there, pushing every later line back.
+	 * @param timestamp The line's timestamp, in seconds.
+	 * @param length The length of the line in bytes, including the line
+	 *            break.
+	 */
+	public void lineWritten(long offset, long timestamp, int length) {
+		if(offset < logLength) {
+			//shift everything after the insertion point
+			for(int i = size - 1; i >= 0 && offsets[i] >= offset; i--) {
+				offsets[i] += length;
+			}
+		} else if(size == 0 || offset - offsets[size - 1] >= INTERVAL) {
+			add(timestamp, offset);
+		}
+		
+		logLength += length;
+		unsaved = true;
+	}
+	
+	/**
+	 * Records that everything from the given offset to the end of the
+	 * log was rewritten (for instance, to merge in a block of earlier
+	 * pings). Lines before the offset keep their entries, and the new
+	 * lines are indexed from the given text, without reading the log.
+	 * @param start The offset at which the rewrite began, which must be
+	 *            the start of a line.
+	 * @param oldLength The length of the log before the rewrite.
+	 * @param lines Everything written from <code>start</code> onward.
+	 */
+	public void tailRewritten(long start, long oldLength, String lines) {
+		//an index that didn't match the log before the rewrite can't be
+		//patched
+		if(logLength != oldLength) {
+			rebuild();
+			return;
+		}
+		
+		while(size > 0 && offsets[size - 1] >= start) {
+			size--;
+		}
+		
+		try {
+			logLength = readLines(new ByteArrayInputStream(
+						lines.getBytes(StandardCharsets.ISO_8859_1)), start, Long.MAX_VALUE);
+			unsaved = true;
+		} catch(IOException e) {
+			//not possible when reading from memory
+			rebuild();
+		}
+	}
+	
+	/**
+	 * Writes the index to its file, if lines have been written since it
+	 * was last saved.
+	 * @see #save()
+	 */
+	public void saveChanges() {
+		if(unsaved) {
+			save();
+		}
+	}
+	
+	/**
+	 * Writes the index to its file. If this fails, the index will simply
+	 * be rebuilt next time.
+	 */
+	public void save() {
+		unsaved = false;
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(indexFile)));
+			out.writeInt(FILE_IDENTIFIER);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(INTERVAL);
+			out.writeLong(logLength);
+			out.writeInt(size);
+			for(int i = 0; i < size; i++) {
+				out.writeLong(timestamps[i]);
+				out.writeLong(offsets[i]);
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+	
+	/**
+	 * Rebuilds the index by reading the entire log, then saves it.
+	 */
+	public void rebuild() {
+		size = 0;
+		logLength = 0;
+		
+		if(logFile.exists()) {
+			InputStream in = null;
+			try {
+				in = new BufferedInputStream(new FileInputStream(logFile), 65536);
+				logLength = readLines(in, 0, Long.MAX_VALUE);
+			} catch(IOException e) {
+				e.printStackTrace();
+				size = 0;
+				logLength = -1;
+			} finally {
+				if(in != null) {
+					try {
+						in.close();
+					} catch(IOException e) {}
+				}
+			}
+		}
+		
+		save();
+	}
+	
+	/**
+	 * Updates the index after part of the log was replaced (for instance,
+	 * by the user editing it), then saves it. Lines before the change
+	 * keep their offsets, lines after it are moved by the change in
+	 * length, and only the lines in between are read.
+	 * @param start The start of the first line that changed.
+	 * @param oldEnd The end of the changed lines before the change.
+	 * @param newEnd The end of the changed lines now.
+	 * @see LogChecksums
+	 */
+	public void rangeChanged(long start, long oldEnd, long newEnd) {
+		long shift = newEnd - oldEnd;
+		
+		//an index that didn't match the log before the change can't be
+		//patched
+		if(logLength != logFile.length() - shift) {
+			rebuild();
+			return;
+		}
+		
+		//set aside the lines after the change
+		int first = 0;
+		while(first < size && offsets[first] < start) {
+			first++;
+		}
+		int last = first;
+		while(last < size && offsets[last] < oldEnd) {
+			last++;
+		}
+		long[] laterTimestamps = Arrays.copyOfRange(timestamps, last, size);
+		long[] laterOffsets = Arrays.copyOfRange(offsets, last, size);
+		size = first;
+		
+		InputStream in = null;
+		try {
+			FileInputStream fileIn = new FileInputStream(logFile);
+			fileIn.getChannel().position(start);
+			in = new BufferedInputStream(fileIn, 65536);
+			readLines(in, start, newEnd);
+		} catch(IOException e) {
+			e.printStackTrace();
+			rebuild();
+			return;
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) {}
+			}
+		}
+		
+		for(int i = 0; i < laterOffsets.length; i++) {
+			add(laterTimestamps[i], laterOffsets[i] + shift);
+		}
+		
+		logLength += shift;
+		save();
+	}
+	
+	/**
+	 * Indexes the lines read from the given stream, which must be at the
+	 * start of a line.
+	 * @param position The position of the stream in the log.
+	 * @param end The position at which to stop.
+	 * @return The position reached.
+	 */
+	private long readLines(InputStream in, long position, long end) throws IOException {
+		long lineStart = position;
+		long timestamp = 0;
+		boolean parsingTimestamp = true;
+		boolean timestampFound = false;
+		int b;
+		while(position < end && (b = in.read()) >= 0) {
+			position++;
+			
+			if(b == '\n') {
+				if(timestampFound && (size == 0
+							|| lineStart - offsets[size - 1] >= INTERVAL)) {
+					add(timestamp, lineStart);
+				}
+				
+				lineStart = position;
+				timestamp = 0;
+				parsingTimestamp = true;
+				timestampFound = false;
+			} else if(parsingTimestamp) {
+				//only lines starting with a number followed by a
+				//space are log entries
+				if(b >= '0' && b <= '9') {
+					timestamp = timestamp * 10 + (b - '0');
+				} else {
+					timestampFound = b == ' ' && position - lineStart > 1;
+					parsingTimestamp = false;
+				}
+			}
+		}
+		
+		return position;
+	}
+	
+	private void add(long timestamp, long offset) {
+		if(size == timestamps.length) {
+			timestamps = Arrays.copyOf(timestamps, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		
+		timestamps[size] = timestamp;
+		offsets[size] = offset;
+		size++;
+	}
+	
+	/**
+	 * Reads the index from its file.
+	 * @return Whether the file was read successfully.
+	 */
+	private boolean load() {
+		if(!indexFile.exists()) {
+			return false;
+		}
+		
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(indexFile)));
+			if(in.readInt() != FILE_IDENTIFIER
+						|| in.readInt() != FILE_VERSION
+						|| in.readInt() != INTERVAL) {
+				return false;
+			}
+			
+			logLength = in.readLong();
+			int count = in.readInt();
+			size = 0;
+			for(int i = 0; i < count; i++) {
+				add(in.readLong(), in.readLong());
+			}
+			
+			return true;
+		} catch(IOException e) {
+			size = 0;
+			return false;
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+}
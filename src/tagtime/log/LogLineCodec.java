@@ -0,0 +1,605 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>
+ * Converts between log entries and the lines of the text log. Lines are
+ * encoded as UTF-8, and are built in a reusable buffer, so formatting a
+ * line doesn't allocate anything once the buffer is large enough.
+ * </p>
+ * <p>
+ * Code that copies lines around without parsing them (for instance,
+ * when inserting a line into the middle of the log) handles them as raw
+ * strings, with one char for each byte, as returned by
+ * <code>RandomAccessFile.readLine()</code> and expected by
+ * <code>writeBytes()</code>. This keeps the bytes intact no matter what
+ * they encode.
+ * </p>
+ * <p>
+ * Older versions of TagTime wrote only the low byte of each character.
+ * When a line isn't valid UTF-8, it is decoded as ISO-8859-1 instead,
+ * which recovers those characters (as long as they were below 256).
+ * </p>
+ * <p>
+ * Codecs aren't thread-safe; use {@link #get()} to get the current
+ * thread's codec.
+ * </p>
+ * @see Entry
+ */
+public final class LogLineCodec {
+	/**
+	 * Timestamps and tags are padded with spaces to this many characters,
+	 * so that the human-readable dates line up.
+	 */
+	public static final int PADDED_LENGTH = 55;
+	
+	/**
+	 * Separates the number of pings in a gap record from the end of its
+	 * range.
+	 */
+	private static final String GAP_SEPARATOR = " pings until ";
+	
+	private static final ThreadLocal<LogLineCodec> INSTANCES = new ThreadLocal<LogLineCodec>() {
+		@Override
+		protected LogLineCodec initialValue() {
+			return new LogLineCodec();
+		}
+	};
+	
+	/**
+	 * The date format used when none is specified. This is created on
+	 * first use, using the default locale and time zone at that time.
+	 */
+	private DateFormat defaultDateFormat = null;
+	
+	private ByteBuffer buffer = ByteBuffer.allocate(256);
+	private final Date date = new Date();
+	private final StringBuffer dateText = new StringBuffer(64);
+	private final FieldPosition fieldPosition = new FieldPosition(0);
+	
+	private LogLineCodec() {
+	}
+	
+	/**
+	 * @return The codec for the current thread.
+	 */
+	public static LogLineCodec get() {
+		return INSTANCES.get();
+	}
+	
+	/**
+	 * Encodes a line of the log, using the default date format.
+	 * @see #encode(long, long, CharSequence, DateFormat)
+	 */
+	public ByteBuffer encode(long timestampInSeconds, long timestamp, CharSequence data) {
+		return encode(timestampInSeconds, timestamp, data, getDefaultDateFormat());
+	}
+	
+	/**
+	 * Encodes a line of the log, including the line break.
+	 * @param timestampInSeconds The timestamp at the start of the line.
+	 * @param timestamp The time to show in human-readable form, in
+	 *            milliseconds.
+	 * @param data The tags and any other data to record.
+	 * @param dateFormat Used for the human-readable time. This must not
+	 *            be in use by another thread.
+	 * @return A buffer containing the line, from its position to its
+	 *         limit. The buffer is reused, so its contents are only
+	 *         valid until this codec is next used.
+	 */
+	public ByteBuffer encode(long timestampInSeconds, long timestamp, CharSequence data,
+				DateFormat dateFormat) {
+		return encode(timestampInSeconds, timestamp, data, dateFormat, 1, 0);
+	}
+	
+	/**
+	 * Encodes a gap record, using the default date format, and appends
+	 * it to the given builder as a raw string.
+	 * @param timestampInSeconds The timestamp of the first ping.
+	 * @param timestamp The time of the first ping in milliseconds, to
+	 *            show in human-readable form.
+	 * @param end The end of the range of pings, in seconds (exclusive).
+	 * @param pingCount The number of pings in the range.
+	 * @param data The tags shared by every ping in the range.
+	 * @return The length of the line in bytes.
+	 * @see LogGaps
+	 */
+	public int encodeGapRaw(StringBuilder out, long timestampInSeconds, long timestamp,
+				long end, int pingCount, CharSequence data) {
+		return appendRaw(out, encode(timestampInSeconds, timestamp, data,
+					getDefaultDateFormat(), pingCount, end));
+	}
+	
+	private ByteBuffer encode(long timestampInSeconds, long timestamp, CharSequence data,
+				DateFormat dateFormat, int pingCount, long end) {
+		date.setTime(timestamp);
+		dateText.setLength(0);
+		dateFormat.format(date, dateText, fieldPosition);
+		if(pingCount > 1) {
+			dateText.append(", ").append(pingCount).append(GAP_SEPARATOR).append(end);
+		}
+		
+		//each char takes at most three bytes
+		ensureCapacity(24 + PADDED_LENGTH + (data.length() + dateText.length()) * 3);
+		buffer.clear();
+		
+		int length = putDigits(timestampInSeconds) + 1;
+		buffer.put((byte) ' ');
+		
+		putUTF8(data);
+		length += data.length();
+		
+		//pad the timestamp and tags with spaces until they are
+		//PADDED_LENGTH characters long, or add at least one space
+		do {
+			buffer.put((byte) ' ');
+			length++;
+		} while(length < PADDED_LENGTH);
+		
+		buffer.put((byte) '[');
+		putUTF8(dateText);
+		buffer.put((byte) ']');
+		buffer.put((byte) '\n');
+		
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Encodes a line of the log and appends it to the given builder as a
+	 * raw string.
+	 * @return The length of the line in bytes, which is also the number
+	 *         of chars appended.
+	 * @see #encode(long, long, CharSequence, DateFormat)
+	 */
+	public int encodeRaw(StringBuilder out, long timestampInSeconds, long timestamp,
+				CharSequence data, DateFormat dateFormat) {
+		return appendRaw(out, encode(timestampInSeconds, timestamp, data, dateFormat));
+	}
+	
+	/**
+	 * Encodes a line of the log using the default date format, and
+	 * appends it to the given builder as a raw string.
+	 * @see #encodeRaw(StringBuilder, long, long, CharSequence, DateFormat)
+	 */
+	public int encodeRaw(StringBuilder out, long timestampInSeconds, long timestamp,
+				CharSequence data) {
+		return encodeRaw(out, timestampInSeconds, timestamp, data, getDefaultDateFormat());
+	}
+	
+	/**
+	 * Encodes a line of the log as a raw string, using the default date
+	 * format.
+	 * @see #encode(long, long, CharSequence, DateFormat)
+	 */
+	public String encodeRaw(long timestampInSeconds, long timestamp, CharSequence data) {
+		return encodeRaw(timestampInSeconds, timestamp, data, getDefaultDateFormat());
+	}
+	
+	/**
+	 * Encodes a line of the log as a raw string.
+	 * @see #encode(long, long, CharSequence, DateFormat)
+	 */
+	public String encodeRaw(long timestampInSeconds, long timestamp, CharSequence data,
+				DateFormat dateFormat) {
+		ByteBuffer line = encode(timestampInSeconds, timestamp, data, dateFormat);
+		return new String(line.array(), 0, line.limit(), StandardCharsets.ISO_8859_1);
+	}
+	
+	private static int appendRaw(StringBuilder out, ByteBuffer line) {
+		byte[] bytes = line.array();
+		int length = line.limit();
+		for(int i = 0; i < length; i++) {
+			out.append((char) (bytes[i] & 0xFF));
+		}
+		return length;
+	}
+	
+	private DateFormat getDefaultDateFormat() {
+		if(defaultDateFormat == null) {
+			defaultDateFormat = DateFormat.getDateTimeInstance();
+		}
+		return defaultDateFormat;
+	}
+	
+	private void ensureCapacity(int capacity) {
+		if(buffer.capacity() < capacity) {
+			buffer = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+		}
+	}
+	
+	/**
+	 * Writes a number in decimal.
+	 * @return The number of characters written.
+	 */
+	private int putDigits(long value) {
+		if(value == Long.MIN_VALUE) {
+			byte[] digits = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+			buffer.put(digits);
+			return digits.length;
+		}
+		
+		int length = 0;
+		if(value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+			length++;
+		}
+		
+		//write the digits in reverse, then flip them
+		int start = buffer.position();
+		do {
+			buffer.put((byte) ('0' + value % 10));
+			value /= 10;
+		} while(value > 0);
+		
+		byte[] bytes = buffer.array();
+		byte swap;
+		for(int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+			swap = bytes[i];
+			bytes[i] = bytes[j];
+			bytes[j] = swap;
+		}
+		
+		return length + buffer.position() - start;
+	}
+	
+	/**
+	 * Writes text as UTF-8. Unpaired surrogates are written as '?', just
+	 * as <code>String.getBytes()</code> would.
+	 */
+	private void putUTF8(CharSequence text) {
+		int length = text.length();
+		char c;
+		for(int i = 0; i < length; i++) {
+			c = text.charAt(i);
+			if(c < 0x80) {
+				buffer.put((byte) c);
+			} else if(c < 0x800) {
+				buffer.put((byte) (0xC0 | c >> 6));
+				buffer.put((byte) (0x80 | c & 0x3F));
+			} else if(Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				buffer.put((byte) (0xF0 | codePoint >> 18));
+				buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+				buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | codePoint & 0x3F));
+			} else if(Character.isSurrogate(c)) {
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xE0 | c >> 12));
+				buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+	}
+	
+	/**
+	 * <p>
+	 * A decoded line of the log. Each instance can be reused for any
+	 * number of lines, and once it has seen a tag, decoding that tag
+	 * again doesn't allocate anything.
+	 * </p>
+	 * <p>
+	 * A line is an entry if it consists of a timestamp, a space, some
+	 * data, and a human-readable time in square brackets. The data is
+	 * split into tags at spaces, commas and ]s; dashes at the start of a
+	 * tag are ignored, and tags must be at least two characters long.
+	 * </p>
+	 */
+	public static final class Entry {
+		/**
+		 * The number of tags remembered. This must be a power of two.
+		 */
+		private static final int TAG_CACHE_SIZE = 512;
+		
+		private final byte[][] cachedTagBytes = new byte[TAG_CACHE_SIZE][];
+		private final String[] cachedTags = new String[TAG_CACHE_SIZE];
+		
+		private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT);
+		
+		/**
+		 * Holds raw strings while they're decoded.
+		 */
+		private byte[] rawBytes = new byte[256];
+		
+		private long timestamp;
+		private int pingCount;
+		private long gapEnd;
+		private final List<String> tags = new ArrayList<String>();
+		
+		/**
+		 * Decodes a line of the log.
+		 * @param line The line, from its position to its limit. It may
+		 *            end with a line break. The buffer must have an
+		 *            accessible array.
+		 * @return Whether the line is an entry. If not, the timestamp
+		 *         and tags are undefined.
+		 */
+		public boolean decode(ByteBuffer line) {
+			return decode(line.array(), line.arrayOffset() + line.position(), line.remaining());
+		}
+		
+		/**
+		 * @see #decode(ByteBuffer)
+		 */
+		public boolean decode(byte[] line, int offset, int length) {
+			int end = offset + length;
+			if(end > offset && line[end - 1] == '\n') {
+				end--;
+			}
+			if(end > offset && line[end - 1] == '\r') {
+				end--;
+			}
+			
+			//read the timestamp
+			int i = offset;
+			long value = 0;
+			while(i < end && line[i] >= '0' && line[i] <= '9') {
+				value = value * 10 + (line[i] - '0');
+				i++;
+			}
+			
+			//an empty or overflowing timestamp can't be parsed
+			if(i == offset || i - offset > 18 || i == end || line[i] != ' ') {
+				return false;
+			}
+			int dataStart = i + 1;
+			
+			//find the human-readable time at the end
+			if(end - 1 <= dataStart || line[end - 1] != ']') {
+				return false;
+			}
+			int dataEnd = end - 2;
+			while(dataEnd > dataStart && line[dataEnd] != '[') {
+				if(!isDateCharacter(line[dataEnd])) {
+					return false;
+				}
+				dataEnd--;
+			}
+			if(dataEnd <= dataStart || dataEnd == end - 2) {
+				return false;
+			}
+			
+			timestamp = value;
+			decodeGap(line, dataEnd + 1, end - 1);
+			decodeTags(line, dataStart, dataEnd);
+			return true;
+		}
+		
+		/**
+		 * Decodes a line of the log given as a raw string.
+		 * @see #decode(ByteBuffer)
+		 */
+		public boolean decodeRaw(CharSequence line) {
+			int length = toBytes(line);
+			return decode(rawBytes, 0, length);
+		}
+		
+		/**
+		 * Splits raw data into tags, without expecting a timestamp or
+		 * human-readable time. The result is available from
+		 * {@link #getTags()}.
+		 */
+		public void decodeTagsRaw(CharSequence data) {
+			int length = toBytes(data);
+			decodeTags(rawBytes, 0, length);
+		}
+		
+		/**
+		 * @return The timestamp of the most recently decoded entry, in
+		 *         seconds.
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+		
+		/**
+		 * @return The number of pings the most recently decoded entry
+		 *         stands for: more than one if it's a gap record.
+		 * @see LogGaps
+		 */
+		public int getPingCount() {
+			return pingCount;
+		}
+		
+		/**
+		 * @return The end of the range of pings covered by the most
+		 *         recently decoded entry, in seconds (exclusive). For an
+		 *         ordinary entry, this is one more than its timestamp.
+		 */
+		public long getGapEnd() {
+			return gapEnd;
+		}
+		
+		/**
+		 * @return The tags of the most recently decoded entry, including
+		 *         "RETRO" if present. This list is reused, so it's only
+		 *         valid until the next line is decoded.
+		 */
+		public List<String> getTags() {
+			return tags;
+		}
+		
+		/**
+		 * Checks whether the human-readable part of an entry ends with
+		 * the number of pings and the end of a range, as written for gap
+		 * records.
+		 */
+		private void decodeGap(byte[] line, int start, int end) {
+			pingCount = 1;
+			gapEnd = timestamp + 1;
+			
+			//read backwards: the end of the range, the separator, then
+			//the number of pings
+			int i = end;
+			long rangeEnd = 0;
+			long multiplier = 1;
+			while(i > start && line[i - 1] >= '0' && line[i - 1] <= '9' && end - i < 18) {
+				rangeEnd += (line[--i] - '0') * multiplier;
+				multiplier *= 10;
+			}
+			if(i == end) {
+				return;
+			}
+			
+			int separatorStart = i - GAP_SEPARATOR.length();
+			if(separatorStart <= start) {
+				return;
+			}
+			for(int j = 0; j < GAP_SEPARATOR.length(); j++) {
+				if(line[separatorStart + j] != GAP_SEPARATOR.charAt(j)) {
+					return;
+				}
+			}
+			
+			i = separatorStart;
+			int digitsEnd = i;
+			int count = 0;
+			while(i > start && line[i - 1] >= '0' && line[i - 1] <= '9' && digitsEnd - i < 9) {
+				i--;
+			}
+			for(int j = i; j < digitsEnd; j++) {
+				count = count * 10 + (line[j] - '0');
+			}
+			
+			if(i == digitsEnd || i - 2 < start || line[i - 1] != ' ' || line[i - 2] != ','
+						|| count < 1 || rangeEnd <= timestamp) {
+				return;
+			}
+			
+			pingCount = count;
+			gapEnd = rangeEnd;
+		}
+		
+		private static boolean isDateCharacter(byte b) {
+			return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9'
+						|| b == ' ' || b == ':' || b == ',' || b == '.';
+		}
+		
+		private static boolean isTagSeparator(byte b) {
+			return b == ' ' || b == ',' || b == ']' || b == '\t' || b == '\n'
+						|| b == 0x0B || b == '\f' || b == '\r';
+		}
+		
+		/**
+		 * Copies a raw string into <code>rawBytes</code>.
+		 * @return The number of bytes copied.
+		 */
+		private int toBytes(CharSequence raw) {
+			int length = raw.length();
+			if(rawBytes.length < length) {
+				rawBytes = new byte[Math.max(length, rawBytes.length * 2)];
+			}
+			for(int i = 0; i < length; i++) {
+				rawBytes[i] = (byte) raw.charAt(i);
+			}
+			return length;
+		}
+		
+		private void decodeTags(byte[] data, int start, int end) {
+			tags.clear();
+			
+			int i = start;
+			int tagStart;
+			while(i < end) {
+				//skip to the start of the next tag
+				while(i < end && (isTagSeparator(data[i]) || data[i] == '-')) {
+					i++;
+				}
+				
+				tagStart = i;
+				while(i < end && !isTagSeparator(data[i])) {
+					i++;
+				}
+				
+				if(i - tagStart >= 2) {
+					String tag = getTag(data, tagStart, i);
+					if(tag.codePointCount(0, tag.length()) >= 2) {
+						tags.add(tag);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Decodes a tag, using the cached copy if possible.
+		 */
+		private String getTag(byte[] data, int start, int end) {
+			int hash = 0x811C9DC5;
+			for(int i = start; i < end; i++) {
+				hash = (hash ^ data[i]) * 0x01000193;
+			}
+			int slot = (hash ^ hash >>> 16) & (TAG_CACHE_SIZE - 1);
+			
+			byte[] cached = cachedTagBytes[slot];
+			if(cached != null && cached.length == end - start) {
+				int i = 0;
+				while(i < cached.length && cached[i] == data[start + i]) {
+					i++;
+				}
+				if(i == cached.length) {
+					return cachedTags[slot];
+				}
+			}
+			
+			String tag = decodeText(data, start, end);
+			cachedTagBytes[slot] = Arrays.copyOfRange(data, start, end);
+			cachedTags[slot] = tag;
+			return tag;
+		}
+		
+		private String decodeText(byte[] data, int start, int end) {
+			boolean ascii = true;
+			for(int i = start; i < end && ascii; i++) {
+				ascii = data[i] >= 0;
+			}
+			
+			if(!ascii) {
+				try {
+					decoder.reset();
+					CharBuffer text = decoder.decode(ByteBuffer.wrap(data, start, end - start));
+					return text.toString();
+				} catch(CharacterCodingException e) {
+					//written by an older version; fall through
+				}
+			}
+			
+			return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+	}
+}
@@ -0,0 +1,734 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Splits a log's history into monthly segments, so that old months
+ * don't have to be read or rewritten along with the current one. The
+ * log file itself only holds the current month; each earlier month is
+ * kept in its own text file in a directory next to the log. Months are
+ * measured in UTC, so a segment's boundaries don't depend on the time
+ * zone.
+ * </p>
+ * <p>
+ * Each segment has a summary (its earliest and latest timestamps, its
+ * number of pings, and how many times each tag was used), so that
+ * readers can skip segments that can't be relevant without opening
+ * them. Summaries are stored together in one file, and a segment's
+ * summary is recalculated if the segment has been modified since.
+ * </p>
+ * <p>
+ * Segment files can be edited by hand, like the log. For convenience, a
+ * concatenated copy of the whole history is also kept. That copy is
+ * only for reading: it's marked read-only, and named to say so, since
+ * changes to it would be overwritten rather than read back. It's only
+ * rewritten in full when a segment changes; otherwise only the part
+ * copied from the log is replaced.
+ * </p>
+ * @see SegmentedLogReader
+ */
+public class LogSegments {
+	private static final int FILE_IDENTIFIER = 0x54545347;
+	private static final int FILE_VERSION = 1;
+	
+	private static final String SEGMENT_EXTENSION = ".log";
+	
+	/**
+	 * A summary of one segment's contents.
+	 */
+	public static class Summary {
+		/**
+		 * The month covered by this segment, in the form yyyy-MM.
+		 */
+		public final String name;
+		public final File file;
+		
+		/**
+		 * The length and modification time of the file when this summary
+		 * was calculated.
+		 */
+		final long length;
+		final long lastModified;
+		
+		/**
+		 * The earliest and latest timestamps in the segment, in seconds,
+		 * or -1 if it has no entries.
+		 */
+		public final long minTimestamp;
+		public final long maxTimestamp;
+		
+		public final int pingCount;
+		
+		/**
+		 * The number of times each tag (in lower case) was used.
+		 */
+		public final Map<String, Integer> tagCounts;
+		
+		Summary(String name, File file, long length, long lastModified,
+					long minTimestamp, long maxTimestamp, int pingCount,
+					Map<String, Integer> tagCounts) {
+			this.name = name;
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.minTimestamp = minTimestamp;
+			this.maxTimestamp = maxTimestamp;
+			this.pingCount = pingCount;
+			this.tagCounts = tagCounts;
+		}
+		
+		/**
+		 * @return Whether the segment file has changed since this summary
+		 *         was calculated.
+		 */
+		boolean isStale() {
+			return file.length() != length || file.lastModified() != lastModified;
+		}
+	}
+	
+	private final File logFile;
+	private final File directory;
+	private final File summaryFile;
+	
+	/**
+	 * Whether to sync files to the disk before replacing anything.
+	 */
+	private final boolean sync;
+	
+	/**
+	 * The summary of each segment, in order.
+	 */
+	private final TreeMap<String, Summary> summaries = new TreeMap<String, Summary>();
+	
+	/**
+	 * The length and modification time of each segment when the
+	 * concatenated copy was last written in full, or null if it hasn't
+	 * been written since the segments were opened.
+	 */
+	private String viewSegmentsState = null;
+	
+	/**
+	 * The number of bytes at the start of the concatenated copy that
+	 * came from the segments, rather than from the log.
+	 */
+	private long viewSegmentsLength = 0;
+	
+	/**
+	 * Opens the segments of the given log, loading their summaries and
+	 * recalculating any that are out of date. If the log doesn't have
+	 * any segments yet, this doesn't create anything until
+	 * {@link #seal(long)} is called.
+	 * @param sync Whether to sync each file to the disk before replacing
+	 *            the previous version.
+	 */
+	public LogSegments(File logFile, boolean sync) {
+		this.logFile = logFile;
+		this.sync = sync;
+		directory = getDirectory(logFile);
+		summaryFile = new File(directory, "summary");
+		
+		loadSummaries();
+		refresh();
+	}
+	
+	/**
+	 * @return The directory holding the segments of the given log.
+	 */
+	public static File getDirectory(File logFile) {
+		return new File(logFile.getPath() + ".segments");
+	}
+	
+	/**
+	 * @return Whether the given log has been split into segments.
+	 */
+	public static boolean exists(File logFile) {
+		return getDirectory(logFile).isDirectory();
+	}
+	
+	/**
+	 * @return The location of the read-only concatenated copy of the
+	 *         given log.
+	 */
+	public static File getConcatenatedFile(File logFile) {
+		return new File(logFile.getPath() + ".all.readonly");
+	}
+	
+	/**
+	 * @return The start of the month (in UTC) containing the given time.
+	 *         Both values are in seconds.
+	 */
+	public static long getMonthStart(long timestampInSeconds) {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.setTimeInMillis(timestampInSeconds * 1000);
+		calendar.set(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), 1, 0, 0, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTimeInMillis() / 1000;
+	}
+	
+	/**
+	 * @return The name of the segment that would hold the given time.
+	 */
+	public static String getSegmentName(long timestampInSeconds) {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.setTimeInMillis(timestampInSeconds * 1000);
+		return String.format("%04d-%02d", calendar.get(Calendar.YEAR),
+					calendar.get(Calendar.MONTH) + 1);
+	}
+	
+	/**
+	 * @return The summaries of every segment, in order.
+	 */
+	public synchronized List<Summary> getSegments() {
+		refresh();
+		return new ArrayList<Summary>(summaries.values());
+	}
+	
+	/**
+	 * @return The summaries of the segments with entries between the
+	 *         given times (inclusive, in seconds), in order.
+	 */
+	public synchronized List<Summary> getSegmentsBetween(long from, long to) {
+		refresh();
+		List<Summary> result = new ArrayList<Summary>();
+		for(Summary summary : summaries.values()) {
+			if(summary.pingCount > 0 && summary.maxTimestamp >= from
+						&& summary.minTimestamp <= to) {
+				result.add(summary);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return The file holding the latest segment with any entries, or
+	 *         null if there are none.
+	 */
+	public synchronized File getLastSegmentFile() {
+		refresh();
+		for(Summary summary : summaries.descendingMap().values()) {
+			if(summary.pingCount > 0) {
+				return summary.file;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Inserts lines into the segments for their months, in order. Only
+	 * those segments are rewritten.
+	 * @param lines The lines to insert, each ending with a line break.
+	 *            The first must be an entry.
+	 */
+	public synchronized void insert(String lines) throws IOException {
+		TreeMap<String, List<String>> inserted = groupBySegment(
+					Arrays.asList(lines.split("\n")), Long.MAX_VALUE, null);
+		
+		directory.mkdirs();
+		addToSegments(inserted);
+	}
+	
+	/**
+	 * Moves every line in the log from before the given time into the
+	 * segment for its month. Lines that aren't entries move along with
+	 * the entry before them. Segments are written before the log is
+	 * replaced, and lines that are already in a segment aren't added
+	 * again, so this can safely be repeated after being interrupted.
+	 * The caller must ensure that nothing writes to the log meanwhile.
+	 * @param cutoff The time, in seconds, before which lines should be
+	 *            moved. This should be the start of a month.
+	 * @return Whether anything was moved.
+	 */
+	public synchronized boolean seal(long cutoff) throws IOException {
+		if(!logFile.exists()) {
+			return false;
+		}
+		
+		List<String> kept = new ArrayList<String>();
+		TreeMap<String, List<String>> moved = groupBySegment(
+					readLines(logFile), cutoff, kept);
+		
+		if(moved.isEmpty()) {
+			return false;
+		}
+		
+		directory.mkdirs();
+		addToSegments(moved);
+		
+		writeLines(logFile, kept);
+		
+		return true;
+	}
+	
+	/**
+	 * Sorts lines by the segment they belong in. Lines that aren't
+	 * entries go along with the entry before them.
+	 * @param cutoff Lines from this time onwards aren't sorted.
+	 * @param kept If not null, receives the lines that weren't sorted.
+	 * @return The lines for each segment, in their original order.
+	 */
+	private static TreeMap<String, List<String>> groupBySegment(List<String> lines,
+				long cutoff, List<String> kept) {
+		TreeMap<String, List<String>> segments = new TreeMap<String, List<String>>();
+		
+		//lines before the first entry go wherever that entry does
+		List<String> leadingLines = new ArrayList<String>();
+		
+		long timestamp = -1;
+		for(String line : lines) {
+			long lineTimestamp = MergedLogReader.parseTimestamp(line);
+			if(lineTimestamp >= 0) {
+				timestamp = lineTimestamp;
+			} else if(timestamp < 0) {
+				leadingLines.add(line);
+				continue;
+			}
+			
+			if(timestamp < cutoff) {
+				String name = getSegmentName(timestamp);
+				List<String> segment = segments.get(name);
+				if(segment == null) {
+					segment = new ArrayList<String>(leadingLines);
+					leadingLines.clear();
+					segments.put(name, segment);
+				}
+				segment.add(line);
+			} else if(kept != null) {
+				kept.addAll(leadingLines);
+				leadingLines.clear();
+				kept.add(line);
+			}
+		}
+		
+		if(kept != null) {
+			kept.addAll(leadingLines);
+		}
+		
+		return segments;
+	}
+	
+	/**
+	 * Merges lines into each segment, then updates the summaries.
+	 */
+	private void addToSegments(Map<String, List<String>> lines) throws IOException {
+		for(Map.Entry<String, List<String>> entry : lines.entrySet()) {
+			File segmentFile = getSegmentFile(entry.getKey());
+			List<String> segment = segmentFile.exists()
+						? readLines(segmentFile) : new ArrayList<String>();
+			writeLines(segmentFile, merge(segment, entry.getValue()));
+			
+			summaries.put(entry.getKey(), summarize(entry.getKey(), segmentFile));
+		}
+		saveSummaries();
+	}
+	
+	/**
+	 * Brings the concatenated copy of the log up to date, if anything
+	 * has changed since it was last written. If only the log has
+	 * changed, only the part of the copy that came from the log is
+	 * replaced; the whole copy is only rewritten when a segment changes.
+	 */
+	public synchronized void updateConcatenatedView() throws IOException {
+		File concatenatedFile = getConcatenatedFile(logFile);
+		String state = getSegmentsState();
+		if(!state.equals(viewSegmentsState) || !concatenatedFile.exists()
+					|| concatenatedFile.length() < viewSegmentsLength) {
+			writeConcatenatedView(state);
+			return;
+		}
+		
+		//the copy was written after the log's last change (a change in
+		//the same second can't be ruled out, so it's copied again)
+		long logLength = logFile.exists() ? logFile.length() : 0;
+		if(concatenatedFile.length() == viewSegmentsLength + logLength
+					&& concatenatedFile.lastModified() > logFile.lastModified()) {
+			return;
+		}
+		
+		concatenatedFile.setWritable(true);
+		FileOutputStream fileOut = new FileOutputStream(concatenatedFile, true);
+		try {
+			fileOut.getChannel().truncate(viewSegmentsLength);
+			OutputStream out = new BufferedOutputStream(fileOut, 65536);
+			if(logFile.exists()) {
+				copy(logFile, out);
+			}
+			out.flush();
+		} finally {
+			fileOut.close();
+			concatenatedFile.setReadOnly();
+		}
+	}
+	
+	/**
+	 * Writes every segment, followed by the log itself, into a single
+	 * read-only text file.
+	 * @param state The current state of the segments, as returned by
+	 *            {@link #getSegmentsState()}.
+	 */
+	private void writeConcatenatedView(String state) throws IOException {
+		File concatenatedFile = getConcatenatedFile(logFile);
+		File tempFile = new File(concatenatedFile.getPath() + ".tmp");
+		
+		long segmentsLength = 0;
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), 65536);
+		try {
+			for(Summary summary : summaries.values()) {
+				segmentsLength += copy(summary.file, out);
+			}
+			if(logFile.exists()) {
+				copy(logFile, out);
+			}
+		} finally {
+			out.close();
+		}
+		
+		tempFile.setReadOnly();
+		if(concatenatedFile.exists()) {
+			concatenatedFile.setWritable(true);
+		}
+		LogCompactor.replaceFile(tempFile, concatenatedFile);
+		
+		viewSegmentsState = state;
+		viewSegmentsLength = segmentsLength;
+		
+		//earlier versions named the copy without saying it's read-only
+		new File(logFile.getPath() + ".all").delete();
+	}
+	
+	/**
+	 * @return A description of the length and modification time of
+	 *         every segment, which changes whenever a segment does.
+	 */
+	private String getSegmentsState() {
+		StringBuilder state = new StringBuilder();
+		for(Summary summary : summaries.values()) {
+			state.append(summary.name).append(' ').append(summary.file.length())
+						.append(' ').append(summary.file.lastModified()).append('\n');
+		}
+		return state.toString();
+	}
+	
+	/**
+	 * @return The number of bytes copied.
+	 */
+	private static long copy(File file, OutputStream out) throws IOException {
+		long copied = 0;
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int n;
+			while((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+				copied += n;
+			}
+		} finally {
+			in.close();
+		}
+		
+		return copied;
+	}
+	
+	private File getSegmentFile(String name) {
+		return new File(directory, name + SEGMENT_EXTENSION);
+	}
+	
+	/**
+	 * Merges lines into a segment, keeping everything in order by
+	 * timestamp. Lines that aren't entries are ordered as if they had
+	 * the timestamp before them. Existing lines come first when
+	 * timestamps are equal, and lines that already exist are skipped.
+	 */
+	private static List<String> merge(List<String> existing, List<String> added) {
+		Set<String> existingSet = new HashSet<String>(existing);
+		List<String> merged = new ArrayList<String>(existing.size() + added.size());
+		
+		int i = 0;
+		int j = 0;
+		long existingTimestamp = -1;
+		long addedTimestamp = -1;
+		long timestamp;
+		while(i < existing.size() || j < added.size()) {
+			if(j < added.size()) {
+				timestamp = MergedLogReader.parseTimestamp(added.get(j));
+				if(timestamp >= 0) {
+					addedTimestamp = timestamp;
+				}
+			}
+			
+			if(i < existing.size()) {
+				timestamp = MergedLogReader.parseTimestamp(existing.get(i));
+				if(timestamp >= 0) {
+					existingTimestamp = timestamp;
+				}
+			}
+			
+			if(j >= added.size() || (i < existing.size() && existingTimestamp <= addedTimestamp)) {
+				merged.add(existing.get(i++));
+			} else {
+				if(!existingSet.contains(added.get(j))) {
+					merged.add(added.get(j));
+				}
+				j++;
+			}
+		}
+		
+		return merged;
+	}
+	
+	/**
+	 * Reads a text file's lines, without line breaks, keeping every byte.
+	 */
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+		try {
+			ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+			int b;
+			while((b = in.read()) >= 0) {
+				if(b == '\n') {
+					lines.add(line.toString("ISO-8859-1"));
+					line.reset();
+				} else {
+					line.write(b);
+				}
+			}
+			if(line.size() > 0) {
+				lines.add(line.toString("ISO-8859-1"));
+			}
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+	
+	/**
+	 * Replaces a text file with the given lines.
+	 */
+	private void writeLines(File file, List<String> lines) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(tempFile);
+		OutputStream out = new BufferedOutputStream(fileOut, 65536);
+		try {
+			for(String line : lines) {
+				for(int i = 0; i < line.length(); i++) {
+					out.write(line.charAt(i));
+				}
+				out.write('\n');
+			}
+			
+			out.flush();
+			if(sync) {
+				fileOut.getFD().sync();
+			}
+		} finally {
+			out.close();
+		}
+		
+		LogCompactor.replaceFile(tempFile, file);
+	}
+	
+	/**
+	 * Calculates the summary of a segment by reading it.
+	 */
+	private static Summary summarize(String name, File file) throws IOException {
+		long length = file.length();
+		long lastModified = file.lastModified();
+		
+		long minTimestamp = -1;
+		long maxTimestamp = -1;
+		int pingCount = 0;
+		Map<String, Integer> tagCounts = new HashMap<String, Integer>();
+		
+		TextLogReader reader = new TextLogReader(file);
+		try {
+			while(reader.next()) {
+				long timestamp = reader.getTimestamp();
+				if(pingCount == 0 || timestamp < minTimestamp) {
+					minTimestamp = timestamp;
+				}
+				if(pingCount == 0 || reader.getGapEnd() - 1 > maxTimestamp) {
+					maxTimestamp = reader.getGapEnd() - 1;
+				}
+				
+				//gap records count once for each ping
+				int pings = reader.getPingCount();
+				pingCount += pings;
+				
+				for(String tag : reader.getTags()) {
+					tag = tag.toLowerCase();
+					Integer count = tagCounts.get(tag);
+					tagCounts.put(tag, count == null ? pings : count + pings);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		
+		return new Summary(name, file, length, lastModified, minTimestamp, maxTimestamp,
+					pingCount, tagCounts);
+	}
+	
+	/**
+	 * Brings the summaries up to date with the segment files, adding,
+	 * removing and recalculating them as needed.
+	 */
+	private void refresh() {
+		boolean changed = false;
+		
+		File[] files = directory.listFiles();
+		Set<String> names = new HashSet<String>();
+		if(files != null) {
+			for(File file : files) {
+				String fileName = file.getName();
+				if(!fileName.endsWith(SEGMENT_EXTENSION)) {
+					continue;
+				}
+				
+				String name = fileName.substring(0, fileName.length()
+							- SEGMENT_EXTENSION.length());
+				names.add(name);
+				
+				Summary summary = summaries.get(name);
+				if(summary == null || summary.isStale()) {
+					try {
+						summaries.put(name, summarize(name, file));
+						changed = true;
+					} catch(IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+		
+		changed |= summaries.keySet().retainAll(names);
+		
+		if(changed) {
+			saveSummaries();
+		}
+	}
+	
+	private void saveSummaries() {
+		if(!directory.isDirectory()) {
+			return;
+		}
+		
+		File tempFile = new File(summaryFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(tempFile)));
+			out.writeInt(FILE_IDENTIFIER);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(summaries.size());
+			for(Summary summary : summaries.values()) {
+				out.writeUTF(summary.name);
+				out.writeLong(summary.length);
+				out.writeLong(summary.lastModified);
+				out.writeLong(summary.minTimestamp);
+				out.writeLong(summary.maxTimestamp);
+				out.writeInt(summary.pingCount);
+				out.writeInt(summary.tagCounts.size());
+				for(Map.Entry<String, Integer> tagCount : summary.tagCounts.entrySet()) {
+					out.writeUTF(tagCount.getKey());
+					out.writeInt(tagCount.getValue());
+				}
+			}
+			out.close();
+			out = null;
+			
+			LogCompactor.replaceFile(tempFile, summaryFile);
+		} catch(IOException e) {
+			e.printStackTrace();
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+	
+	private void loadSummaries() {
+		if(!summaryFile.exists()) {
+			return;
+		}
+		
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(summaryFile)));
+			if(in.readInt() != FILE_IDENTIFIER || in.readInt() != FILE_VERSION) {
+				return;
+			}
+			
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				long length = in.readLong();
+				long lastModified = in.readLong();
+				long minTimestamp = in.readLong();
+				long maxTimestamp = in.readLong();
+				int pingCount = in.readInt();
+				
+				int tagCount = in.readInt();
+				Map<String, Integer> tagCounts = new HashMap<String, Integer>();
+				for(int j = 0; j < tagCount; j++) {
+					String tag = in.readUTF();
+					tagCounts.put(tag, in.readInt());
+				}
+				
+				summaries.put(name, new Summary(name, getSegmentFile(name), length,
+							lastModified, minTimestamp, maxTimestamp, pingCount, tagCounts));
+			}
+		} catch(IOException e) {
+			//anything missing will be recalculated
+			summaries.clear();
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+/**
+ * Where the log is kept.
+ * @see tagtime.settings.SettingType#LOG_STORAGE
+ * @see PingStore
+ */
+public enum LogStorage {
+	/**
+	 * A text file, one line per ping, which can be read and edited by
+	 * hand. See {@link TextPingStore}.
+	 */
+	TEXT,
+	
+	/**
+	 * A file of records with an index by time, which makes adding
+	 * pings out of order much faster. See {@link IndexedPingStore}.
+	 */
+	INDEXED;
+	
+	/**
+	 * Looks up a kind of storage by name, ignoring case.
+	 * @param name The name of the storage. If this is null or empty, the
+	 *            default (TEXT) will be returned.
+	 * @throws IllegalArgumentException If the name doesn't match any
+	 *             kind of storage.
+	 */
+	public static LogStorage fromName(String name) {
+		if(name == null || name.trim().equals("")) {
+			return TEXT;
+		}
+		
+		return valueOf(name.trim().toUpperCase());
+	}
+}
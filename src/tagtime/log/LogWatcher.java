@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import tagtime.settings.SettingType;
+
+/**
+ * Watches the folder containing a log, on a dedicated thread, and calls
+ * {@link Log#reload()} whenever the log file changes. Most of those
+ * changes are TagTime's own writes, which the log recognizes and
+ * ignores; the rest are edits made by hand.
+ * @see SettingType#WATCH_LOG
+ */
+class LogWatcher implements Runnable {
+	/**
+	 * How long to wait for more changes after the log changes, in
+	 * milliseconds. Editors often save a file in several steps, and
+	 * there's no point reloading in between.
+	 */
+	public static final long SETTLE_TIME = 500;
+	
+	private final Log log;
+	private final String fileName;
+	private final WatchService watchService;
+	
+	public LogWatcher(Log log, File logFile, String name) throws IOException {
+		this.log = log;
+		fileName = logFile.getName();
+		
+		Path directory = logFile.getAbsoluteFile().getParentFile().toPath();
+		watchService = FileSystems.getDefault().newWatchService();
+		directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+		
+		//a daemon thread, so that it won't keep the program running
+		Thread thread = new Thread(this, "Log watcher (" + name + ")");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	@Override
+	public void run() {
+		WatchKey key;
+		boolean changed;
+		while(true) {
+			try {
+				key = watchService.take();
+				
+				//gather everything that happens until things settle down
+				changed = false;
+				while(key != null) {
+					for(WatchEvent<?> event : key.pollEvents()) {
+						if(event.kind() == StandardWatchEventKinds.OVERFLOW
+									|| fileName.equals(event.context().toString())) {
+							changed = true;
+						}
+					}
+					
+					//if the folder is gone, there's nothing left to watch
+					if(!key.reset()) {
+						return;
+					}
+					
+					key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS);
+				}
+			} catch(InterruptedException e) {
+				continue;
+			} catch(ClosedWatchServiceException e) {
+				return;
+			}
+			
+			if(changed) {
+				log.reload();
+			}
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes entries to a log on a dedicated thread, so that the threads
+ * that produce them (the event dispatch thread and the scheduler's
+ * threads) never wait on the disk. Entries that arrive while a write is
+ * in progress are grouped into the next write, so a burst of entries
+ * costs a single write and (depending on the durability level) a single
+ * sync.
+ */
+class LogWriter implements Runnable {
+	/**
+	 * Where the entries are written.
+	 */
+	public interface Target {
+		/**
+		 * Writes a batch of entries, in the order given.
+		 * @param timestamps The time of each entry, in milliseconds.
+		 * @param data The data for each entry.
+		 * @param offset The position of the first entry in the arrays.
+		 * @param count The number of entries to write.
+		 * @throws PartialWriteException If some of the entries were
+		 *         written before an error occurred.
+		 * @throws IOException If none of the entries can be assumed to
+		 *         have been written.
+		 */
+		public void writeBatch(long[] timestamps, String[] data, int offset, int count)
+					throws IOException;
+	}
+	
+	/**
+	 * Thrown by {@link Target#writeBatch(long[], String[], int, int)}
+	 * when it fails partway through a batch.
+	 */
+	public static class PartialWriteException extends IOException {
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * The number of entries at the start of the batch that were
+		 * written before the error. The rest weren't.
+		 */
+		public final int written;
+		
+		public PartialWriteException(int written, IOException cause) {
+			super(cause.getMessage(), cause);
+			this.written = written;
+		}
+	}
+	
+	/**
+	 * The maximum number of entries waiting to be written. If the queue
+	 * is full, new entries are rejected rather than making the thread
+	 * that submitted them wait. Flush markers don't count towards this,
+	 * and are never rejected.
+	 */
+	public static final int QUEUE_CAPACITY = 1024;
+	
+	/**
+	 * The maximum number of entries to write at once.
+	 */
+	public static final int MAX_BATCH_SIZE = 256;
+	
+	private static class Entry {
+		/**
+		 * The time of the entry in milliseconds. Unused for flush
+		 * markers.
+		 */
+		public final long timestamp;
+		
+		/**
+		 * The data to log, or null if this entry only marks a point in
+		 * the queue for {@link LogWriter#flush()}.
+		 */
+		public final String data;
+		
+		public final CompletableFuture<Void> future = new CompletableFuture<Void>();
+		
+		public Entry(long timestamp, String data) {
+			this.timestamp = timestamp;
+			this.data = data;
+		}
+	}
+	
+	private final Target target;
+	private final LogDurability durability;
+	
+	private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+	
+	/**
+	 * The number of entries in the queue, not counting flush markers.
+	 */
+	private final AtomicInteger queued = new AtomicInteger();
+	
+	/**
+	 * The first error since the last flush marker was reached, or null
+	 * if every entry since then was written. Only used by the writer
+	 * thread.
+	 */
+	private Exception failure = null;
+	
+	/**
+	 * The first error from an entry rejected because the queue was full
+	 * since the last flush marker was reached, or null if there was none.
+	 */
+	private final AtomicReference<IOException> rejection = new AtomicReference<IOException>();
+	
+	public LogWriter(Target target, LogDurability durability, String name) {
+		this.target = target;
+		this.durability = durability;
+		
+		//a daemon thread, so that it won't keep the program running;
+		//call flush() before exiting to make sure nothing is lost
+		Thread thread = new Thread(this, "Log writer (" + name + ")");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Queues an entry to be written.
+	 * @return A future that completes once the entry has been written
+	 *         with the configured durability, or completes exceptionally
+	 *         if it couldn't be (including if the queue is full).
+	 */
+	public Future<Void> submit(long timestamp, String data) {
+		Entry entry = new Entry(timestamp, data);
+		
+		//never wait for room: this may be called on the event dispatch
+		//thread
+		if(queued.incrementAndGet() > QUEUE_CAPACITY) {
+			queued.decrementAndGet();
+			IOException e = new IOException(
+						"Too many entries are waiting to be written to the log.");
+			rejection.compareAndSet(null, e);
+			entry.future.completeExceptionally(e);
+			return entry.future;
+		}
+		
+		queue.add(entry);
+		return entry.future;
+	}
+	
+	/**
+	 * @return A future that completes once every entry submitted before
+	 *         this call has been written, or completes exceptionally if
+	 *         any entry submitted since the previous call couldn't be.
+	 */
+	public Future<Void> flush() {
+		Entry marker = new Entry(0, null);
+		queue.add(marker);
+		return marker.future;
+	}
+	
+	@Override
+	public void run() {
+		List<Entry> batch = new ArrayList<Entry>(MAX_BATCH_SIZE);
+		long[] timestamps = new long[MAX_BATCH_SIZE];
+		String[] data = new String[MAX_BATCH_SIZE];
+		
+		while(true) {
+			try {
+				batch.add(queue.take());
+			} catch(InterruptedException e) {
+				continue;
+			}
+			queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+			
+			//collect the entries, leaving out flush markers
+			int count = 0;
+			for(Entry entry : batch) {
+				if(entry.data != null) {
+					timestamps[count] = entry.timestamp;
+					data[count] = entry.data;
+					count++;
+				}
+			}
+			queued.addAndGet(-count);
+			
+			if(durability == LogDurability.ENTRY) {
+				//write and sync the entries one at a time, reporting each
+				//as soon as it's safe
+				int i = 0;
+				for(Entry entry : batch) {
+					if(entry.data == null) {
+						completeFlush(entry);
+						continue;
+					}
+					
+					try {
+						target.writeBatch(timestamps, data, i, 1);
+						entry.future.complete(null);
+					} catch(Exception e) {
+						e.printStackTrace();
+						fail(entry, e);
+					}
+					i++;
+				}
+			} else {
+				//if the batch fails partway through, only the entries
+				//that weren't written are reported as failed
+				Exception batchFailure = null;
+				int written = count;
+				if(count > 0) {
+					try {
+						target.writeBatch(timestamps, data, 0, count);
+					} catch(PartialWriteException e) {
+						e.printStackTrace();
+						batchFailure = e;
+						written = e.written;
+					} catch(Exception e) {
+						e.printStackTrace();
+						batchFailure = e;
+						written = 0;
+					}
+				}
+				
+				int i = 0;
+				for(Entry entry : batch) {
+					if(entry.data == null) {
+						completeFlush(entry);
+						continue;
+					}
+					
+					if(i < written) {
+						entry.future.complete(null);
+					} else {
+						fail(entry, batchFailure);
+					}
+					i++;
+				}
+			}
+			
+			batch.clear();
+			for(int i = 0; i < count; i++) {
+				data[i] = null;
+			}
+		}
+	}
+	
+	/**
+	 * Reports that an entry couldn't be written. The next flush marker
+	 * will report the same error.
+	 */
+	private void fail(Entry entry, Exception e) {
+		if(failure == null) {
+			failure = e;
+		}
+		entry.future.completeExceptionally(e);
+	}
+	
+	private void completeFlush(Entry marker) {
+		IOException rejected = rejection.getAndSet(null);
+		if(failure == null) {
+			failure = rejected;
+		}
+		
+		if(failure != null) {
+			marker.future.completeExceptionally(failure);
+			failure = null;
+		} else {
+			marker.future.complete(null);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * Reads a log file line by line, merging in any entries from its
+ * overflow segment so that everything comes out in order.
+ * </p>
+ * <p>
+ * When the log is in append-only mode, pings older than the final line
+ * are appended to the overflow segment instead of being inserted into
+ * the log itself. The overflow is expected to stay small (it is folded
+ * back into the log periodically by {@link LogCompactor}), so it is
+ * read into memory and sorted, while the log itself is streamed.
+ * </p>
+ */
+public class MergedLogReader implements Closeable {
+	private static final Comparator<String> TIMESTAMP_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			long timestampA = parseTimestamp(a);
+			long timestampB = parseTimestamp(b);
+			return timestampA < timestampB ? -1 : (timestampA == timestampB ? 0 : 1);
+		}
+	};
+	
+	private final BufferedReader logIn;
+	
+	/**
+	 * The next line from the log, or null if it hasn't been read yet.
+	 */
+	private String pendingLine = null;
+	
+	private final List<String> overflow;
+	private int overflowPosition = 0;
+	
+	public MergedLogReader(File logFile) throws FileNotFoundException {
+		this(logFile, getOverflowFile(logFile));
+	}
+	
+	/**
+	 * Merges the given log with an overflow segment stored somewhere
+	 * other than the usual location.
+	 */
+	MergedLogReader(File logFile, File overflowFile) throws FileNotFoundException {
+		logIn = new BufferedReader(new InputStreamReader(new FileInputStream(logFile),
+					StandardCharsets.ISO_8859_1));
+		overflow = readOverflowFile(overflowFile);
+	}
+	
+	/**
+	 * @return The location of the overflow segment for the given log.
+	 */
+	public static File getOverflowFile(File logFile) {
+		return new File(logFile.getPath() + ".overflow");
+	}
+	
+	/**
+	 * Reads every entry in the given log's overflow segment, sorted by
+	 * timestamp. Entries with equal timestamps stay in the order they
+	 * were written.
+	 * @return The entries, or an empty list if there is no overflow.
+	 */
+	public static List<String> readOverflow(File logFile) {
+		return readOverflowFile(getOverflowFile(logFile));
+	}
+	
+	private static List<String> readOverflowFile(File overflowFile) {
+		List<String> lines = new ArrayList<String>();
+		if(!overflowFile.exists()) {
+			return lines;
+		}
+		
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(overflowFile),
+						StandardCharsets.ISO_8859_1));
+			String line;
+			while((line = in.readLine()) != null) {
+				if(parseTimestamp(line) >= 0) {
+					lines.add(line);
+				}
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) {}
+			}
+		}
+		
+		//this sort is stable
+		Collections.sort(lines, TIMESTAMP_ORDER);
+		return lines;
+	}
+	
+	/**
+	 * @return The timestamp at the start of the given line, or -1 if the
+	 *         line isn't a log entry.
+	 */
+	public static long parseTimestamp(String line) {
+		long timestamp = 0;
+		int length = line.length();
+		int i;
+		char c;
+		for(i = 0; i < length; i++) {
+			c = line.charAt(i);
+			if(c >= '0' && c <= '9') {
+				timestamp = timestamp * 10 + (c - '0');
+			} else {
+				break;
+			}
+		}
+		
+		if(i == 0 || i == length || line.charAt(i) != ' ') {
+			return -1;
+		}
+		
+		return timestamp;
+	}
+	
+	/**
+	 * Reads the next line, in timestamp order. Lines in the log that
+	 * aren't entries are returned in their original positions.
+	 * @return The line as a raw string (see {@link LogLineCodec}),
+	 *         without a line break, or null if there are no more lines.
+	 */
+	public String readLine() throws IOException {
+		if(pendingLine == null) {
+			pendingLine = logIn.readLine();
+		}
+		
+		if(overflowPosition < overflow.size()) {
+			String overflowLine = overflow.get(overflowPosition);
+			
+			//overflow entries go before any log entries with the same
+			//timestamp, just as they would have if they'd been inserted
+			long logTimestamp = pendingLine != null ? parseTimestamp(pendingLine) : -1;
+			if(pendingLine == null
+						|| logTimestamp >= parseTimestamp(overflowLine)) {
+				overflowPosition++;
+				return overflowLine;
+			}
+		}
+		
+		String line = pendingLine;
+		pendingLine = null;
+		return line;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		logIn.close();
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Stores the lines of a log. {@link Log} decides what to write and
+ * formats each line with {@link LogLineCodec}; a store only has to keep
+ * the lines in order of time and read them back.
+ * </p>
+ * <p>
+ * Lines are passed as raw strings (see {@link LogLineCodec}), in blocks
+ * of one or more lines in order. Along with each block come the
+ * timestamp of each line, in seconds, and the length of each line,
+ * including its line break. A store may hold resources open from the
+ * first write until the next call to {@link #commit(boolean)}.
+ * </p>
+ * @see TextPingStore
+ * @see IndexedPingStore
+ */
+public interface PingStore extends Closeable {
+	/**
+	 * A change made to a store by something other than the store itself.
+	 * @see PingStore#reload()
+	 */
+	public static class Change {
+		/**
+		 * The start of the range of time affected, in seconds
+		 * (inclusive).
+		 */
+		public final long from;
+		
+		/**
+		 * The end of the range of time affected, in seconds (exclusive).
+		 */
+		public final long to;
+		
+		/**
+		 * Every line now in the store within the range, as a raw string,
+		 * or null if they have to be read with {@link PingStore#scan(long, long)}.
+		 */
+		public final String lines;
+		
+		public Change(long from, long to, String lines) {
+			this.from = from;
+			this.to = to;
+			this.lines = lines;
+		}
+	}
+	
+	/**
+	 * Adds a block of lines that are all later than the final entry.
+	 */
+	public void append(String lines, long[] timestamps, int[] lengths, int count)
+				throws IOException;
+	
+	/**
+	 * Adds a block of lines in the right place by time. Lines that are
+	 * already in the store come first when timestamps are equal.
+	 */
+	public void insert(String lines, long[] timestamps, int[] lengths, int count)
+				throws IOException;
+	
+	/**
+	 * Finishes writing everything added so far.
+	 * @param sync Whether to make sure it has reached the disk.
+	 */
+	public void commit(boolean sync) throws IOException;
+	
+	/**
+	 * Lists the entries that cover any part of the given range of time,
+	 * in order. Gap records are listed as they were written; see
+	 * {@link LogGaps}.
+	 * @param from The start of the range, in seconds (inclusive).
+	 * @param to The end of the range, in seconds (exclusive).
+	 */
+	public LogEntryReader scan(long from, long to) throws IOException;
+	
+	/**
+	 * @return The time of the final ping in the store, in seconds, or -1
+	 *         if it's empty. If the final entry is a gap record, this is
+	 *         the time of the record's final ping.
+	 */
+	public long getLastTimestamp();
+	
+	/**
+	 * @return The final entry in the store, as a raw string, or null if
+	 *         it's empty.
+	 */
+	public String getLastEntry();
+	
+	/**
+	 * Checks whether the store was changed by something other than this
+	 * object (such as the user editing a text log by hand), and if so,
+	 * updates anything this object keeps track of. The first call only
+	 * records the store's current state.
+	 * @return The change, or null if nothing changed.
+	 */
+	public Change reload() throws IOException;
+}
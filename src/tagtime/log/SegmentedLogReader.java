@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import tagtime.util.ITagMatcher;
+import tagtime.util.TagMatcher;
+
+/**
+ * Reads the entries of a segmented log, one segment after another,
+ * followed by the log file itself. Segments that can't contain any
+ * matching entries are skipped based on their summaries; see
+ * {@link LogSegments}.
+ */
+public class SegmentedLogReader implements LogEntryReader {
+	private final File logFile;
+	private final List<LogSegments.Summary> segments;
+	private final ITagMatcher tagMatcher;
+	private final boolean useBinaryLog;
+	
+	/**
+	 * The index of the next segment to open. Once this reaches the
+	 * number of segments, the log file itself is next.
+	 */
+	private int nextSegment = 0;
+	private LogEntryReader current;
+	
+	/**
+	 * Set when a skipped segment has been replaced with a single
+	 * placeholder entry. That entry has no tags, and marks where the
+	 * segment began, so that the entry before it isn't treated as having
+	 * lasted until the following segment.
+	 */
+	private boolean placeholder = false;
+	private long placeholderTimestamp;
+	
+	private long timestamp;
+	private int pingCount;
+	private long gapEnd;
+	private List<String> tags;
+	
+	/**
+	 * @param tagMatcher If this is a {@link TagMatcher}, segments without
+	 *            any of its accepted tags are skipped. May be null.
+	 * @param useBinaryLog Whether to read each segment from its binary
+	 *            copy. See {@link BinaryLog}.
+	 */
+	public SegmentedLogReader(File logFile, ITagMatcher tagMatcher,
+				boolean useBinaryLog) {
+		this.logFile = logFile;
+		this.tagMatcher = tagMatcher;
+		this.useBinaryLog = useBinaryLog;
+		segments = new LogSegments(logFile, false).getSegments();
+	}
+	
+	@Override
+	public boolean next() throws IOException {
+		while(true) {
+			if(placeholder) {
+				placeholder = false;
+				timestamp = placeholderTimestamp;
+				pingCount = 1;
+				gapEnd = timestamp + 1;
+				tags = Collections.<String>emptyList();
+				return true;
+			}
+			
+			if(current != null) {
+				if(current.next()) {
+					timestamp = current.getTimestamp();
+					pingCount = current.getPingCount();
+					gapEnd = current.getGapEnd();
+					tags = current.getTags();
+					return true;
+				}
+				
+				current.close();
+				current = null;
+			}
+			
+			if(!openNext()) {
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * Skips forward to the first entry at or after the given time, and
+	 * makes it the current entry. Whole segments ending before that time
+	 * are skipped without being read.
+	 * @return False if there is no such entry.
+	 */
+	public boolean seek(long timestampInSeconds) throws IOException {
+		if(current == null && !placeholder) {
+			while(nextSegment < segments.size()
+						&& segments.get(nextSegment).maxTimestamp < timestampInSeconds) {
+				nextSegment++;
+			}
+		}
+		
+		while(next()) {
+			if(timestamp >= timestampInSeconds) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Opens the next segment, or the log file after the last segment.
+	 * @return False if everything has been read.
+	 */
+	private boolean openNext() throws IOException {
+		if(nextSegment > segments.size()) {
+			return false;
+		}
+		
+		if(nextSegment == segments.size()) {
+			nextSegment++;
+			if(!logFile.exists()) {
+				return false;
+			}
+			current = openFile(logFile, true);
+			return true;
+		}
+		
+		LogSegments.Summary segment = segments.get(nextSegment++);
+		if(segment.pingCount == 0) {
+			return true;
+		}
+		
+		if(tagMatcher instanceof TagMatcher
+					&& !((TagMatcher) tagMatcher).mayMatchAny(segment.tagCounts.keySet())) {
+			placeholder = true;
+			placeholderTimestamp = segment.minTimestamp;
+			return true;
+		}
+		
+		current = openFile(segment.file, false);
+		return true;
+	}
+	
+	private LogEntryReader openFile(File file, boolean hasOverflow)
+				throws FileNotFoundException {
+		if(useBinaryLog && !(hasOverflow
+					&& MergedLogReader.getOverflowFile(file).exists())) {
+			try {
+				BinaryLog.update(file);
+				return new BinaryLogReader(BinaryLog.getBinaryFile(file));
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		return new TextLogReader(file);
+	}
+	
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	@Override
+	public int getPingCount() {
+		return pingCount;
+	}
+	
+	@Override
+	public long getGapEnd() {
+		return gapEnd;
+	}
+	
+	@Override
+	public List<String> getTags() {
+		return tags;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(current != null) {
+			current.close();
+			current = null;
+		}
+		nextSegment = segments.size() + 1;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads entries from a text log, including any entries waiting in its
+ * overflow segment.
+ * @see LogLineCodec.Entry
+ */
+public class TextLogReader implements LogEntryReader {
+	private final MergedLogReader logFileIn;
+	
+	private final LogLineCodec.Entry entry = new LogLineCodec.Entry();
+	
+	public TextLogReader(File logFile) throws FileNotFoundException {
+		logFileIn = new MergedLogReader(logFile);
+	}
+	
+	@Override
+	public boolean next() throws IOException {
+		String line;
+		while((line = logFileIn.readLine()) != null) {
+			if(entry.decodeRaw(line)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public long getTimestamp() {
+		return entry.getTimestamp();
+	}
+	
+	@Override
+	public int getPingCount() {
+		return entry.getPingCount();
+	}
+	
+	@Override
+	public long getGapEnd() {
+		return entry.getGapEnd();
+	}
+	
+	@Override
+	public List<String> getTags() {
+		return entry.getTags();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		logFileIn.close();
+	}
+}
@@ -0,0 +1,787 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tagtime.settings.SettingType;
+import tagtime.util.BackwardsAccessFile;
+
+/**
+ * <p>
+ * Stores a log as a text file, one line per entry, which can be read
+ * and edited by hand. This is the default {@link PingStore}.
+ * </p>
+ * <p>
+ * Lines that belong at the end of the log are appended. Lines that
+ * belong earlier are inserted in place, which means rewriting every line
+ * after them; {@link LogIndex} finds the place, and {@link LogCheckpoint}
+ * protects the rewrite. Optionally, those lines are written to an
+ * overflow segment instead (see {@link MergedLogReader}), and earlier
+ * months are moved into separate files (see {@link LogSegments}).
+ * </p>
+ */
+public class TextPingStore implements PingStore {
+	private final File logFileLocation;
+	private BackwardsAccessFile logFile;
+	
+	/**
+	 * Used to find where to insert pings that are older than the final
+	 * line of the log.
+	 */
+	private final LogIndex index;
+	
+	/**
+	 * If true, pings older than the final line of the log are appended
+	 * to the overflow segment rather than being inserted into the log.
+	 * @see SettingType#APPEND_ONLY_LOG
+	 */
+	private final boolean appendOnly;
+	
+	/**
+	 * Whether to sync the overflow, segments and checkpoint after
+	 * writing to them.
+	 */
+	private final boolean sync;
+	
+	/**
+	 * Whether to read from the binary copy of the log where possible.
+	 * @see SettingType#BINARY_LOG
+	 */
+	private final boolean useBinaryLog;
+	
+	/**
+	 * Marks how much of the log is known to be intact.
+	 */
+	private final LogCheckpoint checkpoint;
+	
+	/**
+	 * Holds the months before the current one, or null if the log isn't
+	 * segmented.
+	 * @see SettingType#SEGMENTED_LOG
+	 */
+	private final LogSegments segments;
+	
+	/**
+	 * The start of the earliest month still in the log file itself.
+	 * Pings older than this go into the segments instead.
+	 */
+	private long segmentCutoff = -1;
+	
+	private long lastTimestamp = -1;
+	private String lastEntry = null;
+	
+	/**
+	 * Used to find the part of the log that was edited, when it's edited
+	 * by hand. This is null until {@link #reload()} is first called.
+	 */
+	private LogChecksums checksums = null;
+	
+	/**
+	 * Set if a write fails, so that the checkpoint isn't moved past
+	 * whatever it left behind.
+	 */
+	private boolean failed = false;
+	
+	/**
+	 * Opens the given log, repairing any damage left by a crash.
+	 * @param sync Whether to sync files after writing to them.
+	 * @param appendOnly See {@link SettingType#APPEND_ONLY_LOG}.
+	 * @param segmented See {@link SettingType#SEGMENTED_LOG}. A log that
+	 *            has already been segmented stays that way.
+	 * @param useBinaryLog See {@link SettingType#BINARY_LOG}.
+	 */
+	public TextPingStore(File logFile, boolean sync, boolean appendOnly,
+				boolean segmented, boolean useBinaryLog) {
+		logFileLocation = logFile;
+		this.sync = sync;
+		this.useBinaryLog = useBinaryLog;
+		
+		//repair any damage left by a crash before reading anything
+		checkpoint = new LogCheckpoint(logFileLocation, sync);
+		try {
+			LogCompactor.recover(logFileLocation);
+			checkpoint.recover();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		
+		findLastEntry();
+		
+		index = new LogIndex(logFileLocation);
+		
+		//move any earlier months out of the log before writing to it
+		if(segmented || LogSegments.exists(logFileLocation)) {
+			segments = new LogSegments(logFileLocation, sync);
+			compactOverflow();
+			sealSegments();
+			
+			if(lastTimestamp < 0) {
+				findLastSegmentEntry();
+			}
+		} else {
+			segments = null;
+		}
+		
+		this.appendOnly = appendOnly;
+		if(appendOnly || segments != null
+					|| MergedLogReader.getOverflowFile(logFileLocation).exists()) {
+			LogCompactor.schedule(this);
+		}
+	}
+	
+	@Override
+	public synchronized void append(String lines, long[] timestamps, int[] lengths,
+				int count) throws IOException {
+		write(lines, timestamps, lengths, count, true);
+	}
+	
+	@Override
+	public synchronized void insert(String lines, long[] timestamps, int[] lengths,
+				int count) throws IOException {
+		write(lines, timestamps, lengths, count, false);
+	}
+	
+	private void write(String lines, long[] timestamps, int[] lengths, int count,
+				boolean append) throws IOException {
+		String lastLine = lines.substring(lines.length() - lengths[count - 1],
+					lines.length() - 1);
+		
+		try {
+			//pings from earlier months belong in the segments
+			if(timestamps[0] < segmentCutoff) {
+				int segmentCount = 0;
+				int segmentLength = 0;
+				while(segmentCount < count && timestamps[segmentCount] < segmentCutoff) {
+					segmentLength += lengths[segmentCount++];
+				}
+				
+				segments.insert(lines.substring(0, segmentLength));
+				
+				if(segmentCount == count) {
+					return;
+				}
+				
+				lines = lines.substring(segmentLength);
+				timestamps = Arrays.copyOfRange(timestamps, segmentCount, count);
+				lengths = Arrays.copyOfRange(lengths, segmentCount, count);
+				count -= segmentCount;
+			}
+			
+			if(!append && appendOnly) {
+				logToOverflow(lines);
+				return;
+			}
+			
+			if(logFile == null) {
+				logFile = new BackwardsAccessFile(logFileLocation, "rw");
+			}
+			
+			long writeStart;
+			if(append) {
+				writeStart = logFile.length();
+				checkpoint.append(logFile, writeStart, lines.length());
+				logFile.seek(writeStart);
+				logFile.writeBytes(lines);
+				
+				long writePosition = writeStart;
+				for(int i = 0; i < count; i++) {
+					index.lineWritten(writePosition, timestamps[i], lengths[i]);
+					writePosition += lengths[i];
+				}
+			} else if(count == 1) {
+				writeStart = insertLine(lines, timestamps[0]);
+			} else {
+				writeStart = mergeBlock(lines, timestamps, count);
+			}
+			
+			//so that this write isn't mistaken for an edit
+			if(checksums != null) {
+				checksums.update(logFile, writeStart);
+			}
+		} catch(IOException e) {
+			failed = true;
+			throw e;
+		} finally {
+			if(!failed) {
+				setLastEntry(lastLine, true);
+			}
+		}
+	}
+	
+	/**
+	 * Inserts a single line into the log, in the correct place for its
+	 * timestamp.
+	 * @return The position at which the line was inserted.
+	 */
+	private long insertLine(String line, long timestampInSeconds) throws IOException {
+		//special case: check if this ping goes immediately before the
+		//final line of the file
+		long prevTimestamp = timestampInSeconds + 1;
+		try {
+			logFile.seekLastLine("");
+			String prevLine = logFile.readPreviousLine("0123456789");
+			prevTimestamp = Long.parseLong(prevLine.substring(0,
+							prevLine.indexOf(' ')));
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+		
+		//if it does, simply place it there
+		if(prevTimestamp < timestampInSeconds) {
+			//the pointer is already in the correct spot
+		}
+		
+		//if not, jump to the nearest indexed line and search forward
+		//from there
+		else {
+			seekToTimestamp(timestampInSeconds);
+		}
+		
+		//copy all data following the file pointer, so that the current
+		//data can be inserted without overwriting anything
+		long insertionPosition = logFile.getFilePointer();
+		String extraData = readToEnd();
+		
+		//everything after the line will be rewritten, so save a copy in
+		//case the rewrite is interrupted
+		checkpoint.rewind(logFile, insertionPosition, line + extraData);
+		
+		logFile.seek(insertionPosition);
+		logFile.writeBytes(line);
+		logFile.writeBytes(extraData);
+		
+		index.lineWritten(insertionPosition, timestampInSeconds, line.length());
+		
+		return insertionPosition;
+	}
+	
+	/**
+	 * Moves the file pointer to the start of the first line with a
+	 * timestamp no earlier than the given one, or to the end of the file
+	 * if there is no such line.
+	 */
+	private void seekToTimestamp(long timestampInSeconds) throws IOException {
+		long lineStart = index.findOffsetBefore(timestampInSeconds);
+		long position = lineStart;
+		
+		//RandomAccessFile.readLine() reads one byte at a time, so buffer
+		//the channel instead (it shares the file pointer, and is left
+		//open)
+		logFile.seek(lineStart);
+		InputStream in = new BufferedInputStream(Channels.newInputStream(logFile.getChannel()));
+		StringBuilder line = new StringBuilder();
+		int character;
+		while((character = in.read()) >= 0) {
+			position++;
+		
+			if(character != '\n' && character != '\r') {
+				line.append((char) character);
+				continue;
+			}
+			
+			//treat "\r\n" as a single line break
+			if(character == '\r') {
+				in.mark(1);
+				if(in.read() == '\n') {
+					position++;
+				} else {
+					in.reset();
+				}
+			}
+			
+			if(parseTimestamp(line.toString()) >= timestampInSeconds) {
+				break;
+			}
+			
+			lineStart = position;
+			line.setLength(0);
+		}
+		
+		//a final line with no line break
+		if(character < 0 && parseTimestamp(line.toString()) < timestampInSeconds) {
+			lineStart = position;
+		}
+		
+		logFile.seek(lineStart);
+	}
+	
+	/**
+	 * Reads everything from the file pointer to the end of the log in a
+	 * single read, with every line ending in '\n', as if it had been
+	 * read with {@link RandomAccessFile#readLine()}.
+	 */
+	private String readToEnd() throws IOException {
+		byte[] bytes = new byte[(int) (logFile.length() - logFile.getFilePointer())];
+		logFile.readFully(bytes);
+		
+		String data = new String(bytes, StandardCharsets.ISO_8859_1);
+		if(data.indexOf('\r') >= 0) {
+			data = data.replace("\r\n", "\n").replace('\r', '\n');
+		}
+		if(data.length() > 0 && data.charAt(data.length() - 1) != '\n') {
+			data += '\n';
+		}
+		
+		return data;
+	}
+	
+	/**
+	 * @return The timestamp at the start of the given line, or -1 if
+	 *         the line doesn't start with one.
+	 */
+	private static long parseTimestamp(String line) {
+		try {
+			return Long.parseLong(line.substring(0, line.indexOf(' ')));
+		} catch(NumberFormatException e) {
+		} catch(StringIndexOutOfBoundsException e) {}
+		
+		return -1;
+	}
+	
+	/**
+	 * Merges a block of lines into the log, rewriting everything from
+	 * the first line that belongs after the start of the block. Lines
+	 * that are already in the log come first when timestamps are equal.
+	 * @return The position from which the log was rewritten.
+	 */
+	private long mergeBlock(String lines, long[] timestamps, int count)
+				throws IOException {
+		seekToTimestamp(timestamps[0]);
+		long insertionPosition = logFile.getFilePointer();
+		
+		List<String> existingLines = new ArrayList<String>();
+		String existingData = readToEnd();
+		int existingStart = 0;
+		int existingEnd;
+		while(existingStart < existingData.length()) {
+			existingEnd = existingData.indexOf('\n', existingStart);
+			existingLines.add(existingData.substring(existingStart, existingEnd));
+			existingStart = existingEnd + 1;
+		}
+		
+		StringBuilder merged = new StringBuilder(lines.length()
+					+ (int) (logFile.length() - insertionPosition));
+		int existing = 0;
+		int lineStart = 0;
+		int lineEnd;
+		for(int i = 0; i < count; i++) {
+			while(existing < existingLines.size()
+						&& parseTimestamp(existingLines.get(existing)) <= timestamps[i]) {
+				merged.append(existingLines.get(existing++)).append('\n');
+			}
+			
+			lineEnd = lines.indexOf('\n', lineStart) + 1;
+			merged.append(lines, lineStart, lineEnd);
+			lineStart = lineEnd;
+		}
+		while(existing < existingLines.size()) {
+			merged.append(existingLines.get(existing++)).append('\n');
+		}
+		
+		String rewrite = merged.toString();
+		checkpoint.rewind(logFile, insertionPosition, rewrite);
+		logFile.seek(insertionPosition);
+		logFile.writeBytes(rewrite);
+		
+		index.tailRewritten(insertionPosition, insertionPosition + existingData.length(),
+					rewrite);
+		
+		return insertionPosition;
+	}
+	
+	/**
+	 * Appends one or more lines to the overflow segment, syncing it if
+	 * necessary.
+	 */
+	private void logToOverflow(String annotatedData) throws IOException {
+		FileOutputStream fileOut = new FileOutputStream(
+					MergedLogReader.getOverflowFile(logFileLocation), true);
+		Writer out = new OutputStreamWriter(fileOut, StandardCharsets.ISO_8859_1);
+		try {
+			out.write(annotatedData);
+			out.flush();
+			
+			if(sync) {
+				fileOut.getFD().sync();
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Syncs the log if necessary, then moves the checkpoint to the end
+	 * of it and closes it, so that it can be edited or compacted until
+	 * the next write. The index is saved at the same time, rather than
+	 * after every write; if it isn't saved, it no longer matches the
+	 * log's length, and will be rebuilt.
+	 */
+	@Override
+	public synchronized void commit(boolean sync) throws IOException {
+		if(logFile == null) {
+			failed = false;
+			return;
+		}
+		
+		try {
+			if(sync) {
+				logFile.getFD().sync();
+			}
+			
+			if(!failed) {
+				checkpoint.update(logFile);
+			}
+		} finally {
+			failed = false;
+			index.saveChanges();
+			logFile.close();
+			logFile = null;
+		}
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		index.saveChanges();
+		if(logFile != null) {
+			logFile.close();
+			logFile = null;
+		}
+	}
+	
+	/**
+	 * Reads the log, including the overflow and any segments. The binary
+	 * copy of the log is used if it's enabled and can be brought up to
+	 * date.
+	 */
+	@Override
+	public LogEntryReader scan(final long from, final long to) throws IOException {
+		final LogEntryReader in = LogParser.openReader(logFileLocation, null, useBinaryLog);
+		return new LogEntryReader() {
+			@Override
+			public boolean next() throws IOException {
+				while(in.next()) {
+					if(in.getTimestamp() >= to) {
+						return false;
+					}
+					
+					if(in.getGapEnd() > from) {
+						return true;
+					}
+				}
+				
+				return false;
+			}
+			
+			@Override
+			public long getTimestamp() {
+				return in.getTimestamp();
+			}
+			
+			@Override
+			public int getPingCount() {
+				return in.getPingCount();
+			}
+			
+			@Override
+			public long getGapEnd() {
+				return in.getGapEnd();
+			}
+			
+			@Override
+			public List<String> getTags() {
+				return in.getTags();
+			}
+			
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		};
+	}
+	
+	@Override
+	public long getLastTimestamp() {
+		return lastTimestamp;
+	}
+	
+	@Override
+	public String getLastEntry() {
+		return lastEntry;
+	}
+	
+	/**
+	 * Finds the part of the log file that was edited by hand, if any, and
+	 * brings the index, the final entry, the checkpoint and the binary
+	 * copy up to date, reading only the lines that changed.
+	 */
+	@Override
+	public synchronized Change reload() throws IOException {
+		if(checksums == null) {
+			checksums = new LogChecksums(logFileLocation);
+			return null;
+		}
+		
+		//an editor may delete the log briefly while saving it
+		if(checksums.isCurrent() || !logFileLocation.exists()) {
+			return null;
+		}
+		
+		LogChecksums.Change change = checksums.findChange();
+		if(change == null) {
+			return null;
+		}
+		
+		index.rangeChanged(change.start, change.oldEnd, change.newEnd);
+		BinaryLog.truncate(logFileLocation, change.start);
+		
+		//read the changed lines, and the entries on either side of them,
+		//which mark the range of time that changed
+		LogLineCodec.Entry entry = new LogLineCodec.Entry();
+		long from = segments != null ? segmentCutoff : Long.MIN_VALUE;
+		long to = Long.MAX_VALUE;
+		String lines;
+		BackwardsAccessFile file = new BackwardsAccessFile(logFileLocation, "r");
+		try {
+			byte[] changedBytes = new byte[(int) (change.newEnd - change.start)];
+			file.seek(change.start);
+			file.readFully(changedBytes);
+			lines = new String(changedBytes, StandardCharsets.ISO_8859_1);
+			
+			long lineStart;
+			file.seek(change.start);
+			while(file.getFilePointer() > 0) {
+				file.seekPreviousLine("0123456789");
+				lineStart = file.getFilePointer();
+				if(entry.decodeRaw(file.readLine())) {
+					from = entry.getGapEnd();
+					break;
+				}
+				file.seek(lineStart);
+			}
+			
+			file.seek(change.newEnd);
+			String line;
+			while((line = file.readLine()) != null) {
+				if(entry.decodeRaw(line)) {
+					to = entry.getTimestamp();
+					break;
+				}
+			}
+			
+			if(to != Long.MAX_VALUE) {
+				checkpoint.update(file);
+			}
+		} finally {
+			file.close();
+		}
+		
+		//the final entry can only have changed if no entry follows the
+		//changed lines
+		if(to == Long.MAX_VALUE) {
+			lastTimestamp = -1;
+			lastEntry = null;
+			findLastEntry();
+			
+			if(segments != null && lastTimestamp < 0) {
+				findLastSegmentEntry();
+			}
+		}
+		
+		if(segments != null) {
+			segments.updateConcatenatedView();
+		}
+		
+		//entries from the overflow may be mixed in with the changed lines
+		if(MergedLogReader.getOverflowFile(logFileLocation).exists()) {
+			lines = null;
+		}
+		
+		return new Change(from, to, lines);
+	}
+	
+	/**
+	 * Folds the overflow segment back into the log. This is skipped if
+	 * the log file is currently held open, and will be retried at the
+	 * next scheduled compaction.
+	 * @return Whether anything was compacted.
+	 * @see LogCompactor
+	 */
+	public synchronized boolean compactOverflow() {
+		if(logFile != null) {
+			return false;
+		}
+		
+		try {
+			if(LogCompactor.compact(logFileLocation)) {
+				index.rebuild();
+				
+				RandomAccessFile file = new RandomAccessFile(logFileLocation, "r");
+				try {
+					checkpoint.update(file);
+					if(checksums != null) {
+						checksums.update(file, 0);
+					}
+				} finally {
+					file.close();
+				}
+				return true;
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Moves every month before the current one out of the log file and
+	 * into its own segment, then updates the concatenated copy of the
+	 * log. This is skipped if the log isn't segmented or if the log file
+	 * is currently held open.
+	 * @return Whether anything was moved.
+	 * @see LogSegments
+	 */
+	public synchronized boolean sealSegments() {
+		if(segments == null || logFile != null) {
+			return false;
+		}
+		
+		boolean sealed = false;
+		try {
+			long cutoff = LogSegments.getMonthStart(System.currentTimeMillis() / 1000);
+			if(cutoff > segmentCutoff) {
+				sealed = segments.seal(cutoff);
+				segmentCutoff = cutoff;
+			}
+			
+			if(sealed) {
+				index.rebuild();
+				
+				RandomAccessFile file = new RandomAccessFile(logFileLocation, "r");
+				try {
+					checkpoint.update(file);
+					if(checksums != null) {
+						checksums.update(file, 0);
+					}
+				} finally {
+					file.close();
+				}
+			}
+			
+			segments.updateConcatenatedView();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		
+		return sealed;
+	}
+	
+	/**
+	 * Reads the final entry of the latest segment, for when the log file
+	 * itself has no entries yet.
+	 */
+	private void findLastSegmentEntry() {
+		File segmentFile = segments.getLastSegmentFile();
+		if(segmentFile == null) {
+			return;
+		}
+		
+		try {
+			BackwardsAccessFile file = new BackwardsAccessFile(segmentFile, "r");
+			try {
+				String lastLine = file.readLastLine("0123456789");
+				if(lastLine != null) {
+					setLastEntry(lastLine, false);
+				}
+			} finally {
+				file.close();
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private void findLastEntry() {
+		try {
+			logFile = new BackwardsAccessFile(logFileLocation, "rw");
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		try {
+			//get the final line with a digit on it
+			String lastLine = logFile.readLastLine("0123456789");
+			
+			if(lastLine != null) {
+				setLastEntry(lastLine, false);
+			}
+			
+			checkpoint.update(logFile);
+		} catch(Exception e) {}
+		
+		try {
+			logFile.close();
+			logFile = null;
+		} catch(IOException e) {}
+		
+		//the overflow shouldn't contain anything later than the log, but
+		//check in case either file was edited by hand
+		List<String> overflow = MergedLogReader.readOverflow(logFileLocation);
+		if(!overflow.isEmpty()) {
+			setLastEntry(overflow.get(overflow.size() - 1), true);
+		}
+	}
+	
+	/**
+	 * Records the given line as the final entry in the log, if it's an
+	 * entry. The final ping of a gap record counts as its timestamp.
+	 * @param onlyIfLater Whether to ignore the line if it isn't later
+	 *            than the current final entry.
+	 */
+	private void setLastEntry(String line, boolean onlyIfLater) {
+		LogLineCodec.Entry entry = new LogLineCodec.Entry();
+		if(!entry.decodeRaw(line)) {
+			return;
+		}
+		
+		long timestamp = entry.getGapEnd() - 1;
+		if(onlyIfLater && timestamp <= lastTimestamp) {
+			return;
+		}
+		
+		lastTimestamp = timestamp;
+		lastEntry = line;
+	}
+}
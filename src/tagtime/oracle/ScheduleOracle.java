@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.oracle;
+
+import java.io.File;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.quartz.spi.MutableTrigger;
+
+import tagtime.quartz.CheckpointIndex;
+import tagtime.quartz.RandomizedScheduleBuilder;
+import tagtime.quartz.RandomizedTrigger;
+import tagtime.random.SequenceAlgorithm;
+
+/**
+ * <p>
+ * Keeps warm triggers for many different schedules, so that questions
+ * about any schedule can be answered without rebuilding its trigger
+ * from scratch each time.
+ * </p>
+ * <p>
+ * A schedule is identified by its RNG algorithm, RNG key and average
+ * gap. At most <code>capacity</code> triggers are kept in memory; when
+ * that limit is reached, the least recently used trigger is discarded.
+ * If a checkpoint directory is given, each trigger saves its checkpoints
+ * there, so a discarded schedule can be rebuilt quickly later.
+ * </p>
+ */
+public class ScheduleOracle {
+	public static final int DEFAULT_CAPACITY = 64;
+	
+	private final File checkpointDirectory;
+	private final Map<String, RandomizedTrigger> triggers;
+	
+	/**
+	 * @param capacity The maximum number of triggers to keep in memory.
+	 * @param checkpointDirectory The directory to save checkpoints in, or
+	 *            null to keep them in memory only.
+	 */
+	public ScheduleOracle(final int capacity, File checkpointDirectory) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+		
+		this.checkpointDirectory = checkpointDirectory;
+		
+		//an access-ordered map keeps the least recently used entry first
+		triggers = new LinkedHashMap<String, RandomizedTrigger>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, RandomizedTrigger> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the trigger for the given schedule, creating it if it isn't
+	 * already in memory.
+	 * @param algorithm The name of the RNG algorithm. If this is null or
+	 *            empty, the default will be used.
+	 * @param rngKey The RNG key. This is required.
+	 * @param gapMinutes The average gap between pings, in minutes.
+	 * @throws IllegalArgumentException If any of the parameters are
+	 *             invalid.
+	 */
+	public RandomizedTrigger getTrigger(String algorithm, String rngKey, int gapMinutes) {
+		SequenceAlgorithm sequenceAlgorithm;
+		try {
+			sequenceAlgorithm = SequenceAlgorithm.fromName(algorithm);
+		} catch(IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown RNG algorithm \"" + algorithm + "\".");
+		}
+		if(rngKey == null || rngKey.equals("")) {
+			throw new IllegalArgumentException("An RNG key is required.");
+		}
+		if(gapMinutes < 1) {
+			throw new IllegalArgumentException("The gap must be at least one minute.");
+		}
+		
+		long interval = gapMinutes * 60L * 1000L;
+		String fingerprint = CheckpointIndex.createFingerprint(
+					sequenceAlgorithm.name(), rngKey, interval);
+		
+		RandomizedTrigger trigger;
+		synchronized(triggers) {
+			trigger = triggers.get(fingerprint);
+		}
+		if(trigger != null) {
+			return trigger;
+		}
+		
+		//build outside the lock, so that a slow build doesn't hold up
+		//requests for other schedules
+		RandomizedScheduleBuilder scheduleBuilder =
+					RandomizedScheduleBuilder.repeatMinutelyForever(gapMinutes)
+								.withRNGKey(rngKey)
+								.withRNGAlgorithm(sequenceAlgorithm.name());
+		if(checkpointDirectory != null) {
+			scheduleBuilder.withCheckpointFile(
+						new File(checkpointDirectory, fingerprint + ".schedule"));
+		}
+		
+		//these triggers are never scheduled, so they don't need the
+		//identity a TriggerBuilder would give them
+		MutableTrigger builtTrigger = scheduleBuilder.build();
+		if(builtTrigger == null) {
+			throw new IllegalArgumentException("Invalid RNG key.");
+		}
+		builtTrigger.setStartTime(new Date(RandomizedTrigger.CALENDAR_START));
+		trigger = (RandomizedTrigger) builtTrigger;
+		
+		synchronized(triggers) {
+			//another thread may have built the same trigger in the meantime
+			RandomizedTrigger existing = triggers.get(fingerprint);
+			if(existing != null) {
+				return existing;
+			}
+			
+			triggers.put(fingerprint, trigger);
+		}
+		
+		return trigger;
+	}
+	
+	/**
+	 * @return The number of triggers currently in memory.
+	 */
+	public int size() {
+		synchronized(triggers) {
+			return triggers.size();
+		}
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.oracle;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import tagtime.quartz.RandomizedTrigger;
+
+/**
+ * <p>
+ * A small HTTP service answering questions about any randomized ping
+ * schedule. It only listens on the loopback interface. Every request
+ * identifies a schedule with these query parameters:
+ * </p>
+ * <ul>
+ * <li><code>key</code>: the RNG key (required).</li>
+ * <li><code>gap</code>: the average gap between pings, in minutes
+ * (required).</li>
+ * <li><code>algorithm</code>: the RNG algorithm (optional; defaults to
+ * AES).</li>
+ * </ul>
+ * <p>
+ * The supported requests are:
+ * </p>
+ * <ul>
+ * <li><code>/next?t=</code>: the first ping after time t.</li>
+ * <li><code>/previous?t=</code>: the last ping before time t.</li>
+ * <li><code>/range?from=&to=</code>: every ping from <code>from</code>
+ * (inclusive) to <code>to</code> (exclusive), one per line.</li>
+ * </ul>
+ * <p>
+ * All times are in milliseconds since the epoch. Responses are plain
+ * text. Invalid requests receive a 400 response explaining the problem.
+ * </p>
+ */
+public class ScheduleOracleServer {
+	public static final int DEFAULT_PORT = 7717;
+	
+	/**
+	 * The largest number of pings a single range request may return.
+	 */
+	public static final int MAX_RANGE_SIZE = 1000000;
+	
+	static {
+		//responses are small, so without this, Nagle's algorithm delays
+		//each one by tens of milliseconds on keep-alive connections
+		if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+	
+	private final ScheduleOracle oracle;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	
+	/**
+	 * @param port The port to listen on, or 0 to pick any free port.
+	 * @param threads The number of requests to handle at once.
+	 */
+	public ScheduleOracleServer(ScheduleOracle oracle, int port, int threads) throws IOException {
+		this.oracle = oracle;
+		
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		
+		server.createContext("/next", new QueryHandler() {
+			@Override
+			protected void respond(RandomizedTrigger trigger, Map<String, String> parameters,
+						HttpExchange exchange) throws IOException {
+				long time = trigger.nextFireTimeMillis(getLong(parameters, "t"));
+				sendText(exchange, 200, time + "\n");
+			}
+		});
+		
+		server.createContext("/previous", new QueryHandler() {
+			@Override
+			protected void respond(RandomizedTrigger trigger, Map<String, String> parameters,
+						HttpExchange exchange) throws IOException {
+				long time = trigger.previousFireTimeMillis(getLong(parameters, "t"));
+				sendText(exchange, 200, time + "\n");
+			}
+		});
+		
+		server.createContext("/range", new QueryHandler() {
+			@Override
+			protected void respond(RandomizedTrigger trigger, Map<String, String> parameters,
+						HttpExchange exchange) throws IOException {
+				long from = getLong(parameters, "from");
+				long to = getLong(parameters, "to");
+				
+				//there are no pings before the calendar starts, and
+				//allowing earlier times would let the count below
+				//overflow
+				if(from < RandomizedTrigger.CALENDAR_START) {
+					throw new IllegalArgumentException("Parameter \"from\" must not be before "
+								+ RandomizedTrigger.CALENDAR_START + ".");
+				}
+				
+				//a range this long holds far more pings than the limit,
+				//and counting them would mean indexing all of it
+				if(to - from > 2L * MAX_RANGE_SIZE * trigger.getRepeatInterval()) {
+					throw new IllegalArgumentException("The range is too long; the limit is "
+								+ MAX_RANGE_SIZE + " pings.");
+				}
+				
+				//counting is cheap, so check the size before starting
+				if(from < to) {
+					long count = trigger.nextFireTimeIndex(to - 1)
+								- trigger.nextFireTimeIndex(from - 1);
+					if(count > MAX_RANGE_SIZE) {
+						throw new IllegalArgumentException("The range contains " + count
+									+ " pings; the limit is " + MAX_RANGE_SIZE + ".");
+					}
+				}
+				
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+				exchange.sendResponseHeaders(200, 0);
+				
+				Writer out = new BufferedWriter(new OutputStreamWriter(
+							exchange.getResponseBody(), "UTF-8"));
+				try {
+					PrimitiveIterator.OfLong times = trigger.fireTimes(from, to).iterator();
+					while(times.hasNext()) {
+						out.write(Long.toString(times.nextLong()));
+						out.write('\n');
+					}
+				} finally {
+					out.close();
+				}
+			}
+		});
+	}
+	
+	public void start() {
+		server.start();
+	}
+	
+	/**
+	 * Stops accepting requests, waiting up to the given number of
+	 * seconds for requests in progress to finish.
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+		} catch(InterruptedException e) {}
+	}
+	
+	/**
+	 * @return The port the server is listening on.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	public ScheduleOracle getOracle() {
+		return oracle;
+	}
+	
+	/**
+	 * Handles a request for a single schedule, reporting bad parameters
+	 * to the client.
+	 */
+	private abstract class QueryHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+				
+				RandomizedTrigger trigger = oracle.getTrigger(parameters.get("algorithm"),
+							parameters.get("key"), getInt(parameters, "gap"));
+				
+				respond(trigger, parameters, exchange);
+			} catch(IllegalArgumentException e) {
+				sendText(exchange, 400, e.getMessage() + "\n");
+			} catch(RuntimeException e) {
+				e.printStackTrace();
+				sendText(exchange, 500, "Internal error.\n");
+			} finally {
+				exchange.close();
+			}
+		}
+		
+		/**
+		 * Sends the answer to the request.
+		 * @throws IllegalArgumentException If the parameters are invalid.
+		 *             This may only be thrown before the response headers
+		 *             have been sent.
+		 */
+		protected abstract void respond(RandomizedTrigger trigger,
+					Map<String, String> parameters, HttpExchange exchange) throws IOException;
+	}
+	
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if(query == null) {
+			return parameters;
+		}
+		
+		try {
+			int equals;
+			for(String pair : query.split("&")) {
+				equals = pair.indexOf('=');
+				if(equals > 0) {
+					parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+								URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+				}
+			}
+		} catch(UnsupportedEncodingException e) {
+			//UTF-8 is always supported
+			throw new AssertionError(e);
+		}
+		
+		return parameters;
+	}
+	
+	private static long getLong(Map<String, String> parameters, String name) {
+		String value = parameters.get(name);
+		if(value == null) {
+			throw new IllegalArgumentException("Missing parameter \"" + name + "\".");
+		}
+		
+		try {
+			return Long.parseLong(value);
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Parameter \"" + name
+						+ "\" must be a whole number.");
+		}
+	}
+	
+	private static int getInt(Map<String, String> parameters, String name) {
+		long value = getLong(parameters, name);
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Parameter \"" + name + "\" is out of range.");
+		}
+		
+		return (int) value;
+	}
+	
+	private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+	
+	/**
+	 * Runs the server. Usage:
+	 * <code>ScheduleOracleServer [port] [capacity] [checkpoint directory]</code>
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int capacity = args.length > 1 ? Integer.parseInt(args[1])
+					: ScheduleOracle.DEFAULT_CAPACITY;
+		File checkpointDirectory = null;
+		if(args.length > 2) {
+			checkpointDirectory = new File(args[2]);
+			checkpointDirectory.mkdirs();
+		}
+		
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+		ScheduleOracleServer server = new ScheduleOracleServer(
+					new ScheduleOracle(capacity, checkpointDirectory), port, threads);
+		server.start();
+		
+		System.out.println("Schedule oracle listening on http://localhost:"
+					+ server.getPort() + "/");
+	}
+}
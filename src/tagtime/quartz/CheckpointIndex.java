@@ -0,0 +1,281 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.quartz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * <p>
+ * A sparse index of fire times, recording the time of every
+ * <code>BLOCK_SIZE</code>th index in a randomized schedule. This lets
+ * {@link RandomizedTriggerImpl} jump straight to the right part of the
+ * schedule instead of iterating all the way from
+ * {@link RandomizedTrigger#CALENDAR_START}.
+ * </p>
+ * <p>
+ * The index can optionally be saved to a file, so that it doesn't need
+ * to be rebuilt every time the program starts. The file records a
+ * fingerprint of the schedule it was built for; if the fingerprint
+ * doesn't match (for instance, because the user changed their RNG key
+ * or average gap), the file's contents are ignored and the index is
+ * rebuilt from scratch.
+ * </p>
+ */
+public class CheckpointIndex {
+	/**
+	 * The number of indices between consecutive checkpoints.
+	 */
+	public static final int BLOCK_SIZE = 1024;
+	
+	/**
+	 * Identifies checkpoint files, and distinguishes them from anything
+	 * else that might have ended up at the same location.
+	 */
+	private static final int FILE_IDENTIFIER = 0x54544349;
+	private static final int FILE_VERSION = 1;
+	
+	/**
+	 * The file to save to, or null if this index is only kept in memory.
+	 */
+	private final File file;
+	
+	private final String fingerprint;
+	
+	/**
+	 * <p>
+	 * The time of each checkpoint. The time of index
+	 * <code>n * BLOCK_SIZE</code> is stored at position <code>n</code>.
+	 * </p>
+	 * <p>
+	 * Checkpoints are only ever added at the end, so reading doesn't
+	 * require a lock. A new checkpoint is written to the array before
+	 * <code>size</code> is incremented, and if the array has to grow,
+	 * the new array is assigned before either of those. A thread that
+	 * reads <code>size</code> first is therefore guaranteed to see that
+	 * many valid checkpoints in whatever array it reads next.
+	 * </p>
+	 */
+	private volatile long[] blockStartTimes = new long[16];
+	private volatile int size = 0;
+	
+	/**
+	 * The number of checkpoints that have been written to the file.
+	 */
+	private int savedSize = 0;
+	
+	/**
+	 * Creates a checkpoint index, loading any previously-saved
+	 * checkpoints from the given file.
+	 * @param file The file to read from and save to. If this is null,
+	 *            the index will not be persisted.
+	 * @param fingerprint A value uniquely identifying the schedule. See
+	 *            {@link #createFingerprint(String, String, long)}.
+	 */
+	public CheckpointIndex(File file, String fingerprint) {
+		this.file = file;
+		this.fingerprint = fingerprint;
+		
+		if(file != null && file.exists()) {
+			load();
+		}
+		
+		if(size == 0) {
+			addBlock(RandomizedTrigger.CALENDAR_START);
+		}
+	}
+	
+	/**
+	 * Creates a fingerprint for the schedule produced by the given RNG
+	 * algorithm, key and interval. The key itself is hashed rather than
+	 * stored, so the checkpoint file doesn't leak it.
+	 */
+	public static String createFingerprint(String rngAlgorithm, String rngKey,
+				long repeatInterval) {
+		return DigestUtils.sha256Hex(rngAlgorithm + "|" + rngKey + "|" + repeatInterval);
+	}
+	
+	public String getFingerprint() {
+		return fingerprint;
+	}
+	
+	/**
+	 * @return The number of checkpoints recorded.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return The fire time at index <code>block * BLOCK_SIZE</code>.
+	 */
+	public long getBlockStartTime(int block) {
+		int currentSize = size;
+		if(block < 0 || block >= currentSize) {
+			throw new IndexOutOfBoundsException("Block " + block
+						+ " is not in the index (size " + currentSize + ").");
+		}
+		
+		return blockStartTimes[block];
+	}
+	
+	/**
+	 * @return The time of the final checkpoint.
+	 */
+	public long getLastBlockStartTime() {
+		int currentSize = size;
+		return blockStartTimes[currentSize - 1];
+	}
+	
+	/**
+	 * Records the time of the next checkpoint. This must be no earlier
+	 * than the previous checkpoint. Only one thread may add checkpoints
+	 * at a time; to extend the index, synchronize on it.
+	 */
+	public synchronized void addBlock(long startTime) {
+		long[] times = blockStartTimes;
+		int currentSize = size;
+		
+		if(currentSize > 0 && startTime < times[currentSize - 1]) {
+			throw new IllegalArgumentException("Checkpoints must be added in order.");
+		}
+		
+		if(currentSize == times.length) {
+			times = Arrays.copyOf(times, currentSize * 2);
+			blockStartTimes = times;
+		}
+		
+		times[currentSize] = startTime;
+		size = currentSize + 1;
+	}
+	
+	/**
+	 * Finds the last checkpoint at or before the given time.
+	 * @return The block number of the checkpoint, or -1 if the given
+	 *         time is before the first checkpoint.
+	 */
+	public int findBlock(long time) {
+		int high = size;
+		long[] times = blockStartTimes;
+		
+		//find the first block starting after the given time
+		int low = 0;
+		int mid;
+		while(low < high) {
+			mid = (low + high) >>> 1;
+			if(times[mid] <= time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		
+		//the block before that one contains the given time
+		return low - 1;
+	}
+	
+	/**
+	 * Writes the index to its file, if it has one and if anything has
+	 * changed since the last save.
+	 */
+	public synchronized void save() {
+		if(file == null || savedSize == size) {
+			return;
+		}
+		
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(file)));
+			out.writeInt(FILE_IDENTIFIER);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(BLOCK_SIZE);
+			out.writeUTF(fingerprint);
+			out.writeInt(size);
+			for(int i = 0; i < size; i++) {
+				out.writeLong(blockStartTimes[i]);
+			}
+			
+			savedSize = size;
+		} catch(IOException e) {
+			e.printStackTrace();
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+	
+	/**
+	 * Reads the index from its file, leaving it empty if the file was
+	 * built for a different schedule or can't be read.
+	 */
+	private void load() {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(file)));
+			if(in.readInt() != FILE_IDENTIFIER
+						|| in.readInt() != FILE_VERSION
+						|| in.readInt() != BLOCK_SIZE
+						|| !fingerprint.equals(in.readUTF())) {
+				return;
+			}
+			
+			int count = in.readInt();
+			long time;
+			for(int i = 0; i < count; i++) {
+				time = in.readLong();
+				
+				//discard anything that can't be right
+				if(i == 0 ? time != RandomizedTrigger.CALENDAR_START
+							: time < blockStartTimes[size - 1]) {
+					size = 0;
+					return;
+				}
+				
+				addBlock(time);
+			}
+			
+			savedSize = size;
+		} catch(IOException e) {
+			//a truncated or otherwise unreadable file will simply be
+			//rebuilt
+			size = 0;
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) {}
+			}
+		}
+	}
+}
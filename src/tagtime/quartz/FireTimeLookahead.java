@@ -0,0 +1,213 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.quartz;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Keeps a small buffer of upcoming fire times, so that the scheduler's
+ * repeated requests for the next fire time can be answered by reading
+ * an array, without any work for the random number generator.
+ * </p>
+ * <p>
+ * The buffer is refilled on a background thread whenever it starts to
+ * run low. It is never modified once it has been filled; refilling it
+ * creates a new buffer, so it can be read by any thread without locks.
+ * </p>
+ */
+class FireTimeLookahead {
+	/**
+	 * The number of fire times to keep.
+	 */
+	private static final int CAPACITY = 32;
+	
+	/**
+	 * Once a lookup lands within this many fire times of the end of the
+	 * buffer, the buffer will be refilled.
+	 */
+	private static final int REFILL_THRESHOLD = 8;
+	
+	/**
+	 * Refills buffers for every trigger. This uses a single daemon
+	 * thread, so it won't keep the program running.
+	 */
+	private static final ExecutorService REFILL_EXECUTOR =
+				Executors.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Fire time lookahead");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	
+	private final RandomizedTriggerImpl trigger;
+	
+	private volatile Buffer buffer = null;
+	
+	/**
+	 * Whether a refill has been requested and not yet finished. Only
+	 * one refill may be pending at a time.
+	 */
+	private final AtomicBoolean refillPending = new AtomicBoolean(false);
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	FireTimeLookahead(RandomizedTriggerImpl trigger) {
+		this.trigger = trigger;
+	}
+	
+	/**
+	 * Returns the first fire time after the given time, reading it from
+	 * the buffer if possible.
+	 */
+	public long getFireTimeAfter(long target) {
+		Buffer current = buffer;
+		
+		if(current != null) {
+			long[] times = current.times;
+			
+			if(times[0] <= target && target < times[times.length - 1]) {
+				//find the first time after the target (lookups almost
+				//always land near the start, so check there first)
+				int position = 1;
+				if(times[position] <= target) {
+					int low = 2;
+					int high = times.length - 1;
+					int mid;
+					while(low < high) {
+						mid = (low + high) >>> 1;
+						if(times[mid] <= target) {
+							low = mid + 1;
+						} else {
+							high = mid;
+						}
+					}
+					position = low;
+				}
+				
+				hits.incrementAndGet();
+				
+				if(times.length - position <= REFILL_THRESHOLD) {
+					requestRefill(current.firstIndex + position - 1);
+				}
+				
+				return times[position];
+			}
+		}
+		
+		misses.incrementAndGet();
+		
+		long index = trigger.nextFireTimeIndex(target);
+		
+		//only move the buffer forwards; lookups of past fire times are
+		//unlikely to be followed by more lookups nearby
+		if(current == null || target >= current.times[current.times.length - 1]) {
+			requestRefill(index - 1);
+		}
+		
+		return trigger.fireTimeMillisAt(index);
+	}
+	
+	/**
+	 * Schedules the buffer to be refilled starting at the given index,
+	 * unless a refill is already pending.
+	 */
+	private void requestRefill(final long startIndex) {
+		if(!refillPending.compareAndSet(false, true)) {
+			return;
+		}
+		
+		REFILL_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refill(startIndex);
+				} finally {
+					refillPending.set(false);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Fills a new buffer starting at the given index, reusing as much of
+	 * the current buffer as possible.
+	 */
+	private void refill(long startIndex) {
+		Buffer current = buffer;
+		if(current != null && startIndex <= current.firstIndex) {
+			return;
+		}
+		
+		long[] times = new long[CAPACITY];
+		int known;
+		
+		if(current != null && startIndex < current.firstIndex + current.times.length) {
+			known = (int) (current.firstIndex + current.times.length - startIndex);
+			System.arraycopy(current.times, (int) (startIndex - current.firstIndex),
+						times, 0, known);
+		} else {
+			times[0] = trigger.fireTimeMillisAt(startIndex);
+			known = 1;
+		}
+		
+		long[] gaps = new long[CAPACITY - known];
+		trigger.getTimesElapsedAfter(startIndex + known - 1, gaps.length, gaps);
+		for(int i = known; i < CAPACITY; i++) {
+			times[i] = times[i - 1] + gaps[i - known];
+		}
+		
+		buffer = new Buffer(startIndex, times);
+	}
+	
+	/**
+	 * @return The number of lookups answered from the buffer.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	/**
+	 * @return The number of lookups that had to be calculated.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	/**
+	 * A series of consecutive fire times.
+	 */
+	private static class Buffer {
+		public final long firstIndex;
+		public final long[] times;
+		
+		public Buffer(long firstIndex, long[] times) {
+			this.firstIndex = firstIndex;
+			this.times = times;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.quartz;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Iterates over a range of indices in a randomized schedule, producing
+ * the fire time at each one. Splitting only divides the range of
+ * indices; the starting time of each part isn't calculated until that
+ * part is traversed, so the expensive work happens on whichever thread
+ * processes the part.
+ * @see RandomizedTrigger#fireTimes(long, long)
+ */
+class FireTimeSpliterator implements Spliterator.OfLong {
+	/**
+	 * The number of gaps to calculate at once. Parts are never split
+	 * smaller than this.
+	 */
+	private static final int CHUNK_SIZE = CheckpointIndex.BLOCK_SIZE;
+	
+	private final RandomizedTriggerImpl trigger;
+	
+	/**
+	 * The index of the next fire time to produce.
+	 */
+	private long index;
+	
+	/**
+	 * The index after the last fire time to produce.
+	 */
+	private final long endIndex;
+	
+	/**
+	 * The fire time at <code>index</code>. This is only valid if
+	 * <code>positioned</code> is true.
+	 */
+	private long time;
+	private boolean positioned = false;
+	
+	/**
+	 * The gaps following <code>index</code>, starting at
+	 * <code>gapOffset</code> and ending at <code>gapCount</code>.
+	 */
+	private long[] gaps = null;
+	private int gapOffset = 0;
+	private int gapCount = 0;
+	
+	FireTimeSpliterator(RandomizedTriggerImpl trigger, long firstIndex, long endIndex) {
+		this.trigger = trigger;
+		this.index = firstIndex;
+		this.endIndex = endIndex;
+	}
+	
+	/**
+	 * Calculates the time at <code>index</code>, if it isn't known yet.
+	 */
+	private void position() {
+		if(!positioned) {
+			time = trigger.fireTimeMillisAt(index);
+			positioned = true;
+		}
+	}
+	
+	/**
+	 * Moves to the next index, calculating more gaps if needed.
+	 */
+	private void advance() {
+		if(gapOffset == gapCount) {
+			if(gaps == null) {
+				gaps = new long[CHUNK_SIZE];
+			}
+			
+			gapCount = (int) Math.min(CHUNK_SIZE, endIndex - index);
+			gapOffset = 0;
+			trigger.getTimesElapsedAfter(index, gapCount, gaps);
+		}
+		
+		time += gaps[gapOffset++];
+		index++;
+	}
+	
+	@Override
+	public boolean tryAdvance(LongConsumer action) {
+		if(index >= endIndex) {
+			return false;
+		}
+		
+		position();
+		action.accept(time);
+		advance();
+		
+		return true;
+	}
+	
+	@Override
+	public void forEachRemaining(LongConsumer action) {
+		if(index >= endIndex) {
+			return;
+		}
+		
+		position();
+		while(index < endIndex) {
+			action.accept(time);
+			advance();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * When possible, parts are split at a checkpoint, so that the new
+	 * part can start there without iterating.
+	 * </p>
+	 */
+	@Override
+	public Spliterator.OfLong trySplit() {
+		long remaining = endIndex - index;
+		if(remaining <= CHUNK_SIZE) {
+			return null;
+		}
+		
+		long splitIndex = index + remaining / 2;
+		long alignedIndex = splitIndex - splitIndex % CheckpointIndex.BLOCK_SIZE;
+		if(alignedIndex > index && alignedIndex < endIndex) {
+			splitIndex = alignedIndex;
+		}
+		
+		FireTimeSpliterator prefix = new FireTimeSpliterator(trigger, index, splitIndex);
+		prefix.time = time;
+		prefix.positioned = positioned;
+		
+		index = splitIndex;
+		positioned = false;
+		gapOffset = 0;
+		gapCount = 0;
+		
+		return prefix;
+	}
+	
+	@Override
+	public long estimateSize() {
+		return endIndex - index;
+	}
+	
+	@Override
+	public int characteristics() {
+		return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+	}
+	
+	/**
+	 * @return Null, because fire times are sorted in their natural
+	 *         order.
+	 */
+	@Override
+	public Comparator<? super Long> getComparator() {
+		return null;
+	}
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.quartz;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * Reads the busy periods out of an iCalendar (.ics) file, such as one
+ * exported from a calendar application.
+ * </p>
+ * <p>
+ * Only the parts of the format needed to find when events take place
+ * are supported: DTSTART, DTEND, EXDATE, and RRULE with a FREQ of
+ * DAILY, WEEKLY, MONTHLY or YEARLY, plus INTERVAL, COUNT and UNTIL.
+ * Other recurrence rules are treated as if they only had a FREQ.
+ * Cancelled and transparent ("free") events are skipped.
+ * </p>
+ */
+class ICalendarReader {
+	/**
+	 * How far past the present to expand recurring events that don't
+	 * have an end date.
+	 */
+	private static final long RECURRENCE_HORIZON = 366 * 24 * 60 * 60 * 1000L;
+	
+	/**
+	 * The maximum number of occurrences to expand from a single event.
+	 */
+	private static final int MAX_OCCURRENCES = 100000;
+	
+	private ICalendarReader() {
+	}
+	
+	/**
+	 * Reads all events from the given file.
+	 * @return A list of intervals, each of which is a two-element array
+	 *         containing the start and end time of an event occurrence.
+	 */
+	public static List<long[]> read(File file) throws IOException {
+		List<long[]> intervals = new ArrayList<long[]>();
+		
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file), "UTF-8"));
+		try {
+			Map<String, String> event = null;
+			String line;
+			String nextLine = in.readLine();
+			while(nextLine != null) {
+				//lines starting with whitespace continue the previous line
+				StringBuilder unfolded = new StringBuilder(nextLine);
+				while((nextLine = in.readLine()) != null
+							&& nextLine.length() > 0
+							&& (nextLine.charAt(0) == ' ' || nextLine.charAt(0) == '\t')) {
+					unfolded.append(nextLine, 1, nextLine.length());
+				}
+				line = unfolded.toString();
+				
+				if(line.equals("BEGIN:VEVENT")) {
+					event = new HashMap<String, String>();
+				} else if(line.equals("END:VEVENT")) {
+					if(event != null) {
+						try {
+							addOccurrences(event, intervals);
+						} catch(ParseException e) {
+							System.err.println("Skipping unreadable event in "
+										+ file.getName() + ": " + e.getMessage());
+						} catch(NumberFormatException e) {
+							System.err.println("Skipping unreadable event in "
+										+ file.getName() + ": " + e.getMessage());
+						}
+					}
+					event = null;
+				} else if(event != null) {
+					int colon = line.indexOf(':');
+					if(colon > 0) {
+						String name = line.substring(0, colon);
+						
+						//EXDATE may appear more than once
+						if(name.startsWith("EXDATE") && event.containsKey(name)) {
+							event.put(name, event.get(name) + "," + line.substring(colon + 1));
+						} else {
+							event.put(name, line.substring(colon + 1));
+						}
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+		
+		return intervals;
+	}
+	
+	/**
+	 * Adds every occurrence of the given event to the list.
+	 * @param event The event's properties. Each key is a property name
+	 *            including any parameters, for instance
+	 *            "DTSTART;TZID=America/New_York".
+	 */
+	private static void addOccurrences(Map<String, String> event,
+				List<long[]> intervals) throws ParseException {
+		if("CANCELLED".equals(event.get("STATUS"))
+					|| "TRANSPARENT".equals(event.get("TRANSP"))) {
+			return;
+		}
+		
+		String startKey = findKey(event, "DTSTART");
+		if(startKey == null) {
+			return;
+		}
+		
+		TimeZone timeZone = getTimeZone(startKey);
+		long start = parseTime(event.get(startKey), timeZone);
+		
+		String endKey = findKey(event, "DTEND");
+		long end;
+		if(endKey != null) {
+			end = parseTime(event.get(endKey), getTimeZone(endKey));
+		} else if(event.get(startKey).length() == 8) {
+			//an all-day event with no end lasts one day
+			end = start + 24 * 60 * 60 * 1000L;
+		} else {
+			return;
+		}
+		
+		String rule = event.get("RRULE");
+		if(rule == null) {
+			intervals.add(new long[] {start, end});
+			return;
+		}
+		
+		//collect the recurrence rule's parameters
+		Map<String, String> ruleParts = new HashMap<String, String>();
+		for(String part : rule.split(";")) {
+			int equals = part.indexOf('=');
+			if(equals > 0) {
+				ruleParts.put(part.substring(0, equals), part.substring(equals + 1));
+			}
+		}
+		
+		int field;
+		String frequency = ruleParts.get("FREQ");
+		if("DAILY".equals(frequency)) {
+			field = Calendar.DAY_OF_MONTH;
+		} else if("WEEKLY".equals(frequency)) {
+			field = Calendar.WEEK_OF_YEAR;
+		} else if("MONTHLY".equals(frequency)) {
+			field = Calendar.MONTH;
+		} else if("YEARLY".equals(frequency)) {
+			field = Calendar.YEAR;
+		} else {
+			intervals.add(new long[] {start, end});
+			return;
+		}
+		
+		int interval = 1;
+		if(ruleParts.containsKey("INTERVAL")) {
+			interval = Math.max(1, Integer.parseInt(ruleParts.get("INTERVAL")));
+		}
+		
+		int count = MAX_OCCURRENCES;
+		if(ruleParts.containsKey("COUNT")) {
+			count = Math.min(count, Integer.parseInt(ruleParts.get("COUNT")));
+		}
+		
+		long until = System.currentTimeMillis() + RECURRENCE_HORIZON;
+		if(ruleParts.containsKey("UNTIL")) {
+			until = parseTime(ruleParts.get("UNTIL"), timeZone);
+		}
+		
+		Set<Long> exceptions = new HashSet<Long>();
+		for(Map.Entry<String, String> entry : event.entrySet()) {
+			if(entry.getKey().startsWith("EXDATE")) {
+				TimeZone exceptionTimeZone = getTimeZone(entry.getKey());
+				for(String value : entry.getValue().split(",")) {
+					exceptions.add(parseTime(value, exceptionTimeZone));
+				}
+			}
+		}
+		
+		//step through the occurrences in the event's own time zone, so
+		//that daylight saving time doesn't shift them
+		long duration = end - start;
+		Calendar calendar = Calendar.getInstance(timeZone);
+		calendar.setTimeInMillis(start);
+		long occurrence;
+		for(int i = 0; i < count; i++) {
+			occurrence = calendar.getTimeInMillis();
+			if(occurrence > until) {
+				break;
+			}
+			
+			if(!exceptions.contains(occurrence)) {
+				intervals.add(new long[] {occurrence, occurrence + duration});
+			}
+			
+			calendar.add(field, interval);
+		}
+	}
+	
+	/**
+	 * @return The key for the given property, which may include
+	 *         parameters, or null if the event doesn't have it.
+	 */
+	private static String findKey(Map<String, String> event, String property) {
+		for(String key : event.keySet()) {
+			if(key.equals(property) || key.startsWith(property + ";")) {
+				return key;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * @return The time zone given by the property's TZID parameter, or
+	 *         the default time zone if it has none.
+	 */
+	private static TimeZone getTimeZone(String key) {
+		for(String parameter : key.split(";")) {
+			if(parameter.startsWith("TZID=")) {
+				return TimeZone.getTimeZone(parameter.substring(5).replace("\"", ""));
+			}
+		}
+		
+		return TimeZone.getDefault();
+	}
+	
+	/**
+	 * Parses a DATE or DATE-TIME value. Times ending in Z are in UTC;
+	 * others are in the given time zone.
+	 */
+	private static long parseTime(String value, TimeZone timeZone) throws ParseException {
+		SimpleDateFormat format;
+		if(value.length() == 8) {
+			format = new SimpleDateFormat("yyyyMMdd");
+		} else if(value.endsWith("Z")) {
+			format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+			timeZone = TimeZone.getTimeZone("UTC");
+		} else {
+			format = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+		}
+		
+		format.setTimeZone(timeZone);
+		return format.parse(value).getTime();
+	}
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.quartz;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.quartz.impl.calendar.BaseCalendar;
+
+import tagtime.util.IntervalTree;
+
+/**
+ * <p>
+ * A Quartz calendar excluding the times the user doesn't want to be
+ * pinged. Exclusions come in two kinds:
+ * </p>
+ * <ul>
+ * <li>Recurring exclusions, such as sleep hours, which repeat every day
+ * or on certain days of the week, in local time.</li>
+ * <li>One-off exclusions, such as meetings imported from an .ics file
+ * or ad-hoc "do not disturb" periods.</li>
+ * </ul>
+ * <p>
+ * Each kind is stored in an {@link IntervalTree}, so checking a time
+ * takes O(log n) time even with thousands of exclusions. The trees are
+ * rebuilt lazily after exclusions are added.
+ * </p>
+ * <p>
+ * Note that Quartz stores a copy of each calendar it is given, so
+ * changes made after the calendar has been added to a scheduler will
+ * not take effect until it is added again.
+ * </p>
+ */
+public class QuietHoursCalendar extends BaseCalendar {
+	private static final long serialVersionUID = 2809513204620592581L;
+	
+	private static final long MINUTE = 60 * 1000L;
+	private static final long DAY = 24 * 60 * MINUTE;
+	private static final long WEEK = 7 * DAY;
+	
+	/**
+	 * Weeks start on Monday. The epoch was a Thursday, so the first
+	 * Monday came four days later.
+	 */
+	private static final long WEEK_OFFSET = 4 * DAY;
+	
+	private static final String[] DAY_NAMES =
+				{"mon", "tue", "wed", "thu", "fri", "sat", "sun"};
+	
+	/**
+	 * Matches recurring exclusions such as "23:00-07:00", "Sat 00:00-10:00"
+	 * and "Mon-Fri 12:00-13:00".
+	 */
+	private static final Pattern RECURRING_FORMAT = Pattern.compile(
+				"^(?:(\\w{3})(?:-(\\w{3}))?\\s+)?(\\d{1,2}):(\\d{2})-(\\d{1,2}):(\\d{2})$");
+	
+	/**
+	 * The format for each half of a one-off exclusion, such as
+	 * "2012-12-24 18:00/2012-12-26 09:00".
+	 */
+	private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm";
+	
+	/**
+	 * One-off exclusions, in absolute time.
+	 */
+	private ArrayList<long[]> exclusions = new ArrayList<long[]>();
+	
+	/**
+	 * Recurring exclusions, measured in milliseconds since the start of
+	 * the (local) week.
+	 */
+	private ArrayList<long[]> weeklyExclusions = new ArrayList<long[]>();
+	
+	/**
+	 * The trees built from the lists above, or null if they need to be
+	 * rebuilt.
+	 */
+	private transient volatile Trees trees;
+	
+	public QuietHoursCalendar() {
+	}
+	
+	/**
+	 * Excludes the period from <code>start</code> (inclusive) to
+	 * <code>end</code> (exclusive).
+	 */
+	public synchronized void addExclusion(long start, long end) {
+		if(start < end) {
+			exclusions.add(new long[] {start, end});
+			trees = null;
+		}
+	}
+	
+	/**
+	 * Excludes a period given in the format
+	 * "yyyy-MM-dd HH:mm/yyyy-MM-dd HH:mm", in this calendar's time zone.
+	 */
+	public void addExclusion(String period) throws ParseException {
+		int slash = period.indexOf('/');
+		if(slash < 0) {
+			throw new ParseException("Expected a period in the format "
+						+ DATE_FORMAT + "/" + DATE_FORMAT + ": " + period, 0);
+		}
+		
+		SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+		format.setTimeZone(getLocalTimeZone());
+		addExclusion(format.parse(period.substring(0, slash).trim()).getTime(),
+					format.parse(period.substring(slash + 1).trim()).getTime());
+	}
+	
+	/**
+	 * Excludes every event in the given iCalendar file.
+	 */
+	public void addICalendarFile(File file) throws IOException {
+		Collection<long[]> events = ICalendarReader.read(file);
+		
+		synchronized(this) {
+			exclusions.addAll(events);
+			trees = null;
+		}
+	}
+	
+	/**
+	 * Adds a recurring exclusion in local time. The format is
+	 * <code>[day[-day] ]HH:mm-HH:mm</code>, where days are three-letter
+	 * abbreviations. If no days are given, the exclusion applies every
+	 * day. If the end time is earlier than the start time, the exclusion
+	 * continues into the next day; for example, "Fri-Sat 23:00-09:00"
+	 * excludes Friday night and Saturday night.
+	 */
+	public synchronized void addRecurringExclusion(String exclusion) throws ParseException {
+		Matcher matcher = RECURRING_FORMAT.matcher(exclusion.trim());
+		if(!matcher.matches()) {
+			throw new ParseException("Expected a recurring exclusion in the "
+						+ "format [day[-day] ]HH:mm-HH:mm: " + exclusion, 0);
+		}
+		
+		int firstDay = 0;
+		int lastDay = 6;
+		if(matcher.group(1) != null) {
+			firstDay = parseDay(matcher.group(1), exclusion);
+			lastDay = matcher.group(2) != null ? parseDay(matcher.group(2), exclusion)
+						: firstDay;
+		}
+		
+		long startMinute = parseMinuteOfDay(matcher.group(3), matcher.group(4), exclusion);
+		long endMinute = parseMinuteOfDay(matcher.group(5), matcher.group(6), exclusion);
+		long length = endMinute - startMinute;
+		if(length <= 0) {
+			length += 24 * 60;
+		}
+		
+		long start;
+		long end;
+		for(int day = firstDay;; day = (day + 1) % 7) {
+			start = day * DAY + startMinute * MINUTE;
+			end = start + length * MINUTE;
+			
+			//split exclusions that continue past the end of the week
+			if(end <= WEEK) {
+				weeklyExclusions.add(new long[] {start, end});
+			} else {
+				weeklyExclusions.add(new long[] {start, WEEK});
+				weeklyExclusions.add(new long[] {0, end - WEEK});
+			}
+			
+			if(day == lastDay) {
+				break;
+			}
+		}
+		
+		trees = null;
+	}
+	
+	private static int parseDay(String day, String exclusion) throws ParseException {
+		for(int i = 0; i < DAY_NAMES.length; i++) {
+			if(DAY_NAMES[i].equalsIgnoreCase(day)) {
+				return i;
+			}
+		}
+		
+		throw new ParseException("Unknown day \"" + day + "\" in " + exclusion, 0);
+	}
+	
+	private static long parseMinuteOfDay(String hours, String minutes,
+				String exclusion) throws ParseException {
+		int h = Integer.parseInt(hours);
+		int m = Integer.parseInt(minutes);
+		if(m >= 60 || h * 60 + m > 24 * 60) {
+			throw new ParseException("Invalid time " + hours + ":" + minutes
+						+ " in " + exclusion, 0);
+		}
+		
+		return h * 60 + m;
+	}
+	
+	/**
+	 * @return Whether this calendar's own exclusions cover the given
+	 *         time. Unlike {@link #isTimeIncluded(long)}, this ignores
+	 *         the base calendar.
+	 */
+	public boolean isExcluded(long time) {
+		return getExclusionEnd(time, getTrees()) != IntervalTree.NONE;
+	}
+	
+	@Override
+	public boolean isTimeIncluded(long timeStamp) {
+		return super.isTimeIncluded(timeStamp) && !isExcluded(timeStamp);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If the recurring exclusions cover the entire week, no time is
+	 * included, and this returns 0.
+	 * </p>
+	 */
+	@Override
+	public long getNextIncludedTime(long timeStamp) {
+		Trees currentTrees = getTrees();
+		if(currentTrees.excludesEntireWeek) {
+			return 0;
+		}
+		
+		long time = super.getNextIncludedTime(timeStamp);
+		long end;
+		while((end = getExclusionEnd(time, currentTrees)) != IntervalTree.NONE) {
+			time = super.getNextIncludedTime(end);
+		}
+		
+		return time;
+	}
+	
+	/**
+	 * @return The time at which an exclusion covering the given time
+	 *         ends, or {@link IntervalTree#NONE} if it isn't excluded.
+	 *         If several exclusions overlap, this may only be the end of
+	 *         one of them.
+	 */
+	private long getExclusionEnd(long time, Trees currentTrees) {
+		long end = currentTrees.exclusions.findIntervalEnd(time);
+		if(end != IntervalTree.NONE) {
+			return end;
+		}
+		
+		TimeZone timeZone = getLocalTimeZone();
+		long localTime = time + timeZone.getOffset(time);
+		long timeOfWeek = Math.floorMod(localTime - WEEK_OFFSET, WEEK);
+		end = currentTrees.weeklyExclusions.findIntervalEnd(timeOfWeek);
+		if(end != IntervalTree.NONE) {
+			//the offset may be different by the end of the exclusion, if
+			//the clocks change in between
+			long localEnd = localTime + (end - timeOfWeek);
+			long endTime = localEnd - timeZone.getOffset(time);
+			long endOffset = timeZone.getOffset(endTime);
+			
+			//if the end was skipped when the clocks went forward, keep
+			//the offset from the start
+			return localEnd - endOffset > time ? localEnd - endOffset : endTime;
+		}
+		
+		return IntervalTree.NONE;
+	}
+	
+	private TimeZone getLocalTimeZone() {
+		return getTimeZone() != null ? getTimeZone() : TimeZone.getDefault();
+	}
+	
+	private Trees getTrees() {
+		Trees currentTrees = trees;
+		if(currentTrees == null) {
+			synchronized(this) {
+				currentTrees = trees;
+				if(currentTrees == null) {
+					currentTrees = new Trees(exclusions, weeklyExclusions);
+					trees = currentTrees;
+				}
+			}
+		}
+		
+		return currentTrees;
+	}
+	
+	@Override
+	public Object clone() {
+		QuietHoursCalendar clone = (QuietHoursCalendar) super.clone();
+		synchronized(this) {
+			clone.exclusions = new ArrayList<long[]>(exclusions);
+			clone.weeklyExclusions = new ArrayList<long[]>(weeklyExclusions);
+		}
+		return clone;
+	}
+	
+	/**
+	 * An immutable snapshot of the exclusions, ready to be searched.
+	 */
+	private static class Trees {
+		public final IntervalTree exclusions;
+		public final IntervalTree weeklyExclusions;
+		public final boolean excludesEntireWeek;
+		
+		public Trees(Collection<long[]> exclusions, Collection<long[]> weeklyExclusions) {
+			this.exclusions = new IntervalTree(exclusions);
+			this.weeklyExclusions = new IntervalTree(weeklyExclusions);
+			
+			//walk from the start of the week, skipping each exclusion
+			long time = 0;
+			long end;
+			while(time < WEEK
+						&& (end = this.weeklyExclusions.findIntervalEnd(time)) != IntervalTree.NONE) {
+				time = end;
+			}
+			excludesEntireWeek = time >= WEEK;
+		}
+	}
+}
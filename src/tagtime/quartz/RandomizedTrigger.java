@@ -1,85 +1,197 @@
-/*
- * Copyright 2011-2012 Joseph Cloutier
- * 
- * This file is part of TagTime.
- * 
- * TagTime is free software: you can redistribute it and/or modify it
- * under the terms of the GNU General Public License as published by the
- * Free Software Foundation, either version 3 of the License, or (at your
- * option) any later version.
- * 
- * TagTime is distributed in the hope that it will be useful, but WITHOUT
- * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
- * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
- * for more details.
- * 
- * You should have received a copy of the GNU General Public License
- * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
- */
-
-package tagtime.quartz;
-
-import java.util.Date;
-
-import org.quartz.SimpleTrigger;
-
-import tagtime.random.RandomSequenceGenerator;
-
-/**
- * A trigger that fires at randomized times, with a given average gap
- * between firing.
- * @see RandomizedTriggerImpl
- */
-public interface RandomizedTrigger extends SimpleTrigger {
-	/**
-	 * This represents the time at index 0 in the random sequence. It
-	 * should be a time significantly earlier than when the user will run
-	 * the program, but it doesn't need to be the start of the Unix
-	 * epoch. (The program will iterate from this time to the current
-	 * time, which would take too long if it started from 1970.)
-	 */
-	//1319500800000 is October 25, 2011 at midnight
-	public static final long CALENDAR_START = 1319500800000L;
-	
-	/**
-	 * Sets the random number generator. Caution: changing the random
-	 * number generator after the trigger has been started will not
-	 * update the next scheduled fire time, which will probably result in
-	 * temporary erratic behavior.
-	 */
-	public void setRNG(RandomSequenceGenerator rng);
-	
-	/**
-	 * Returns the key used by the random number generator.
-	 */
-	public String getRNGKey();
-	
-	/**
-	 * <p>
-	 * Returns the first time at which the <code>Trigger</code> will
-	 * fire, after the given time. If the trigger will not fire after the
-	 * given time and <code>alwaysReturn</code> is false,
-	 * <code>null</code> will be returned.
-	 * </p>
-	 */
-	Date getFireTimeAfter(Date target, boolean alwaysReturn);
-	
-	/**
-	 * <p>
-	 * Returns the last time at which the <code>Trigger</code> will fire,
-	 * before the given time. If the trigger will not fire before the
-	 * given time, <code>null</code> will be returned.
-	 * </p>
-	 */
-	Date getFireTimeBefore(Date target);
-	
-	/**
-	 * <p>
-	 * Returns the last time at which the <code>Trigger</code> will fire,
-	 * before the given time. If the trigger will not fire before the
-	 * given time and <code>alwaysReturn</code> is false,
-	 * <code>null</code> will be returned.
-	 * </p>
-	 */
-	Date getFireTimeBefore(Date target, boolean alwaysReturn);
-}
+/*
+ * Copyright 2011-2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.quartz;
+
+import java.util.Date;
+import java.util.stream.LongStream;
+
+import org.quartz.SimpleTrigger;
+
+import tagtime.random.RandomSequenceGenerator;
+
+/**
+ * A trigger that fires at randomized times, with a given average gap
+ * between firing.
+ * @see RandomizedTriggerImpl
+ */
+public interface RandomizedTrigger extends SimpleTrigger {
+	/**
+	 * This represents the time at index 0 in the random sequence. It
+	 * should be a time significantly earlier than when the user will run
+	 * the program, but it doesn't need to be the start of the Unix
+	 * epoch. (The program will iterate from this time to the current
+	 * time, which would take too long if it started from 1970.)
+	 */
+	//1319500800000 is October 25, 2011 at midnight
+	public static final long CALENDAR_START = 1319500800000L;
+	
+	/**
+	 * Sets the random number generator. Caution: changing the random
+	 * number generator after the trigger has been started will not
+	 * update the next scheduled fire time, which will probably result in
+	 * temporary erratic behavior.
+	 */
+	public void setRNG(RandomSequenceGenerator rng);
+	
+	/**
+	 * Returns the key used by the random number generator.
+	 */
+	public String getRNGKey();
+	
+	/**
+	 * Returns the name of the algorithm used by the random number
+	 * generator.
+	 * @see tagtime.random.SequenceAlgorithm
+	 */
+	public String getRNGAlgorithm();
+	
+	/**
+	 * <p>
+	 * Returns the first time at which the <code>Trigger</code> will
+	 * fire, after the given time. If the trigger will not fire after the
+	 * given time and <code>alwaysReturn</code> is false,
+	 * <code>null</code> will be returned.
+	 * </p>
+	 */
+	Date getFireTimeAfter(Date target, boolean alwaysReturn);
+	
+	/**
+	 * <p>
+	 * Returns the last time at which the <code>Trigger</code> will fire,
+	 * before the given time. If the trigger will not fire before the
+	 * given time, <code>null</code> will be returned.
+	 * </p>
+	 */
+	Date getFireTimeBefore(Date target);
+	
+	/**
+	 * <p>
+	 * Returns the last time at which the <code>Trigger</code> will fire,
+	 * before the given time. If the trigger will not fire before the
+	 * given time and <code>alwaysReturn</code> is false,
+	 * <code>null</code> will be returned.
+	 * </p>
+	 */
+	Date getFireTimeBefore(Date target, boolean alwaysReturn);
+	
+	/**
+	 * Returns a cursor pointing to the first time at which this trigger
+	 * will fire, after the given time. The cursor can then be moved
+	 * forwards or backwards through the schedule. Unlike
+	 * <code>getFireTimeAfter()</code>, this ignores the trigger's start
+	 * and end times.
+	 * @param target The time to search from, in milliseconds.
+	 */
+	ScheduleCursor getCursorAfter(long target);
+	
+	/**
+	 * Returns a cursor pointing to the last time at which this trigger
+	 * will fire, before the given time. Unlike
+	 * <code>getFireTimeBefore()</code>, this ignores the trigger's start
+	 * and end times.
+	 * @param target The time to search from, in milliseconds.
+	 */
+	ScheduleCursor getCursorBefore(long target);
+	
+	/**
+	 * Returns a cursor pointing to the fire time at the given index in
+	 * the random sequence.
+	 * @see ScheduleCursor#getIndex()
+	 */
+	ScheduleCursor getCursorAt(long index);
+	
+	/**
+	 * Returns the first time at which this trigger will fire, after the
+	 * given time. This is equivalent to
+	 * <code>getFireTimeAfter(new Date(target), true).getTime()</code>,
+	 * but it doesn't allocate any objects unless the answer has to be
+	 * calculated from scratch.
+	 * @param target The time to search from, in milliseconds.
+	 */
+	long nextFireTimeMillis(long target);
+	
+	/**
+	 * Returns the last time at which this trigger will fire, before the
+	 * given time. This is equivalent to
+	 * <code>getFireTimeBefore(new Date(target), true).getTime()</code>,
+	 * but it doesn't allocate any objects unless the answer has to be
+	 * calculated from scratch.
+	 * @param target The time to search from, in milliseconds.
+	 */
+	long previousFireTimeMillis(long target);
+	
+	/**
+	 * Returns the index of the first fire time after the given time.
+	 * @see #fireTimeMillisAt(long)
+	 */
+	long nextFireTimeIndex(long target);
+	
+	/**
+	 * Returns the index of the last fire time before the given time.
+	 * @see #fireTimeMillisAt(long)
+	 */
+	long previousFireTimeIndex(long target);
+	
+	/**
+	 * Returns the fire time at the given index in the random sequence.
+	 * Consecutive fire times have consecutive indices.
+	 */
+	long fireTimeMillisAt(long index);
+	
+	/**
+	 * <p>
+	 * Returns every time at which this trigger will fire, from
+	 * <code>fromMillis</code> (inclusive) to <code>toMillis</code>
+	 * (exclusive), in order. Like <code>getCursorAfter()</code>, this
+	 * ignores the trigger's start and end times.
+	 * </p>
+	 * <p>
+	 * The stream splits efficiently, since any part of the schedule can
+	 * be calculated without calculating the parts before it. Call
+	 * <code>parallel()</code> on it to process large ranges using
+	 * multiple threads.
+	 * </p>
+	 */
+	LongStream fireTimes(long fromMillis, long toMillis);
+	
+	/**
+	 * Calculates a series of consecutive gaps between fire times.
+	 * @param firstIndex The index of the first gap to calculate. The gap
+	 *            at index <code>n</code> is the time between fire times
+	 *            <code>n</code> and <code>n + 1</code>.
+	 * @param count The number of gaps to calculate.
+	 * @param out The array to store the gaps in, starting at index 0.
+	 */
+	void getTimesElapsedAfter(long firstIndex, int count, long[] out);
+	
+	/**
+	 * Returns the number of times <code>getFireTimeAfter()</code> was
+	 * answered from the buffer of upcoming fire times, without any
+	 * calculation.
+	 */
+	long getLookaheadHitCount();
+	
+	/**
+	 * Returns the number of times <code>getFireTimeAfter()</code> had to
+	 * calculate the fire time, because it wasn't in the buffer of
+	 * upcoming fire times.
+	 */
+	long getLookaheadMissCount();
+}
@@ -1,358 +1,751 @@
-/*
- * Copyright 2011-2012 Joseph Cloutier
- * 
- * This file is part of TagTime.
- * 
- * TagTime is free software: you can redistribute it and/or modify it
- * under the terms of the GNU General Public License as published by the
- * Free Software Foundation, either version 3 of the License, or (at your
- * option) any later version.
- * 
- * TagTime is distributed in the hope that it will be useful, but WITHOUT
- * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
- * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
- * for more details.
- * 
- * You should have received a copy of the GNU General Public License
- * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
- */
-
-package tagtime.quartz;
-
-import java.util.Date;
-
-import org.quartz.Calendar;
-import org.quartz.ScheduleBuilder;
-import org.quartz.SimpleTrigger;
-import org.quartz.impl.triggers.SimpleTriggerImpl;
-
-import tagtime.random.RandomSequenceGenerator;
-
-/**
- * An implementation of {@link RandomizedTrigger}.
- */
-public class RandomizedTriggerImpl extends SimpleTriggerImpl
-			implements RandomizedTrigger {
-	private static final long serialVersionUID = 5800564916338048242L;
-	
-	/**
-	 * The pseudo-random generator used to determine the length of time
-	 * the trigger waits in between being triggered.
-	 */
-	private RandomSequenceGenerator rng = null;
-	
-	/**
-	 * The index corresponding to the cached time value. Note that this
-	 * is not required to match the number of times the trigger has been
-	 * fired, as long as it corresponds to the cached time.
-	 * @see RandomizedTriggerImpl#cachedTimeOfExecution
-	 */
-	private long cachedIndex = 0;
-	
-	/**
-	 * <p>
-	 * The time corresponding to the cached index. For example, an index
-	 * of 0 would represent a trigger that has been fired once, in which
-	 * case <code>cachedTimeOfExecution</code> would equal
-	 * <code>getStartTime()</code> (remember, the trigger is always fired
-	 * at the start time). An index of 2 would represent a trigger that
-	 * was fired three times, and the cached time would be when it was
-	 * fired the third time.
-	 * </p>
-	 * <p>
-	 * If this is null, then no value is cached and
-	 * <code>cachedIndex</code> is invalid. (This is a <code>Long</code>
-	 * rather than a <code>long</code> specifically so that it can be
-	 * null.) In this case, the index will be set to 0 and the time set
-	 * to the start of the TagTime calendar.
-	 * </p>
-	 * @see RandomizedTriggerImpl#cachedIndex
-	 * @see RandomizedTrigger#CALENDAR_START
-	 */
-	private Long cachedTimeOfExecution = null;
-	
-	/**
-	 * Creates a <code>RandomizedTrigger</code> with the default
-	 * settings.
-	 */
-	public RandomizedTriggerImpl() {
-		super();
-	}
-	
-	/**
-	 * Increments <code>cachedIndex</code> and updates
-	 * <code>cachedTimeOfExecution</code> accordingly.
-	 */
-	private void incrementCachedValues() {
-		if(cachedTimeOfExecution == null) {
-			resetCachedValues();
-		}
-		
-		cachedTimeOfExecution += getTimeElapsedAfter(cachedIndex);
-		cachedIndex++;
-	}
-	
-	/**
-	 * Decrements <code>cachedIndex</code> and updates
-	 * <code>cachedTimeOfExecution</code> accordingly.
-	 */
-	private void decrementCachedValues() {
-		if(cachedTimeOfExecution == null) {
-			resetCachedValues();
-		}
-		
-		cachedIndex--;
-		cachedTimeOfExecution -= getTimeElapsedAfter(cachedIndex);
-	}
-	
-	/**
-	 * Resets and/or initializes the cached values to the default.
-	 */
-	private void resetCachedValues() {
-		cachedIndex = 0;
-		cachedTimeOfExecution = RandomizedTrigger.CALENDAR_START;
-	}
-	
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override
-	public void setRNG(RandomSequenceGenerator rng) {
-		this.rng = rng;
-		resetCachedValues();
-	}
-	
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override
-	public String getRNGKey() {
-		return rng.getKey();
-	}
-	
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override
-	public void triggered(Calendar calendar) {
-		super.triggered(calendar);
-	}
-	
-	/**
-	 * {@inheritDoc}
-	 * <p>
-	 * Additionally, if this trigger has been triggered the specified
-	 * number of times, this function will return null, regardless of
-	 * whether the given time is valid.
-	 * </p>
-	 */
-	@Override
-	public Date getFireTimeAfter(Date target) {
-		if((getTimesTriggered() > getRepeatCount())
-					&& (getRepeatCount() != REPEAT_INDEFINITELY)) {
-			return null;
-		}
-		
-		if(target == null) {
-			target = new Date();
-		}
-		
-		if(getRepeatCount() == 0 && target.compareTo(getStartTime()) >= 0) {
-			return null;
-		}
-		
-		long startTime = getStartTime().getTime();
-		long targetTime = target.getTime();
-		long endTime = (getEndTime() == null) ? Long.MAX_VALUE : getEndTime().getTime();
-		
-		if(targetTime >= endTime) {
-			return null;
-		}
-		
-		if(targetTime < startTime) {
-			return new Date(startTime);
-		}
-		
-		findFireTimeAfter(targetTime);
-		
-		if(cachedTimeOfExecution >= endTime) {
-			return null;
-		}
-		
-		return new Date(cachedTimeOfExecution);
-	}
-	
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override
-	public Date getFireTimeAfter(Date target, boolean alwaysReturn) {
-		if(!alwaysReturn) {
-			return getFireTimeAfter(target);
-		}
-		
-		findFireTimeAfter(target.getTime());
-		
-		return new Date(cachedTimeOfExecution);
-	}
-	
-	/**
-	 * Updates the cached values to point to the first fire time after
-	 * the given time. Unlike <code>getFireTimeAfter()</code>, this will
-	 * always update the values.
-	 */
-	private void findFireTimeAfter(long target) {
-		if(cachedTimeOfExecution == null) {
-			resetCachedValues();
-		}
-		
-		//if the current cached value is currently after the target time,
-		//decrement it until it goes past
-		while(cachedTimeOfExecution > target) {
-			decrementCachedValues();
-		}
-		
-		//increment the time until it is after the target time
-		while(cachedTimeOfExecution <= target) {
-			incrementCachedValues();
-		}
-	}
-	
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override
-	public Date getFireTimeBefore(Date target) {
-		if(target.getTime() < getStartTime().getTime()) {
-			return null;
-		}
-		
-		findFireTimeBefore(target.getTime());
-		
-		return new Date(cachedTimeOfExecution);
-	}
-	
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override
-	public Date getFireTimeBefore(Date target, boolean alwaysReturn) {
-		if(!alwaysReturn) {
-			return getFireTimeBefore(target);
-		}
-		
-		findFireTimeBefore(target.getTime());
-		
-		return new Date(cachedTimeOfExecution);
-	}
-	
-	/**
-	 * Updates the cached values to point to the last fire time before
-	 * the given time. Unlike <code>getFireTimeBefore()</code>, this will
-	 * always update the values.
-	 */
-	private void findFireTimeBefore(long target) {
-		if(cachedTimeOfExecution == null) {
-			resetCachedValues();
-		}
-		
-		//if the current cached value is currently before the target time,
-		//increment it until it goes past
-		while(cachedTimeOfExecution < target) {
-			incrementCachedValues();
-		}
-		
-		//decrement the time until it is before the target time
-		while(cachedTimeOfExecution >= target) {
-			decrementCachedValues();
-		}
-	}
-	
-	@Override
-	public int computeNumTimesFiredBetween(Date start, Date end) {
-		if(getRepeatInterval() < 1) {
-			return 0;
-		}
-		
-		int count = 0;
-		long endTime = end.getTime();
-		
-		//start at the first fire time in range
-		findFireTimeAfter(start.getTime());
-		
-		//count the remaining fire times
-		for(; cachedTimeOfExecution < endTime; incrementCachedValues()) {
-			count++;
-		}
-		
-		return count;
-	}
-	
-	/**
-	 * Get a {@link ScheduleBuilder} that is configured to produce a
-	 * schedule identical to this trigger's schedule.
-	 */
-	@Override
-	public ScheduleBuilder<SimpleTrigger> getScheduleBuilder() {
-		RandomizedScheduleBuilder sb =
-					RandomizedScheduleBuilder.randomizedSchedule()
-												.withIntervalInMilliseconds(getRepeatInterval())
-												.withRepeatCount(getRepeatCount())
-												.withRNGKey(getRNGKey());
-		
-		switch(getMisfireInstruction()) {
-			case MISFIRE_INSTRUCTION_FIRE_NOW:
-				sb.withMisfireHandlingInstructionFireNow();
-				break;
-			case MISFIRE_INSTRUCTION_RESCHEDULE_NEXT_WITH_EXISTING_COUNT:
-				sb.withMisfireHandlingInstructionNextWithExistingCount();
-				break;
-			case MISFIRE_INSTRUCTION_RESCHEDULE_NEXT_WITH_REMAINING_COUNT:
-				sb.withMisfireHandlingInstructionNextWithRemainingCount();
-				break;
-			case MISFIRE_INSTRUCTION_RESCHEDULE_NOW_WITH_EXISTING_REPEAT_COUNT:
-				sb.withMisfireHandlingInstructionNowWithExistingCount();
-				break;
-			case MISFIRE_INSTRUCTION_RESCHEDULE_NOW_WITH_REMAINING_REPEAT_COUNT:
-				sb.withMisfireHandlingInstructionNowWithRemainingCount();
-				break;
-		}
-		
-		return sb;
-	}
-	
-	/**
-	 * Converts random values between 0 and 1 to an exponential
-	 * distribution with a mean of this trigger's repeat interval.
-	 */
-	private long convertToExponentialDistribution(double randomValue) {
-		//values too close to 0 will produce absurdly large numbers
-		//(and 0 itself will produce Infinity)
-		//TODO: (Possibly) implement a more elegant way of enforcing an upper bound.
-		if(randomValue < 0.00000001) {
-			randomValue = 0.00000001;
-		}
-		
-		return (long) (getRepeatInterval() * -1 * Math.log(randomValue));
-	}
-	
-	/**
-	 * <p>
-	 * Finds the amount of time in seconds that the trigger will wait,
-	 * once it is triggered the given number of times. For example, if
-	 * <code>index</code> is 2, this returns how much time will pass
-	 * between the second and third times the trigger is triggered.
-	 * </p>
-	 * <p>
-	 * <b>Caution:</b> If this trigger uses a calendar and skips being
-	 * triggered as a result, this method will fail to take that into
-	 * account. For example, if the trigger is triggered five times and
-	 * then skipped twice, getTimesTriggered() will return 5, but passing
-	 * 5 to getTimeElapsedAfter() will return a value corresponding to
-	 * part of the skipped time period.
-	 * </p>
-	 */
-	public long getTimeElapsedAfter(long index) {
-		return convertToExponentialDistribution(rng.getValue(index));
-	}
-}
+/*
+ * Copyright 2011-2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.quartz;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import org.quartz.Calendar;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleTrigger;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+
+import tagtime.random.RandomSequenceGenerator;
+
+/**
+ * An implementation of {@link RandomizedTrigger}.
+ */
+public class RandomizedTriggerImpl extends SimpleTriggerImpl
+			implements RandomizedTrigger {
+	private static final long serialVersionUID = 5800564916338048242L;
+	
+	/**
+	 * The number of gaps to calculate at once when iterating over the
+	 * schedule one step at a time, expressed as a power of two. Batches
+	 * always start at a multiple of this size.
+	 */
+	private static final int GAP_BATCH_SHIFT = 6;
+	private static final int GAP_BATCH_SIZE = 1 << GAP_BATCH_SHIFT;
+	
+	/**
+	 * The number of gap batches to keep. This must be a power of two.
+	 */
+	private static final int GAP_BATCH_SLOTS = 16;
+	
+	/**
+	 * The number of blocks of fire times to keep. This must be a power
+	 * of two.
+	 */
+	private static final int BLOCK_TIME_SLOTS = 8;
+	
+	/**
+	 * The pseudo-random generator used to determine the length of time
+	 * the trigger waits in between being triggered.
+	 */
+	private RandomSequenceGenerator rng = null;
+	
+	/**
+	 * The file in which to save the checkpoint index, or null if it
+	 * should only be kept in memory.
+	 */
+	private File checkpointFile = null;
+	
+	/**
+	 * A sparse index of fire times, used to skip to the right part of
+	 * the schedule without iterating from the start of the calendar.
+	 * This is created as needed, and discarded whenever the schedule
+	 * changes.
+	 * @see RandomizedTriggerImpl#getCheckpointIndex()
+	 */
+	private volatile CheckpointIndex checkpointIndex = null;
+	
+	/**
+	 * <p>
+	 * Recently calculated batches of gaps, each stored in the slot
+	 * corresponding to its batch number. Iterating over the schedule
+	 * usually requires consecutive gaps, so calculating them in batches
+	 * saves a lot of work for the random number generator.
+	 * </p>
+	 * <p>
+	 * Batches are never modified after being created, so any number of
+	 * threads can read and replace them without locking. (Quartz makes
+	 * clones of this trigger, and the clones share this array too.)
+	 * </p>
+	 * @see RandomizedTriggerImpl#getTimeElapsedAfter(long)
+	 */
+	private AtomicReferenceArray<GapBatch> gapBatches =
+				new AtomicReferenceArray<GapBatch>(GAP_BATCH_SLOTS);
+	
+	/**
+	 * <p>
+	 * The fire times in recently-used checkpoint blocks, each stored in
+	 * the slot corresponding to its block number. Most lookups are near
+	 * a previous lookup (for instance, the next ping after the one that
+	 * just fired), so they can usually be answered by a binary search of
+	 * one of these, without calculating anything.
+	 * </p>
+	 * <p>
+	 * Like <code>gapBatches</code>, this can be read and updated by any
+	 * number of threads without locking, because the blocks themselves
+	 * are immutable. A thread can't disturb another thread's lookup; the
+	 * worst it can do is replace a block that the other thread would
+	 * have found useful.
+	 * </p>
+	 * @see RandomizedTriggerImpl#getBlockTimes(int)
+	 */
+	private AtomicReferenceArray<BlockTimes> blockTimes =
+				new AtomicReferenceArray<BlockTimes>(BLOCK_TIME_SLOTS);
+	
+	/**
+	 * A buffer of upcoming fire times, used to answer the scheduler's
+	 * frequent requests for the next fire time.
+	 */
+	private FireTimeLookahead lookahead = new FireTimeLookahead(this);
+	
+	/**
+	 * Creates a <code>RandomizedTrigger</code> with the default
+	 * settings.
+	 */
+	public RandomizedTriggerImpl() {
+		super();
+	}
+	
+	/**
+	 * Discards all cached data about the schedule. This must be called
+	 * whenever the schedule changes.
+	 */
+	private void resetCachedValues() {
+		checkpointIndex = null;
+		gapBatches = new AtomicReferenceArray<GapBatch>(GAP_BATCH_SLOTS);
+		blockTimes = new AtomicReferenceArray<BlockTimes>(BLOCK_TIME_SLOTS);
+		lookahead = new FireTimeLookahead(this);
+	}
+	
+	/**
+	 * Returns the checkpoint index for the current schedule, creating
+	 * (or loading) it if necessary.
+	 */
+	private CheckpointIndex getCheckpointIndex() {
+		CheckpointIndex index = checkpointIndex;
+		
+		if(index == null) {
+			//only lock when creating the index, so that two threads can't
+			//both load (and then save) the same file
+			synchronized(this) {
+				index = checkpointIndex;
+				if(index == null) {
+					index = new CheckpointIndex(checkpointFile,
+								CheckpointIndex.createFingerprint(getRNGAlgorithm(),
+											getRNGKey(), getRepeatInterval()));
+					checkpointIndex = index;
+				}
+			}
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Finds the checkpoint at or before the given time, extending the
+	 * checkpoint index if it doesn't reach that far yet.
+	 * @return The block number of the checkpoint, or -1 if the given
+	 *         time is before the start of the calendar.
+	 */
+	private int findCheckpoint(long target) {
+		CheckpointIndex index = getCheckpointIndex();
+		
+		if(index.getLastBlockStartTime() <= target) {
+			extendCheckpoints(index, target, 0);
+		}
+		
+		return index.findBlock(target);
+	}
+	
+	/**
+	 * Adds checkpoints to the given index until the final checkpoint is
+	 * after the given time, and there are more than the given number of
+	 * checkpoints.
+	 */
+	private void extendCheckpoints(CheckpointIndex index, long targetTime, int targetBlock) {
+		synchronized(index) {
+			if(index.getLastBlockStartTime() > targetTime && index.size() > targetBlock) {
+				//another thread got here first
+				return;
+			}
+			
+			long[] gaps = new long[CheckpointIndex.BLOCK_SIZE];
+			long time;
+			
+			do {
+				getTimesElapsedAfter((long) (index.size() - 1) * CheckpointIndex.BLOCK_SIZE,
+							CheckpointIndex.BLOCK_SIZE, gaps);
+				
+				time = index.getLastBlockStartTime();
+				for(long gap : gaps) {
+					time += gap;
+				}
+				
+				index.addBlock(time);
+			} while(time <= targetTime || index.size() <= targetBlock);
+			
+			index.save();
+		}
+	}
+	
+	/**
+	 * Returns every fire time in the given checkpoint block, calculating
+	 * them if they aren't cached. The block must already be in the
+	 * checkpoint index.
+	 */
+	private BlockTimes getBlockTimes(int block) {
+		int slot = block & (BLOCK_TIME_SLOTS - 1);
+		BlockTimes result = blockTimes.get(slot);
+		
+		if(result == null || result.block != block) {
+			long[] times = new long[CheckpointIndex.BLOCK_SIZE + 1];
+			getTimesElapsedAfter((long) block * CheckpointIndex.BLOCK_SIZE,
+						CheckpointIndex.BLOCK_SIZE, times);
+			
+			//convert the gaps to a running total, starting from the
+			//checkpoint
+			long time = getCheckpointIndex().getBlockStartTime(block);
+			long gap;
+			for(int i = 0; i <= CheckpointIndex.BLOCK_SIZE; i++) {
+				gap = times[i];
+				times[i] = time;
+				time += gap;
+			}
+			
+			result = new BlockTimes(block, times);
+			blockTimes.set(slot, result);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ScheduleCursor getCursorAfter(long target) {
+		long index = nextFireTimeIndex(target);
+		return new ScheduleCursor(this, index, fireTimeMillisAt(index));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ScheduleCursor getCursorAt(long index) {
+		return new ScheduleCursor(this, index, fireTimeMillisAt(index));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ScheduleCursor getCursorBefore(long target) {
+		long index = previousFireTimeIndex(target);
+		return new ScheduleCursor(this, index, fireTimeMillisAt(index));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long nextFireTimeMillis(long target) {
+		return lookahead.getFireTimeAfter(target);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long previousFireTimeMillis(long target) {
+		return fireTimeMillisAt(previousFireTimeIndex(target));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This takes logarithmic time: a binary search of the checkpoint
+	 * index finds the right block, and a binary search of that block
+	 * finds the fire time. At most one block's worth of gaps needs to be
+	 * calculated, and none if the block was used recently.
+	 * </p>
+	 */
+	@Override
+	public long nextFireTimeIndex(long target) {
+		if(target < RandomizedTrigger.CALENDAR_START) {
+			//times before the start of the calendar aren't indexed, so
+			//iterate backwards from the start instead
+			long index = 0;
+			long time = RandomizedTrigger.CALENDAR_START;
+			while(time > target) {
+				index--;
+				time -= getTimeElapsedAfter(index);
+			}
+		
+			return index + 1;
+		}
+		
+		int block = findCheckpoint(target);
+		long[] times = getBlockTimes(block).times;
+		
+		//find the first time after the target (the final entry is the
+		//next checkpoint, which is always after the target)
+		int low = 0;
+		int high = CheckpointIndex.BLOCK_SIZE;
+		int mid;
+		while(low < high) {
+			mid = (low + high) >>> 1;
+			if(times[mid] <= target) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		
+		return (long) block * CheckpointIndex.BLOCK_SIZE + low;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long previousFireTimeIndex(long target) {
+		if(target <= RandomizedTrigger.CALENDAR_START) {
+			//times before the start of the calendar aren't indexed, so
+			//iterate backwards from the start instead
+			long index = 0;
+			long time = RandomizedTrigger.CALENDAR_START;
+			while(time >= target) {
+				index--;
+				time -= getTimeElapsedAfter(index);
+			}
+		
+			return index;
+		}
+		
+		int block = findCheckpoint(target - 1);
+		long[] times = getBlockTimes(block).times;
+		
+		//find the first time at or after the target (the first entry is
+		//always before it, and the final entry always after it)
+		int low = 1;
+		int high = CheckpointIndex.BLOCK_SIZE;
+		int mid;
+		while(low < high) {
+			mid = (low + high) >>> 1;
+			if(times[mid] < target) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		
+		//the time before that is the one being searched for
+		return (long) block * CheckpointIndex.BLOCK_SIZE + low - 1;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long fireTimeMillisAt(long index) {
+		if(index < 0) {
+			//negative indices aren't indexed, so iterate backwards
+			long time = RandomizedTrigger.CALENDAR_START;
+			for(long i = -1; i >= index; i--) {
+				time -= getTimeElapsedAfter(i);
+			}
+			
+			return time;
+		}
+		
+		CheckpointIndex checkpoints = getCheckpointIndex();
+		int block = (int) (index / CheckpointIndex.BLOCK_SIZE);
+		if(checkpoints.size() <= block) {
+			extendCheckpoints(checkpoints, Long.MIN_VALUE, block);
+		}
+		
+		return getBlockTimes(block).times[(int) (index - (long) block * CheckpointIndex.BLOCK_SIZE)];
+	}
+	
+	/**
+	 * Sets the file in which to save the checkpoint index, so that it
+	 * can be reused the next time the program runs. The file will be
+	 * rebuilt automatically if it was created for a different schedule.
+	 */
+	public void setCheckpointFile(File checkpointFile) {
+		this.checkpointFile = checkpointFile;
+		checkpointIndex = null;
+	}
+	
+	public File getCheckpointFile() {
+		return checkpointFile;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setRNG(RandomSequenceGenerator rng) {
+		this.rng = rng;
+		resetCachedValues();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setRepeatInterval(long repeatInterval) {
+		super.setRepeatInterval(repeatInterval);
+		resetCachedValues();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getRNGKey() {
+		return rng.getKey();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getRNGAlgorithm() {
+		return rng.getAlgorithm().name();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getLookaheadHitCount() {
+		return lookahead.getHitCount();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getLookaheadMissCount() {
+		return lookahead.getMissCount();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Fire times excluded by the calendar are skipped. Rather than
+	 * testing each fire time in turn, this asks the calendar when the
+	 * excluded period ends and jumps straight past it.
+	 * </p>
+	 */
+	@Override
+	public void triggered(Calendar calendar) {
+		super.triggered(null);
+		setNextFireTime(skipExcludedTimes(getNextFireTime(), calendar));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Date computeFirstFireTime(Calendar calendar) {
+		Date firstFireTime = skipExcludedTimes(super.computeFirstFireTime(null), calendar);
+		setNextFireTime(firstFireTime);
+		return firstFireTime;
+	}
+	
+	/**
+	 * @return The first fire time at or after <code>fireTime</code> that
+	 *         the calendar includes, or null if there is none.
+	 */
+	private Date skipExcludedTimes(Date fireTime, Calendar calendar) {
+		if(calendar == null) {
+			return fireTime;
+		}
+		
+		long time;
+		long includedTime;
+		while(fireTime != null && !calendar.isTimeIncluded(fireTime.getTime())) {
+			time = fireTime.getTime();
+			includedTime = calendar.getNextIncludedTime(time);
+			
+			//some calendars return 0 if nothing is included
+			if(includedTime <= 0) {
+				return null;
+			}
+			
+			fireTime = getFireTimeAfter(new Date(Math.max(includedTime - 1, time)));
+		}
+		
+		return fireTime;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Additionally, if this trigger has been triggered the specified
+	 * number of times, this function will return null, regardless of
+	 * whether the given time is valid.
+	 * </p>
+	 */
+	@Override
+	public Date getFireTimeAfter(Date target) {
+		if((getTimesTriggered() > getRepeatCount())
+					&& (getRepeatCount() != REPEAT_INDEFINITELY)) {
+			return null;
+		}
+		
+		if(target == null) {
+			target = new Date();
+		}
+		
+		if(getRepeatCount() == 0 && target.compareTo(getStartTime()) >= 0) {
+			return null;
+		}
+		
+		long startTime = getStartTime().getTime();
+		long targetTime = target.getTime();
+		long endTime = (getEndTime() == null) ? Long.MAX_VALUE : getEndTime().getTime();
+		
+		if(targetTime >= endTime) {
+			return null;
+		}
+		
+		if(targetTime < startTime) {
+			return new Date(startTime);
+		}
+		
+		long fireTime = nextFireTimeMillis(targetTime);
+		
+		if(fireTime >= endTime) {
+			return null;
+		}
+		
+		return new Date(fireTime);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Date getFireTimeAfter(Date target, boolean alwaysReturn) {
+		if(!alwaysReturn) {
+			return getFireTimeAfter(target);
+		}
+		
+		return new Date(nextFireTimeMillis(target.getTime()));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Date getFireTimeBefore(Date target) {
+		if(target.getTime() < getStartTime().getTime()) {
+			return null;
+		}
+		
+		return new Date(previousFireTimeMillis(target.getTime()));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Date getFireTimeBefore(Date target, boolean alwaysReturn) {
+		if(!alwaysReturn) {
+			return getFireTimeBefore(target);
+		}
+		
+		return new Date(previousFireTimeMillis(target.getTime()));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public LongStream fireTimes(long fromMillis, long toMillis) {
+		long firstIndex = nextFireTimeIndex(fromMillis - 1);
+		long endIndex = firstIndex;
+		if(toMillis > fromMillis) {
+			endIndex = nextFireTimeIndex(toMillis - 1);
+		}
+		
+		return StreamSupport.longStream(
+					new FireTimeSpliterator(this, firstIndex, endIndex), false);
+	}
+	
+	@Override
+	public int computeNumTimesFiredBetween(Date start, Date end) {
+		if(getRepeatInterval() < 1) {
+			return 0;
+		}
+		
+		//rather than iterating over the range, find the indices of the
+		//first fire time in range and the first fire time after it
+		long firstIndex = nextFireTimeIndex(start.getTime());
+		long endIndex = nextFireTimeIndex(end.getTime() - 1);
+		
+		return (int) Math.max(endIndex - firstIndex, 0);
+	}
+	
+	/**
+	 * Get a {@link ScheduleBuilder} that is configured to produce a
+	 * schedule identical to this trigger's schedule.
+	 */
+	@Override
+	public ScheduleBuilder<SimpleTrigger> getScheduleBuilder() {
+		RandomizedScheduleBuilder sb =
+					RandomizedScheduleBuilder.randomizedSchedule()
+												.withIntervalInMilliseconds(getRepeatInterval())
+												.withRepeatCount(getRepeatCount())
+												.withRNGKey(getRNGKey())
+												.withRNGAlgorithm(getRNGAlgorithm())
+												.withCheckpointFile(getCheckpointFile());
+		
+		switch(getMisfireInstruction()) {
+			case MISFIRE_INSTRUCTION_FIRE_NOW:
+				sb.withMisfireHandlingInstructionFireNow();
+				break;
+			case MISFIRE_INSTRUCTION_RESCHEDULE_NEXT_WITH_EXISTING_COUNT:
+				sb.withMisfireHandlingInstructionNextWithExistingCount();
+				break;
+			case MISFIRE_INSTRUCTION_RESCHEDULE_NEXT_WITH_REMAINING_COUNT:
+				sb.withMisfireHandlingInstructionNextWithRemainingCount();
+				break;
+			case MISFIRE_INSTRUCTION_RESCHEDULE_NOW_WITH_EXISTING_REPEAT_COUNT:
+				sb.withMisfireHandlingInstructionNowWithExistingCount();
+				break;
+			case MISFIRE_INSTRUCTION_RESCHEDULE_NOW_WITH_REMAINING_REPEAT_COUNT:
+				sb.withMisfireHandlingInstructionNowWithRemainingCount();
+				break;
+		}
+		
+		return sb;
+	}
+	
+	/**
+	 * Converts random values between 0 and 1 to an exponential
+	 * distribution with a mean of this trigger's repeat interval.
+	 */
+	private long convertToExponentialDistribution(double randomValue) {
+		//values too close to 0 will produce absurdly large numbers
+		//(and 0 itself will produce Infinity)
+		//TODO: (Possibly) implement a more elegant way of enforcing an upper bound.
+		if(randomValue < 0.00000001) {
+			randomValue = 0.00000001;
+		}
+		
+		return (long) (getRepeatInterval() * -1 * Math.log(randomValue));
+	}
+	
+	/**
+	 * <p>
+	 * Finds the amount of time in seconds that the trigger will wait,
+	 * once it is triggered the given number of times. For example, if
+	 * <code>index</code> is 2, this returns how much time will pass
+	 * between the second and third times the trigger is triggered.
+	 * </p>
+	 * <p>
+	 * <b>Caution:</b> If this trigger uses a calendar and skips being
+	 * triggered as a result, this method will fail to take that into
+	 * account. For example, if the trigger is triggered five times and
+	 * then skipped twice, getTimesTriggered() will return 5, but passing
+	 * 5 to getTimeElapsedAfter() will return a value corresponding to
+	 * part of the skipped time period.
+	 * </p>
+	 */
+	public long getTimeElapsedAfter(long index) {
+		long batchNumber = index >> GAP_BATCH_SHIFT;
+		int slot = (int) (batchNumber & (GAP_BATCH_SLOTS - 1));
+		GapBatch batch = gapBatches.get(slot);
+		
+		if(batch == null || batch.firstIndex != batchNumber << GAP_BATCH_SHIFT) {
+			long firstIndex = batchNumber << GAP_BATCH_SHIFT;
+			
+			long[] gaps = new long[GAP_BATCH_SIZE];
+			getTimesElapsedAfter(firstIndex, GAP_BATCH_SIZE, gaps);
+			
+			batch = new GapBatch(firstIndex, gaps);
+			gapBatches.set(slot, batch);
+		}
+		
+		return batch.gaps[(int) (index - batch.firstIndex)];
+	}
+	
+	/**
+	 * Calculates a series of consecutive gaps in a single pass. Unlike
+	 * <code>getTimeElapsedAfter()</code>, this doesn't use or update the
+	 * shared cache, so it's better suited to long sequential reads (and
+	 * to reads by many threads at once).
+	 * @param firstIndex The index of the first gap to calculate.
+	 * @param count The number of gaps to calculate.
+	 * @param out The array to store the gaps in, starting at index 0.
+	 * @see #getTimeElapsedAfter(long)
+	 */
+	@Override
+	public void getTimesElapsedAfter(long firstIndex, int count, long[] out) {
+		double[] values = new double[count];
+		rng.getValues(firstIndex, count, values);
+		
+		for(int i = 0; i < count; i++) {
+			out[i] = convertToExponentialDistribution(values[i]);
+		}
+	}
+	
+	/**
+	 * The fire times in one checkpoint block, from the checkpoint itself
+	 * up to and including the next checkpoint. These are never modified
+	 * after being created, so it is safe for multiple threads to share
+	 * them.
+	 */
+	private static class BlockTimes {
+		public final int block;
+		public final long[] times;
+		
+		public BlockTimes(int block, long[] times) {
+			this.block = block;
+			this.times = times;
+		}
+	}
+	
+	/**
+	 * A series of consecutive gaps. Batches are never modified after
+	 * being created, so it is safe for multiple threads to share them.
+	 */
+	private static class GapBatch {
+		public final long firstIndex;
+		public final long[] gaps;
+		
+		public GapBatch(long firstIndex, long[] gaps) {
+			this.firstIndex = firstIndex;
+			this.gaps = gaps;
+		}
+	}
+}
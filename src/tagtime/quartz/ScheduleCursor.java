@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.quartz;
+
+/**
+ * <p>
+ * An immutable position in a {@link RandomizedTriggerImpl}'s schedule:
+ * a fire time, plus its index in the random sequence. Cursors can be
+ * created and moved by any number of threads at once, because moving a
+ * cursor creates a new cursor rather than modifying shared state.
+ * </p>
+ * <p>
+ * A cursor always refers to the schedule that was in effect when it was
+ * created. If the trigger's RNG or repeat interval changes, existing
+ * cursors should be discarded.
+ * </p>
+ * @see RandomizedTrigger#getCursorAfter(long)
+ * @see RandomizedTrigger#getCursorBefore(long)
+ */
+public final class ScheduleCursor {
+	private final RandomizedTriggerImpl trigger;
+	private final long index;
+	private final long time;
+	
+	ScheduleCursor(RandomizedTriggerImpl trigger, long index, long time) {
+		this.trigger = trigger;
+		this.index = index;
+		this.time = time;
+	}
+	
+	/**
+	 * @return The index of this fire time in the random sequence. Index
+	 *         0 corresponds to {@link RandomizedTrigger#CALENDAR_START}.
+	 */
+	public long getIndex() {
+		return index;
+	}
+	
+	/**
+	 * @return The fire time, in milliseconds.
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * @return A cursor pointing to the fire time after this one.
+	 */
+	public ScheduleCursor next() {
+		return new ScheduleCursor(trigger, index + 1,
+					time + trigger.getTimeElapsedAfter(index));
+	}
+	
+	/**
+	 * @return A cursor pointing to the fire time before this one.
+	 */
+	public ScheduleCursor previous() {
+		return new ScheduleCursor(trigger, index - 1,
+					time - trigger.getTimeElapsedAfter(index - 1));
+	}
+	
+	@Override
+	public String toString() {
+		return "ScheduleCursor[index=" + index + ", time=" + time + "]";
+	}
+}
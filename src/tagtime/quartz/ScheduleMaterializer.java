@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.quartz;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.LongBinaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * <p>
+ * Calculates long runs of consecutive fire times using every available
+ * core, for bulk work such as backfilling or auditing months of history.
+ * </p>
+ * <p>
+ * Each gap in a randomized schedule depends only on its index, so the
+ * gaps are calculated in parallel slices. The fire times are then the
+ * running total of the gaps, which is found with a parallel prefix sum.
+ * Since addition of longs is exact and associative, the results are
+ * identical to those of stepping through the schedule one fire time at
+ * a time.
+ * </p>
+ * <p>
+ * Time ranges are processed in chunks, so memory use is bounded no
+ * matter how long the range is.
+ * </p>
+ */
+public class ScheduleMaterializer {
+	/**
+	 * The default number of fire times to calculate at once.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+	
+	/**
+	 * The number of gaps each task calculates.
+	 */
+	private static final int SLICE_SIZE = 8192;
+	
+	private static final LongBinaryOperator SUM = new LongBinaryOperator() {
+		@Override
+		public long applyAsLong(long left, long right) {
+			return left + right;
+		}
+	};
+	
+	/**
+	 * Receives fire times from
+	 * {@link ScheduleMaterializer#materializeBetween(long, long, ChunkHandler)}.
+	 */
+	public interface ChunkHandler {
+		/**
+		 * @param firstIndex The index of the first fire time in the chunk.
+		 * @param times The fire times. This array is reused for the next
+		 *            chunk, so copy anything that needs to be kept.
+		 * @param count The number of valid entries in <code>times</code>.
+		 */
+		void handleChunk(long firstIndex, long[] times, int count);
+	}
+	
+	private final RandomizedTrigger trigger;
+	private final int chunkSize;
+	
+	public ScheduleMaterializer(RandomizedTrigger trigger) {
+		this(trigger, DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * @param chunkSize The maximum number of fire times to hold in memory
+	 *            at once when processing a time range.
+	 */
+	public ScheduleMaterializer(RandomizedTrigger trigger, int chunkSize) {
+		if(chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive.");
+		}
+		
+		this.trigger = trigger;
+		this.chunkSize = chunkSize;
+	}
+	
+	/**
+	 * Calculates <code>count</code> consecutive fire times, starting at
+	 * the given index.
+	 */
+	public long[] materialize(long firstIndex, int count) {
+		long[] times = new long[count];
+		if(count > 0) {
+			fill(firstIndex, trigger.fireTimeMillisAt(firstIndex), times, count);
+		}
+		return times;
+	}
+	
+	/**
+	 * Passes every fire time from <code>fromMillis</code> (inclusive) to
+	 * <code>toMillis</code> (exclusive) to the handler, in order, in
+	 * chunks of at most this materializer's chunk size. Like
+	 * {@link RandomizedTrigger#fireTimes(long, long)}, this ignores the
+	 * trigger's start and end times.
+	 */
+	public void materializeBetween(long fromMillis, long toMillis, ChunkHandler handler) {
+		if(fromMillis >= toMillis) {
+			return;
+		}
+		
+		long index = trigger.nextFireTimeIndex(fromMillis - 1);
+		long endIndex = trigger.nextFireTimeIndex(toMillis - 1);
+		if(index >= endIndex) {
+			return;
+		}
+		
+		//a short range only needs a short array
+		long[] times = new long[(int) Math.min(chunkSize, endIndex - index)];
+		long[] lastGap = new long[1];
+		long time = trigger.fireTimeMillisAt(index);
+		int count;
+		while(true) {
+			count = (int) Math.min(times.length, endIndex - index);
+			fill(index, time, times, count);
+			handler.handleChunk(index, times, count);
+		
+			index += count;
+			if(index >= endIndex) {
+				return;
+			}
+			
+			//find the first fire time of the next chunk
+			trigger.getTimesElapsedAfter(index - 1, 1, lastGap);
+			time = times[count - 1] + lastGap[0];
+		}
+	}
+	
+	/**
+	 * Fills <code>times</code> with the <code>count</code> fire times
+	 * starting at <code>firstIndex</code>, which fires at
+	 * <code>startTime</code>.
+	 */
+	private void fill(final long firstIndex, long startTime, final long[] times,
+				final int count) {
+		//times[i] starts out as the gap before fire time i, so that the
+		//prefix sum turns it into the fire time itself
+		times[0] = startTime;
+		
+		final int gapCount = count - 1;
+		int sliceCount = (gapCount + SLICE_SIZE - 1) / SLICE_SIZE;
+		IntStream.range(0, sliceCount).parallel().forEach(new IntConsumer() {
+			@Override
+			public void accept(int slice) {
+				int offset = slice * SLICE_SIZE;
+				int length = Math.min(SLICE_SIZE, gapCount - offset);
+				long[] gaps = new long[length];
+				trigger.getTimesElapsedAfter(firstIndex + offset, length, gaps);
+				System.arraycopy(gaps, 0, times, offset + 1, length);
+			}
+		});
+		
+		Arrays.parallelPrefix(times, 0, count, SUM);
+	}
+}
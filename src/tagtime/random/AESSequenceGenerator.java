@@ -0,0 +1,234 @@
+/*
+ * Copyright 2011-2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.random;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * <p>
+ * A pseudo-random number generator that produces values by encrypting
+ * numeric values. For example, it calculates the first value in the
+ * sequence by encrypting the number 0, and the second value by
+ * encrypting the number 1. This allows TagTime to iterate over the
+ * sequence in either direction.
+ * </p>
+ * <p>
+ * This is the default generator, and the only one available in earlier
+ * versions of TagTime.
+ * </p>
+ */
+public class AESSequenceGenerator implements RandomSequenceGenerator {
+	/**
+	 * The length of one AES block, in bytes.
+	 */
+	private static final int BLOCK_LENGTH = 16;
+	
+	/**
+	 * <p>
+	 * The byte used to fill the second half of each input block.
+	 * </p>
+	 * <p>
+	 * Positions are eight bytes long, and this generator originally
+	 * relied on PKCS #5 padding to fill out the rest of the block. That
+	 * padding is always eight copies of the number 8, so filling it in
+	 * by hand produces the exact same values, without the cipher having
+	 * to pad (or process a second block) for every position.
+	 * </p>
+	 */
+	private static final byte PADDING = 8;
+	
+	private final Key key;
+	
+	/**
+	 * Each thread gets its own cipher and buffers, since neither can be
+	 * shared safely. This way, any number of threads can generate values
+	 * at once.
+	 */
+	private final ThreadLocal<CipherState> cipherState = new ThreadLocal<CipherState>() {
+		@Override
+		protected CipherState initialValue() {
+			try {
+				return new CipherState(key);
+			} catch(GeneralSecurityException e) {
+				//the constructor already created a cipher with this key,
+				//so this shouldn't be possible
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+	
+	/**
+	 * Creates a new <code>AESSequenceGenerator</code> with an
+	 * automatically-generated key.
+	 * @throws NoSuchPaddingException
+	 * @throws NoSuchAlgorithmException
+	 * @throws InvalidKeyException
+	 */
+	public AESSequenceGenerator() throws InvalidKeyException, NoSuchAlgorithmException,
+				NoSuchPaddingException {
+		this(null);
+	}
+	
+	/**
+	 * Creates a new <code>AESSequenceGenerator</code> with a
+	 * user-provided key. Use this if you want consistent pseudo-random
+	 * numbers across multiple executions or generators.
+	 * @param keyString The encryption key to use. No safety checking is
+	 *            performed, and weak keys will be accepted. If this is
+	 *            null or empty, an automatically-generated key will be
+	 *            used instead.
+	 * @throws NoSuchAlgorithmException If Java has dropped support for
+	 *             AES (not likely).
+	 * @throws NoSuchPaddingException If Java has dropped support for AES
+	 *             (not likely).
+	 * @throws InvalidKeyException If the user modifies their RNG_KEY
+	 *             setting to a value that cannot be used as an AES key.
+	 *             This may or may not be possible (untested).
+	 */
+	public AESSequenceGenerator(String keyString) throws NoSuchAlgorithmException,
+				NoSuchPaddingException, InvalidKeyException {
+		//generate or parse the key
+		if(keyString == null || keyString.equals("")) {
+			key = KeyGenerator.getInstance("AES").generateKey();
+		} else {
+			key = new SecretKeySpec(Base64.decodeBase64(keyString), "AES");
+		}
+		
+		//set up this thread's cipher right away, so that any problems
+		//with the key are reported here
+		cipherState.set(new CipherState(key));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getValue(long position) {
+		CipherState state = cipherState.get();
+		state.getValues(position, 1, state.singleValue);
+		return state.singleValue[0];
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * All the values are encrypted in a single pass.
+	 * </p>
+	 */
+	@Override
+	public void getValues(long startPosition, int count, double[] out) {
+		cipherState.get().getValues(startPosition, count, out);
+	}
+	
+	@Override
+	public String getKey() {
+		return Base64.encodeBase64String(key.getEncoded());
+	}
+	
+	@Override
+	public SequenceAlgorithm getAlgorithm() {
+		return SequenceAlgorithm.AES;
+	}
+	
+	/**
+	 * A cipher and the buffers used with it, for use by a single thread.
+	 */
+	private static class CipherState {
+		private final Cipher cipher;
+		
+		/**
+		 * Reusable buffers for the data to be encrypted and the encrypted
+		 * result. These grow as needed to fit the largest request so far.
+		 */
+		private byte[] input = new byte[0];
+		private byte[] output = new byte[0];
+		private ByteBuffer inputBuffer;
+		private ByteBuffer outputBuffer;
+		
+		/**
+		 * A reusable array for single-value requests.
+		 */
+		public final double[] singleValue = new double[1];
+		
+		public CipherState(Key key) throws NoSuchAlgorithmException,
+					NoSuchPaddingException, InvalidKeyException {
+			//padding is handled manually; see PADDING
+			cipher = Cipher.getInstance("AES/ECB/NoPadding");
+			cipher.init(Cipher.ENCRYPT_MODE, key);
+		}
+		
+		public void getValues(long startPosition, int count, double[] out) {
+			int length = count * BLOCK_LENGTH;
+			ensureCapacity(length);
+			
+			for(int i = 0; i < count; i++) {
+				inputBuffer.putLong(i * BLOCK_LENGTH, startPosition + i);
+			}
+			
+			try {
+				cipher.doFinal(input, 0, length, output, 0);
+			} catch(Exception e) {
+				e.printStackTrace();
+				Arrays.fill(out, 0, count, 0);
+				return;
+			}
+			
+			//convert the first eight bytes of each block to a double
+			//between 0 and 1
+			for(int i = 0; i < count; i++) {
+				out[i] = 0.5 + 0.5 * ((double) outputBuffer.getLong(i * BLOCK_LENGTH)
+							/ Long.MAX_VALUE);
+			}
+		}
+		
+		/**
+		 * Makes sure the input and output buffers have room for the
+		 * given number of bytes.
+		 */
+		private void ensureCapacity(int length) {
+			if(input.length >= length) {
+				return;
+			}
+			
+			input = new byte[Math.max(length, input.length * 2)];
+			output = new byte[input.length];
+			inputBuffer = ByteBuffer.wrap(input);
+			outputBuffer = ByteBuffer.wrap(output);
+			
+			//the padding never changes, so it only needs to be filled in
+			//when the buffer is created
+			for(int i = 0; i < input.length; i += BLOCK_LENGTH) {
+				Arrays.fill(input, i + BLOCK_LENGTH / 2, i + BLOCK_LENGTH, PADDING);
+			}
+		}
+	}
+}
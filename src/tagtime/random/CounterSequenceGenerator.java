@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.random;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * A base class for generators that produce each value by scrambling its
+ * position, using arithmetic rather than a cipher. Because they keep no
+ * state besides the key, these generators are safe to share between
+ * threads.
+ */
+public abstract class CounterSequenceGenerator implements RandomSequenceGenerator {
+	/**
+	 * The scale needed to convert 53 random bits (the precision of a
+	 * double) to a value between 0 and 1.
+	 */
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+	
+	private final byte[] key;
+	
+	/**
+	 * @param keyString The key, encoded in Base64. If this is null or
+	 *            empty, a new key will be generated. Otherwise, it will
+	 *            be truncated or padded with zeros to fit
+	 *            <code>keyLength</code>.
+	 * @param keyLength The number of bytes the algorithm needs.
+	 */
+	protected CounterSequenceGenerator(String keyString, int keyLength) {
+		key = new byte[keyLength];
+		
+		if(keyString == null || keyString.equals("")) {
+			new SecureRandom().nextBytes(key);
+		} else {
+			byte[] decoded = Base64.decodeBase64(keyString);
+			System.arraycopy(decoded, 0, key, 0, Math.min(decoded.length, keyLength));
+		}
+	}
+	
+	/**
+	 * @return A read-only view of the key, for subclasses to extract
+	 *         their key words from.
+	 */
+	protected ByteBuffer getKeyBytes() {
+		return ByteBuffer.wrap(key).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Returns 64 pseudo-random bits for the given position.
+	 */
+	protected abstract long getBits(long position);
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getValue(long position) {
+		return (getBits(position) >>> 11) * DOUBLE_UNIT;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void getValues(long startPosition, int count, double[] out) {
+		for(int i = 0; i < count; i++) {
+			out[i] = (getBits(startPosition + i) >>> 11) * DOUBLE_UNIT;
+		}
+	}
+	
+	@Override
+	public String getKey() {
+		return Base64.encodeBase64String(key);
+	}
+}
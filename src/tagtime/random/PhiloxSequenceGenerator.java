@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.random;
+
+/**
+ * Generates values using Philox4x32-10, a counter-based generator from
+ * Salmon et al., "Parallel Random Numbers: As Easy as 1, 2, 3" (2011).
+ * The position is used as the lower half of the 128-bit counter, and
+ * the first 64 bits of the output are used as the value.
+ */
+public class PhiloxSequenceGenerator extends CounterSequenceGenerator {
+	private static final int ROUNDS = 10;
+	
+	private static final long MULTIPLIER_0 = 0xD2511F53L;
+	private static final long MULTIPLIER_1 = 0xCD9E8D57L;
+	
+	/**
+	 * The amounts the key is "bumped" by after each round.
+	 */
+	private static final int WEYL_0 = 0x9E3779B9;
+	private static final int WEYL_1 = 0xBB67AE85;
+	
+	private final int key0;
+	private final int key1;
+	
+	/**
+	 * @param keyString An eight-byte key, encoded in Base64. If this is
+	 *            null or empty, a new key will be generated.
+	 */
+	public PhiloxSequenceGenerator(String keyString) {
+		super(keyString, 8);
+		key0 = getKeyBytes().getInt(0);
+		key1 = getKeyBytes().getInt(4);
+	}
+	
+	@Override
+	protected long getBits(long position) {
+		int c0 = (int) position;
+		int c1 = (int) (position >>> 32);
+		int c2 = 0;
+		int c3 = 0;
+		int k0 = key0;
+		int k1 = key1;
+		
+		long product0;
+		long product1;
+		for(int round = 0; round < ROUNDS; round++) {
+			product0 = MULTIPLIER_0 * (c0 & 0xFFFFFFFFL);
+			product1 = MULTIPLIER_1 * (c2 & 0xFFFFFFFFL);
+			
+			c0 = (int) (product1 >>> 32) ^ c1 ^ k0;
+			c1 = (int) product1;
+			c2 = (int) (product0 >>> 32) ^ c3 ^ k1;
+			c3 = (int) product0;
+			
+			k0 += WEYL_0;
+			k1 += WEYL_1;
+		}
+		
+		return ((long) c0 << 32) | (c1 & 0xFFFFFFFFL);
+	}
+	
+	@Override
+	public SequenceAlgorithm getAlgorithm() {
+		return SequenceAlgorithm.PHILOX;
+	}
+}
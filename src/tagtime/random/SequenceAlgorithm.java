@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.random;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * The algorithms available for generating random sequences. Each of
+ * these supports jumping directly to any position in the sequence.
+ * @see RandomSequenceGenerator
+ */
+public enum SequenceAlgorithm {
+	/**
+	 * Encrypts each position using AES. This is slower than the others,
+	 * but it was the only option in earlier versions of TagTime, so it
+	 * remains the default.
+	 * @see AESSequenceGenerator
+	 */
+	AES {
+		@Override
+		public RandomSequenceGenerator create(String key) throws GeneralSecurityException {
+			return new AESSequenceGenerator(key);
+		}
+	},
+	
+	/**
+	 * Scrambles each position using the SplitMix64 mixing function.
+	 * This is by far the fastest option.
+	 * @see SplitMix64SequenceGenerator
+	 */
+	SPLITMIX64 {
+		@Override
+		public RandomSequenceGenerator create(String key) {
+			return new SplitMix64SequenceGenerator(key);
+		}
+	},
+	
+	/**
+	 * Uses the Philox4x32-10 counter-based generator.
+	 * @see PhiloxSequenceGenerator
+	 */
+	PHILOX {
+		@Override
+		public RandomSequenceGenerator create(String key) {
+			return new PhiloxSequenceGenerator(key);
+		}
+	},
+	
+	/**
+	 * Uses the Threefry2x64-20 counter-based generator.
+	 * @see ThreefrySequenceGenerator
+	 */
+	THREEFRY {
+		@Override
+		public RandomSequenceGenerator create(String key) {
+			return new ThreefrySequenceGenerator(key);
+		}
+	};
+	
+	/**
+	 * Creates a generator that uses this algorithm.
+	 * @param key The key to use, as returned by
+	 *            {@link RandomSequenceGenerator#getKey()}. If this is
+	 *            null or empty, a new key will be generated.
+	 * @throws GeneralSecurityException If the algorithm relies on a
+	 *             cryptography provider that isn't available, or the
+	 *             key can't be used.
+	 */
+	public abstract RandomSequenceGenerator create(String key) throws GeneralSecurityException;
+	
+	/**
+	 * Looks up an algorithm by name, ignoring case.
+	 * @param name The name of the algorithm. If this is null or empty,
+	 *            the default (AES) will be returned.
+	 * @throws IllegalArgumentException If the name doesn't match any
+	 *             algorithm.
+	 */
+	public static SequenceAlgorithm fromName(String name) {
+		if(name == null || name.trim().equals("")) {
+			return AES;
+		}
+		
+		return valueOf(name.trim().toUpperCase());
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.random;
+
+/**
+ * Generates values using SplitMix64, the mixing function behind
+ * <code>java.util.SplittableRandom</code>. SplitMix64 calculates each
+ * value from a counter, so the value at any position can be found
+ * directly.
+ */
+public class SplitMix64SequenceGenerator extends CounterSequenceGenerator {
+	/**
+	 * The amount the SplitMix64 counter advances per value.
+	 */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	
+	private final long seed;
+	
+	/**
+	 * @param keyString An eight-byte key, encoded in Base64. If this is
+	 *            null or empty, a new key will be generated.
+	 */
+	public SplitMix64SequenceGenerator(String keyString) {
+		super(keyString, 8);
+		seed = getKeyBytes().getLong(0);
+	}
+	
+	@Override
+	protected long getBits(long position) {
+		long z = seed + (position + 1) * GOLDEN_GAMMA;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	@Override
+	public SequenceAlgorithm getAlgorithm() {
+		return SequenceAlgorithm.SPLITMIX64;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.random;
+
+/**
+ * Generates values using Threefry2x64-20, a counter-based generator from
+ * Salmon et al., "Parallel Random Numbers: As Easy as 1, 2, 3" (2011),
+ * derived from the Threefish block cipher. The position is used as the
+ * first word of the counter, and the first word of the output is used
+ * as the value.
+ */
+public class ThreefrySequenceGenerator extends CounterSequenceGenerator {
+	private static final int ROUNDS = 20;
+	
+	private static final int[] ROTATIONS = {16, 42, 12, 31, 16, 32, 24, 21};
+	
+	/**
+	 * The constant used to derive the third key word in Threefish.
+	 */
+	private static final long KEY_SCHEDULE_PARITY = 0x1BD11BDAA9FC1A22L;
+	
+	/**
+	 * The key schedule: the two key words, plus the parity word.
+	 */
+	private final long[] keySchedule = new long[3];
+	
+	/**
+	 * @param keyString A 16-byte key, encoded in Base64. If this is null
+	 *            or empty, a new key will be generated.
+	 */
+	public ThreefrySequenceGenerator(String keyString) {
+		super(keyString, 16);
+		keySchedule[0] = getKeyBytes().getLong(0);
+		keySchedule[1] = getKeyBytes().getLong(8);
+		keySchedule[2] = KEY_SCHEDULE_PARITY ^ keySchedule[0] ^ keySchedule[1];
+	}
+	
+	@Override
+	protected long getBits(long position) {
+		long x0 = position + keySchedule[0];
+		long x1 = keySchedule[1];
+		
+		int injection;
+		for(int round = 0; round < ROUNDS; round++) {
+			x0 += x1;
+			x1 = Long.rotateLeft(x1, ROTATIONS[round % 8]);
+			x1 ^= x0;
+			
+			//inject the key every four rounds
+			if(round % 4 == 3) {
+				injection = (round + 1) / 4;
+				x0 += keySchedule[injection % 3];
+				x1 += keySchedule[(injection + 1) % 3] + injection;
+			}
+		}
+		
+		return x0;
+	}
+	
+	@Override
+	public SequenceAlgorithm getAlgorithm() {
+		return SequenceAlgorithm.THREEFRY;
+	}
+}
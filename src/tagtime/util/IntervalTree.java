@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * <p>
+ * An immutable set of half-open time intervals, <code>[start, end)</code>,
+ * which can quickly find an interval containing a given point.
+ * </p>
+ * <p>
+ * The intervals are sorted by start time and stored as an implicit
+ * balanced binary tree: the root of any range of the array is its
+ * middle element. Each node also records the latest end time in its
+ * subtree, which lets a lookup rule out whole subtrees at once, so
+ * finding an interval takes O(log n) time no matter how many intervals
+ * overlap.
+ * </p>
+ */
+public final class IntervalTree {
+	/**
+	 * Returned by {@link #findIntervalEnd(long)} when no interval
+	 * contains the given point.
+	 */
+	public static final long NONE = Long.MIN_VALUE;
+	
+	private final long[] starts;
+	private final long[] ends;
+	
+	/**
+	 * The latest end time in the subtree rooted at each index.
+	 */
+	private final long[] maxEnds;
+	
+	/**
+	 * Builds a tree containing the given intervals. Each interval must be
+	 * an array of length 2, containing the start time (inclusive) and
+	 * end time (exclusive). Empty intervals are ignored.
+	 */
+	public IntervalTree(Collection<long[]> intervals) {
+		long[][] sorted = new long[intervals.size()][];
+		int count = 0;
+		for(long[] interval : intervals) {
+			if(interval[0] < interval[1]) {
+				sorted[count++] = interval;
+			}
+		}
+		
+		Arrays.sort(sorted, 0, count, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+			}
+		});
+		
+		starts = new long[count];
+		ends = new long[count];
+		for(int i = 0; i < count; i++) {
+			starts[i] = sorted[i][0];
+			ends[i] = sorted[i][1];
+		}
+		
+		maxEnds = new long[count];
+		computeMaxEnds(0, count);
+	}
+	
+	/**
+	 * Fills in <code>maxEnds</code> for the subtree spanning the given
+	 * range.
+	 * @return The latest end time in the range.
+	 */
+	private long computeMaxEnds(int low, int high) {
+		if(low >= high) {
+			return NONE;
+		}
+		
+		int mid = (low + high) >>> 1;
+		long max = Math.max(ends[mid],
+					Math.max(computeMaxEnds(low, mid), computeMaxEnds(mid + 1, high)));
+		maxEnds[mid] = max;
+		return max;
+	}
+	
+	/**
+	 * @return The number of intervals in the tree.
+	 */
+	public int size() {
+		return starts.length;
+	}
+	
+	/**
+	 * @return Whether any interval contains the given point.
+	 */
+	public boolean contains(long point) {
+		return findIntervalEnd(point) != NONE;
+	}
+	
+	/**
+	 * Finds an interval containing the given point. If several do, there
+	 * is no guarantee which one will be found.
+	 * @return The end time of the interval, or {@link #NONE} if no
+	 *         interval contains the point.
+	 */
+	public long findIntervalEnd(long point) {
+		int low = 0;
+		int high = starts.length;
+		int mid;
+		while(low < high) {
+			mid = (low + high) >>> 1;
+			
+			//nothing in this subtree lasts long enough
+			if(maxEnds[mid] <= point) {
+				return NONE;
+			}
+			
+			if(starts[mid] > point) {
+				//this interval and everything after it starts too late
+				high = mid;
+			} else if(point < ends[mid]) {
+				return ends[mid];
+			} else if(low < mid && maxEnds[(low + mid) >>> 1] > point) {
+				//every interval to the left starts at or before the
+				//point, so one that ends after it must contain it
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		
+		return NONE;
+	}
+}
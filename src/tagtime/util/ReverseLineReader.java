@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 Joseph Cloutier
+ * 
+ * This file is part of TagTime.
+ * 
+ * TagTime is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * TagTime is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with TagTime. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tagtime.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Reads the lines of a file from back to front. Each line ends at a
+ * '\n' or '\r', so a "\r\n" pair is seen as an empty line between the
+ * two characters.
+ * </p>
+ * <p>
+ * Bytes are read from the channel with positional reads, so the
+ * channel's position is never changed. The buffer starts at
+ * <code>MIN_BUFFER_SIZE</code> bytes, since usually only the last line
+ * or two are needed, and doubles each time it has to be refilled, up to
+ * <code>MAX_BUFFER_SIZE</code>. (A single line longer than that will
+ * still be read in full.) Since neither '\n' nor '\r' can appear inside
+ * a multi-byte UTF-8 character, lines are split on the raw bytes and
+ * only decoded when requested.
+ * </p>
+ */
+public class ReverseLineReader {
+	public static final int MIN_BUFFER_SIZE = 4096;
+	public static final int MAX_BUFFER_SIZE = 1 << 20;
+	
+	private final FileChannel channel;
+	private final Charset charset;
+	
+	/**
+	 * The bytes from <code>bufferStart</code> up to the end of the
+	 * current line.
+	 */
+	private byte[] buffer = new byte[0];
+	private long bufferStart;
+	
+	/**
+	 * The current line runs from <code>lineStart</code> (inclusive) to
+	 * <code>lineEnd</code> (exclusive), not counting the line break.
+	 */
+	private long lineStart;
+	private long lineEnd;
+	
+	/**
+	 * The characters most recently passed to
+	 * {@link #containsAny(String)}, and a lookup table of their byte
+	 * values.
+	 */
+	private String searchCharacters = null;
+	private final boolean[] searchBytes = new boolean[256];
+	
+	/**
+	 * @param channel The file to read. This won't be closed.
+	 * @param end The position to read backwards from. The first call to
+	 *            {@link #previous()} will move to the part of the line
+	 *            before this position.
+	 * @param charset The character set used by {@link #getLine()}.
+	 */
+	public ReverseLineReader(FileChannel channel, long end, Charset charset) {
+		this.channel = channel;
+		this.charset = charset;
+		
+		bufferStart = end;
+		
+		//the "line break" before the first line is at the end
+		lineStart = end + 1;
+		lineEnd = end + 1;
+	}
+	
+	/**
+	 * Moves to the previous line.
+	 * @return False if the start of the file has been reached.
+	 */
+	public boolean previous() throws IOException {
+		if(lineStart == 0) {
+			return false;
+		}
+		
+		//skip the line break
+		lineEnd = lineStart - 1;
+		
+		int offset = (int) (lineEnd - bufferStart);
+		while(true) {
+			//scan backwards for the next line break
+			byte[] bytes = buffer;
+			int i = offset - 1;
+			while(i >= 0 && bytes[i] != '\n' && bytes[i] != '\r') {
+				i--;
+			}
+			
+			if(i >= 0) {
+				lineStart = bufferStart + i + 1;
+				return true;
+			}
+			
+			if(bufferStart == 0) {
+				lineStart = 0;
+				return true;
+			}
+			
+			//the line continues before the buffer
+			offset = fill(lineEnd);
+		}
+	}
+	
+	/**
+	 * Reads the next block before the buffer, keeping everything from
+	 * the start of the buffer up to <code>keepUntil</code>.
+	 * @return The offset of <code>keepUntil</code> in the new buffer.
+	 */
+	private int fill(long keepUntil) throws IOException {
+		int keep = (int) (keepUntil - bufferStart);
+		int size = Math.min(Math.max(buffer.length * 2, MIN_BUFFER_SIZE), MAX_BUFFER_SIZE);
+		int readLength = (int) Math.min(Math.max(size - keep, size / 2), bufferStart);
+		
+		byte[] bytes = buffer;
+		if(readLength + keep > bytes.length) {
+			bytes = new byte[Math.max(size, readLength + keep)];
+		}
+		System.arraycopy(buffer, 0, bytes, readLength, keep);
+		
+		long readStart = bufferStart - readLength;
+		ByteBuffer target = ByteBuffer.wrap(bytes, 0, readLength);
+		while(target.hasRemaining()) {
+			if(channel.read(target, readStart + target.position()) < 0) {
+				throw new IOException("The file was truncated while being read.");
+			}
+		}
+		
+		buffer = bytes;
+		bufferStart = readStart;
+		
+		return readLength + keep;
+	}
+	
+	/**
+	 * @return The position of the first byte of the current line.
+	 */
+	public long getLineStart() {
+		return lineStart;
+	}
+	
+	/**
+	 * @return The position just past the last byte of the current line,
+	 *         which is the position of its line break, if it has one.
+	 */
+	public long getLineEnd() {
+		return lineEnd;
+	}
+	
+	/**
+	 * @return The current line, without its line break.
+	 */
+	public String getLine() {
+		return new String(buffer, (int) (lineStart - bufferStart),
+					(int) (lineEnd - lineStart), charset);
+	}
+	
+	/**
+	 * @return Whether the current line contains any of the given
+	 *         characters. Only characters that are a single byte in this
+	 *         reader's character set can be found this way.
+	 */
+	public boolean containsAny(String characters) {
+		if(!characters.equals(searchCharacters)) {
+			Arrays.fill(searchBytes, false);
+			for(int i = 0; i < characters.length(); i++) {
+				if(characters.charAt(i) < searchBytes.length) {
+					searchBytes[characters.charAt(i)] = true;
+				}
+			}
+			searchCharacters = characters;
+		}
+		
+		byte[] bytes = buffer;
+		boolean[] search = searchBytes;
+		int end = (int) (lineEnd - bufferStart);
+		for(int i = (int) (lineStart - bufferStart); i < end; i++) {
+			if(search[bytes[i] & 0xFF]) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+}